@@ -0,0 +1,116 @@
+/*CMCReader.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+
+/**
+ *Reads CMC-formatted back trajectory files from a <code>LineScanner</code>.
+ *<p> The first 8 lines of a CMC file are skipped and line 9 holds the back trajectory date (year, month, day, hour). Every
+ *following line with fewer than <code>numCol</code> columns is an elevation header whose 4th column identifies the level;
+ *every line with at least <code>numCol</code> columns is an endpoint of the current level (latitude in column 2, longitude in
+ *column 3, elevation in column 6). Lines are classified by their column count alone and malformed lines are reported to the
+ *sink rather than thrown.
+ */
+public class CMCReader{
+
+	/**
+	 *Receives the contents of a CMC file in the order they are read.
+	 */
+	public interface Sink{
+		/**
+		 *The back trajectory date of line 9.
+		 *@param year the year as written in the file
+		 */
+		void start(String year, int month, int day, int hour);
+
+		/**
+		 *An elevation header.
+		 *@param label the first column of the header
+		 *@param level the 4th column of the header, which identifies the level of the endpoints that follow
+		 */
+		void level(String label, String level);
+
+		/**
+		 *An endpoint of the current level.
+		 *@param label the first column of the endpoint; null unless elevations were requested
+		 *@param elevation the 6th column of the endpoint; null unless elevations were requested
+		 */
+		void endpoint(double lat, double lon, String label, String elevation);
+
+		/**
+		 *A line which could not be read; it is skipped.
+		 */
+		void malformed(int lineNumber);
+	}
+
+	/**
+	 *Reads a CMC file.
+	 *@param in the tokenized file
+	 *@param numCol the number of columns of an admissable endpoint
+	 *@param elevations true if the label and elevation of every endpoint should be passed to the sink
+	 *@param sink receives the date, the elevation headers and the endpoints
+	 */
+	public static void read(LineScanner in, int numCol, boolean elevations, Sink sink){
+		for(int j = 0; j < 8; j++){
+			if(!in.nextLine()){
+				sink.malformed(j+1);
+				return;
+			}
+		}
+
+		//sourceID, line 9
+		if(!in.nextLine()){
+			sink.malformed(9);
+			return;
+		}
+		int month = in.parseInt(1);
+		int day = in.parseInt(2);
+		int hour = in.parseInt(3);
+		if(in.tokenCount() < 4 || month == LineScanner.BAD_INT || day == LineScanner.BAD_INT || hour == LineScanner.BAD_INT){
+			sink.malformed(9);
+			return;
+		}
+		sink.start(in.token(0), month, day, hour);
+
+		int minColumns = elevations ? 6 : 3;
+		while(in.nextLine()){
+			int columns = in.tokenCount();
+			if(columns == 0) continue; //blank line
+			if(columns < numCol){ //elevation header
+				if(columns < 4){
+					sink.malformed(in.lineNumber());
+				}else{
+					sink.level(in.token(0), in.token(3));
+				}
+			}else{
+				double lat = (columns < minColumns) ? Double.NaN : in.parseDouble(1);
+				double lon = (columns < minColumns) ? Double.NaN : in.parseDouble(2);
+				if(Double.isNaN(lat) || Double.isNaN(lon)){
+					sink.malformed(in.lineNumber());
+				}else if(elevations){
+					sink.endpoint(lat, lon, in.token(0), in.token(5));
+				}else{
+					sink.endpoint(lat, lon, null, null);
+				}
+			}
+		}
+	}
+}
@@ -26,6 +26,7 @@ package dnimp;
 import java.io.*;
 import java.util.*;
 import java.text.*;
+import java.util.concurrent.*;
 
 /**
  *A member of the DNIMP package which handles relevant operations performed on a set of data.
@@ -42,17 +43,17 @@ public class CMCRender {
 	private DecimalFormat df = new DecimalFormat("00");
 
 	/**
-	 *The northern hemisphere.
+	 *Converts dates of the local time zone to instants; used for hours back and for the tagging of date ranges.
 	 */
-	public World nh; //CHANGE TO PRIVATE
+	private EpochHours localTime = new EpochHours(TimeZone.getDefault());
 
 	/**
-	 *Holds a list of back trajectory files in a specified directory.
+	 *The northern hemisphere.
 	 */
-	private File[] inputFiles;
+	public World nh; //CHANGE TO PRIVATE
 
 	/**
-	 *The abstract pathname describing a directory containing CMC-formatted back trajectories (or HYSPLIT trajectories)
+	 *The abstract pathname describing a directory (or a zip or tar.gz archive) containing CMC-formatted back trajectories (or HYSPLIT trajectories)
 	 */
 	private File inputDirEP; //endpoints
 
@@ -102,6 +103,80 @@ public class CMCRender {
 	 */
 	private ArrayList<ArrayList<Double>> concSet;
 
+	/**
+	 *The number of worker threads used to parse back trajectory files; 1 reads the files serially.
+	 */
+	private int ingestThreads = 1;
+
+	/**
+	 *The number of threads reading back trajectory files while others are parsed; 0 uses twice the number of ingest threads.
+	 */
+	private int ioThreads = 0;
+
+	/**
+	 *The throughput counters of the last (or current) back trajectory read.
+	 */
+	private volatile IngestStats ingestStats;
+
+	/**
+	 *The cache of parsed back trajectory files; null if caching is disabled (default).
+	 */
+	private TrajectoryCache trajCache;
+
+	/**
+	 *Selects the back trajectory endpoints kept while the files are parsed; null keeps every endpoint (default).
+	 */
+	private IngestFilter ingestFilter;
+
+	/**
+	 *The correlated data read by <code>readConcIndex</code>, tagging HYSPLIT endpoints as they are read; null if the endpoints
+	 *are tagged by <code>readConc</code> after they are read (default).
+	 */
+	private ConcentrationIndex concIndex;
+
+	/**
+	 *The number of endpoints added between updates of the progress bar text while reading back trajectories.
+	 */
+	private static final int PROGRESS_STEP = 5000;
+
+	/**
+	 *Parses a single back trajectory file without modifying the World.
+	 */
+	private interface FileParser{
+		ParsedFile parse(TrajectorySource.Entry input, LineScanner in) throws Exception;
+	}
+
+	/**
+	 *Adds the endpoints of a parsed back trajectory file to the World; always invoked in file order.
+	 *<code>done</code> is the fraction of the trajectory files read before this one.
+	 */
+	private interface FileSink{
+		void merge(ParsedFile parsed, double done) throws Exception;
+	}
+
+	/**
+	 *The endpoints parsed from a single back trajectory file, and once binned, the grid (<code>World.locate</code>) of each of
+	 *them and the tags of each of its trajectories.
+	 */
+	private static class ParsedFile{
+		EndpointBatch batch = new EndpointBatch();
+		int[] cells;
+		ConcentrationIndex.Entry[] tags;
+	}
+
+	/**
+	 *A back trajectory file on its way through the stages of <code>ingest</code>.
+	 */
+	private static class IngestJob{
+		int seq;
+		TrajectorySource.Entry input;
+		double done;
+		LineScanner in;
+		ParsedFile parsed;
+		Throwable failure;
+		boolean end;
+	}
+
 
 	/**
 	 *Creates an instance of CMCRender with a World object of a given size and grid-dimensions.
@@ -110,6 +185,8 @@ public class CMCRender {
 	 *@param dX grid width in terms of latitude
 	 *@param dY grid width in terms of longitude
 	 *@param inPathEndPoints directory containing all CMC-formatted backtrajectories. NOTE: the directory must contain these files ONLY.
+	 *Files of the directory may be gzip compressed (.gz); a zip (.zip) or gzip compressed tar (.tar.gz, .tgz) archive of the
+	 *backtrajectories may also be given instead of a directory.
 	 *@param concFilePath full path of the correlated data input file. The pathname must be absolute yet abstract.
 	 *@param outDir program output directory. If the directory does not exist, it is created.
 	 *@throws Exception IOExceptions and null pointer exceptions are thrown to higher levels.
@@ -135,9 +212,7 @@ public class CMCRender {
 
     	//windows path name syntax: C:/a/file.txt ...etc.
     	//unix path name syntax: /a/file.txt ...etc.
-    	if(inputDirEP.isDirectory()){
-    		inputFiles = inputDirEP.listFiles();
-    	}else{
+    	if(!TrajectorySource.isSupported(inputDirEP)){
     		throw new Exception("The Input File Directory Could not be Read"); //this might never be accessible because of front-end error handling
     	}
 
@@ -148,36 +223,89 @@ public class CMCRender {
     }
 
     /**
-     *Uses java.util.GregorianCalendar to correct a date by a time-zone shift and return it as a string in the format: "yyyymmddtt".
-     *@param auxDate the input date which must be in the format: "yyyymmddtt"
-     *@param an option to account for daylight savings time in addition to time zone correction (NOT IMPLEMENTED YET; by default, DST correction is automatic)
-     *@param zoneOffset the hours to subtract from auxDate.
+     *Corrects a date by a time-zone shift.
+     *@param date the input date in epoch hours (see <code>EpochHours</code>)
+     *@param correctDST if true, the shift is applied in the local time zone so that daylight savings time is accounted for; if false,
+     *exactly <code>zoneOffset</code> hours are subtracted
+     *@param zoneOffset the hours to subtract from date.
      *<p> If this function is used to convert any date directly into the UTC time zone, <code>zoneOffset</code> corresponds to the specific time-zone number
      *appropriate to the region.
      */
-    private String timeCorrect(String auxDate, boolean correctDST, int zoneOffset){ //auxDate does not have a zero indexed month!
+    private int timeCorrect(int date, boolean correctDST, int zoneOffset){
 		//zoneOffset in hours (-8 for PST, example!), correctDST = true if DST applies
-    	//date format: yyyymmddtt, yyyymddtt, yyyymmd
-       	GregorianCalendar backDate;
-       
-       	if(!correctDST){
-       		backDate = new GregorianCalendar(new SimpleTimeZone(0, "noDST"));
-       		backDate.set(Integer.parseInt(auxDate.substring(0,4)), Integer.parseInt(auxDate.substring(4,6))-1, Integer.parseInt(auxDate.substring(6,8)), Integer.parseInt(auxDate.substring(8,10)), 0);
-       	}else{
-       		backDate = new GregorianCalendar(Integer.parseInt(auxDate.substring(0,4)), Integer.parseInt(auxDate.substring(4,6))-1, Integer.parseInt(auxDate.substring(6,8)), Integer.parseInt(auxDate.substring(8,10)), 0);
-       	}
-       	
-       	//System.out.println("Date Passed:"  + backDate.get(Calendar.YEAR) + df.format(backDate.get(Calendar.MONTH) + 1) + df.format(backDate.get(Calendar.DAY_OF_MONTH)) + df.format(backDate.get(Calendar.HOUR_OF_DAY)));
-    	
-    	backDate.add(Calendar.HOUR_OF_DAY, (-1*zoneOffset));
-    	String corrected = backDate.get(Calendar.YEAR) + df.format(backDate.get(Calendar.MONTH) + 1) + df.format(backDate.get(Calendar.DAY_OF_MONTH)) + df.format(backDate.get(Calendar.HOUR_OF_DAY));
-    	return corrected;
+    	if(!correctDST) return date - zoneOffset;
+    	return localTime.add(date, -1*zoneOffset);
     }
 
+    /**
+     *Sets the number of worker threads used to parse back trajectory files in <code>readEP</code> and <code>readHSEP</code>.
+     *Files are parsed concurrently, but their endpoints are added to the World strictly in file order so that grid populations,
+     *sourceIDs and receptor sites are identical to those of a serial read.
+     *@param threads the number of files to parse concurrently; values less than 2 read the files serially (default).
+     */
+    public void setIngestThreads(int threads){
+    	this.ingestThreads = Math.max(1, threads);
+    }
 
-    private long mSecTime(String auxDate){
-    	GregorianCalendar date = new GregorianCalendar(Integer.parseInt(auxDate.substring(0,4)), Integer.parseInt(auxDate.substring(4,6))-1, Integer.parseInt(auxDate.substring(6,8)), Integer.parseInt(auxDate.substring(8,10)), 0);
-    	return date.getTimeInMillis();
+    /**
+     *Sets the number of worker threads used to compute the grid cells in <code>calcPSCF</code>, <code>calcCWT</code> and
+     *<code>calcQTBA</code>, and to iterate the pollutants of <code>calcRTWC</code>. Cells are handed out by population, so that
+     *a few crowded cells near the receptors do not leave the other threads idle, and each cell is computed exactly as in a
+     *serial pass.
+     *@param threads the number of threads; values less than 2 compute the cells serially (default).
+     */
+    public void setAnalysisThreads(int threads){
+    	nh.setAnalysisThreads(threads);
+    }
+
+    /**
+     *Sets whether <code>calcRTWC</code> without smoothing and with a convergence criterion (option 2) extrapolates the CWT
+     *field of each pollutant from its last iterations to converge in fewer of them. A converged field still meets
+     *<code>convPercent</code>. Smoothed RTWC (option 3) is never extrapolated, and iterates plainly even if this is set.
+     *@param accelerate true to extrapolate; false iterates plainly (default).
+     */
+    public void setRTWCAcceleration(boolean accelerate){
+    	nh.setRTWCAcceleration(accelerate);
+    }
+
+    /**
+     *Sets the number of threads reading (and decompressing) back trajectory files ahead of the parsing threads when more than
+     *one ingest thread is set. Reads are mostly spent waiting for the disk, so more readers than parsers help on slow or network
+     *storage.
+     *@param threads the number of files read concurrently; values less than 1 use twice the number of ingest threads (default).
+     */
+    public void setIngestIoThreads(int threads){
+    	this.ioThreads = Math.max(0, threads);
+    }
+
+    /**
+     *Returns the throughput counters of the last back trajectory read by <code>readEP</code> or <code>readHSEP</code>, or
+     *of the read in progress; null before the first read.
+     */
+    public IngestStats getIngestStats(){
+    	return ingestStats;
+    }
+
+    /**
+     *Keeps the endpoints parsed from every back trajectory file in a binary cache so that later reads of the same files by
+     *<code>readEP</code> and <code>readHSEP</code> load them from the cache instead of parsing the text again. A cached file is
+     *parsed again if its size, modification time or content has changed, or if it is read with different parameters.
+     *CMC files are not cached while elevation data is being written, and compressed or archived files are never cached.
+     *@param cacheDir the directory holding the cache; null disables caching (default).
+     */
+    public void setTrajectoryCache(String cacheDir) throws IOException{
+    	this.trajCache = (cacheDir == null) ? null : new TrajectoryCache(new File(cacheDir));
+    }
+
+    /**
+     *Restricts the endpoints read by <code>readEP</code> and <code>readHSEP</code> to those accepted by <code>filter</code>.
+     *Rejected endpoints are dropped by the parsers, before any Point is created; the numbers of skipped endpoints are printed
+     *after every read and kept by the filter. Files loaded from the trajectory cache were filtered when they were parsed, so
+     *their skipped endpoints are not counted again. The filter must not be changed while a read is in progress.
+     *@param filter the endpoints to keep; null keeps every endpoint (default).
+     */
+    public void setIngestFilter(IngestFilter filter){
+    	this.ingestFilter = filter;
     }
 
     /**
@@ -187,74 +315,133 @@ public class CMCRender {
      *@param printElev if true, writes elevation data to disk while reading and loading endpoints.
      *@param progress A graphical progress bar object may be passed; pass a null object if not needed
      */
-    public void readEP(int numCol, boolean printElev, javax.swing.JProgressBar progress) throws Exception{
+    public void readEP(final int numCol, final boolean printElev, final javax.swing.JProgressBar progress) throws Exception{
     	System.out.print("--READING CMC...");
-    	BufferedReader bR;
-    	String dataHold;
-    	String lineHold[];
-    	String auxID;
-    	String auxThirdDim;
-    	double latY;
-    	double lonX;
-    	long counts = 0;
-
-    	int errors = 0;
-    	ArrayList<String> elevs;
-
-    	for(int i = 0; i < inputFiles.length; i++){
-    		elevs = new ArrayList<String>();
-    		bR = new BufferedReader(new FileReader(inputFiles[i].getAbsoluteFile()));
-    		for(int j = 0; j < 8; j++) bR.readLine();
-    		lineHold = delimitLine(bR.readLine().trim()).split("\t"); //sourceID, line 9
-   			auxID = lineHold[0] + df.format(Integer.parseInt(lineHold[1])) + df.format(Integer.parseInt(lineHold[2])) + df.format(Integer.parseInt(lineHold[3]));
-    		auxThirdDim = "";
-    		dataHold = bR.readLine(); //first header
-
-    		while(dataHold != null){
-    			lineHold = delimitLine(dataHold.trim()).split("\t"); //still the first to nth elevation header
-    			auxThirdDim = lineHold[3];
-    			if(lineHold.length < numCol){
-    				if(printElev && elevs != null){
-	       						elevs.add(lineHold[0] + "\t" + lineHold[3]);
-	       			}
-    				dataHold = bR.readLine();
-       				lineHold = delimitLine(dataHold.trim()).split("\t");
-       				do{
-       					try{
-       						latY = Double.parseDouble(lineHold[1]);
-	       					lonX = Double.parseDouble(lineHold[2]);
-	       					if(printElev && elevs != null){
-	       						elevs.add(lineHold[0] + "\t" + lineHold[5]);
-	       					}
-	       					if(progress != null){
-	       						progress.setString("Added " + (++counts) + " endpoints.");
-	       					}
-	       					nh.addPointToWorld(new Point(lonX, latY, auxID, auxThirdDim));
-	       					//System.out.println("Added: (" + lonX + " , " + latY + ") to World with ID: " + auxID + " and ThirdDim = " + auxThirdDim); //VERBOSE TESTING
-       					}catch(Exception e){
-       						errors++;
-       						//System.out.println("Inadmissable Point, not added"); //VERBOSE TESTING
-       					}
-       					dataHold = bR.readLine();
-       					if(dataHold != null){
-       						lineHold = delimitLine(dataHold.trim()).split("\t");
-       					}
-    				}while(dataHold != null && lineHold.length >= numCol);
+
+    	final ElevationWriter elevOut = printElev ? new ElevationWriter() : null;
+    	try{
+    		ingest(printElev ? null : "CMC " + numCol, new FileParser(){
+    			public ParsedFile parse(TrajectorySource.Entry input, LineScanner in) throws Exception{
+    				return readEPFile(input, in, numCol, elevOut);
+    			}
+    		}, new FileSink(){
+    			long counts = 0;
+    			int errors = 0;
+    			public void merge(ParsedFile parsed, double done) throws Exception{
+    				EndpointBatch batch = parsed.batch;
+    				int[] trajectories = addTrajectories(batch);
+    				errors += batch.errors;
+    				for(int p = 0; p < batch.size(); p++){
+    					try{
+    						++counts;
+    						if(progress != null && counts%PROGRESS_STEP == 0){
+    							progress.setString("Added " + counts + " endpoints.");
+    						}
+    						nh.addEndpoint(trajectories[batch.trajectory(p)], parsed.cells[p], batch.lon(p), batch.lat(p), batch.hours(p), null, null);
+    					}catch(Exception e){
+    						errors++;
+    						//System.out.println("Inadmissable Point, not added"); //VERBOSE TESTING
+    					}
+    				}
+
+    				if(progress != null){
+    					progress.setString("Added " + counts + " endpoints.");
+    					progress.setValue((int)(done*100));
+    				}
+    				//if(i%100 == 0 && i > 100) System.out.println("Population of Points in World: " + nh.hemPopulation()); //VERBOSE TESTING
+    			}
+    		});
+    	}finally{
+    		if(elevOut != null) elevOut.close();
+    	}
+    	nh.compact();
+    	System.out.print("..done. Population of Points in World: " + nh.hemPopulation() +"\n"); //VERBOSE TESTING
+    	System.out.print(ingestStats + "\n");
+    	if(ingestFilter != null) System.out.print(ingestFilter + "\n");
+    	//nh.printData(); //VERBOSE TESTING
+    }
+
+    /**
+     *Parses a single CMC-formatted back trajectory file. Thread safe: the file is read without touching the World.
+     *<p> The file is memory mapped and tokenized in place by a <code>CMCReader</code>, which tells headers from endpoints by
+     *their number of columns. Elevation records are handed to <code>elevOut</code> in batches while the file is being read.
+     *@param elevOut receives the elevation records of the file in /ELEV/; null if they are not needed
+     */
+    private ParsedFile readEPFile(TrajectorySource.Entry input, LineScanner in, int numCol, final ElevationWriter elevOut) throws Exception{
+    	final DecimalFormat fileDf = new DecimalFormat("00");
+    	final ParsedFile parsed = new ParsedFile();
+    	final File elevFile = new File(outputDir + "/ELEV/" + input.getName() + ".txt");
+    	final IngestFilter filter = ingestFilter;
+
+    	class EPSink implements CMCReader.Sink{
+    		String auxID;
+    		String auxThirdDim;
+    		int trajectory = -1; //of auxID and auxThirdDim in the batch, added with its first endpoint
+    		int rejected = -1; //criterion rejecting the current trajectory, or -1
+    		ArrayList<String> elevs = new ArrayList<String>();
+    		IOException failure;
+
+    		public void start(String year, int month, int day, int hour){
+    			auxID = year + fileDf.format(month) + fileDf.format(day) + fileDf.format(hour);
+    			trajectory = -1;
+    			if(filter != null){
+    				try{
+    					rejected = filter.rejectsTrajectory(EpochHours.of(Integer.parseInt(year.trim()), month, day, hour), null, null);
+    				}catch(NumberFormatException e){
+    					rejected = -1; //start date unknown, kept as before
+    				}
     			}
     		}
-    		bR.close();
 
-    		if(progress != null){
-    			double percentFin = ((double)i)/((double)inputFiles.length);
-    			progress.setValue((int)(percentFin*100));
+    		public void level(String label, String level){
+    			auxThirdDim = level;
+    			trajectory = -1;
+    			elevation(label + "\t" + level);
     		}
-    		//if(i%100 == 0 && i > 100) System.out.println("Population of Points in World: " + nh.hemPopulation()); //VERBOSE TESTING
 
-    		if(printElev) this.writeToFile(new File(this.outputDir + "/ELEV/" + inputFiles[i].getName() + ".txt"), elevs, false);
+    		public void endpoint(double latY, double lonX, String label, String elevation){
+    			if(auxThirdDim == null){ //no elevation header yet
+    				malformed(-1);
+    				return;
+    			}
+    			elevation(label + "\t" + elevation); //elevation records are written for every endpoint
+    			if(rejected >= 0){
+    				filter.skipEndpoint(rejected);
+    				return;
+    			}
+    			if(filter != null && !filter.acceptsEndpoint(latY, lonX, -1, Double.NaN, false)) return;
+    			if(trajectory < 0) trajectory = parsed.batch.addTrajectory(auxID, auxThirdDim, null);
+    			parsed.batch.add(lonX, latY, EndpointStore.NO_HOURS, trajectory);
+    			//System.out.println("Added: (" + lonX + " , " + latY + ") to World with ID: " + auxID + " and ThirdDim = " + auxThirdDim); //VERBOSE TESTING
+    		}
+
+    		public void malformed(int lineNumber){
+    			parsed.batch.errors++;
+    			//System.out.println("Inadmissable Point, not added"); //VERBOSE TESTING
+    		}
+
+    		void elevation(String line){
+    			if(elevOut == null) return;
+    			elevs.add(line);
+    			if(elevs.size() == ElevationWriter.BATCH_SIZE) flush(false);
+    		}
 
+    		void flush(boolean last){
+    			if(elevOut == null || failure != null) return;
+    			try{
+    				elevOut.write(elevFile, elevs, last);
+    			}catch(IOException e){
+    				failure = e;
+    			}
+    			elevs = new ArrayList<String>();
+    		}
     	}
-    	System.out.print("..done. Population of Points in World: " + nh.hemPopulation() +"\n"); //VERBOSE TESTING
-    	//nh.printData(); //VERBOSE TESTING
+
+    	EPSink sink = new EPSink();
+    	CMCReader.read(in, numCol, elevOut != null, sink);
+    	sink.flush(true);
+    	if(sink.failure != null) throw sink.failure;
+    	return parsed;
     }
    	
    	private double timeDistance(String EPDate, String sourceDate){
@@ -267,132 +454,323 @@ public class CMCRender {
    	}
 
 
-    public void readHSEP(int centuryStart, javax.swing.JProgressBar progress) throws Exception{
+    public void readHSEP(final int centuryStart, final javax.swing.JProgressBar progress) throws Exception{
     	//centuryStart: 1900, 2000 are common examples.
     	System.out.print("--READING HYSPLIT...");
-    	BufferedReader bR;
-    	int counts = 0;
-    	String dataHold;
-    	String nextLine[];
-    	String lineHold[];
-    	ArrayList<String> auxID;
-    	ArrayList<String> auxThirdDims;
-    	double latY;
-    	double lonX;
-    	int blockCount;
-
-    	for(int i = 0; i < inputFiles.length; i++){
-    		blockCount = 1;
-    		bR = new BufferedReader(new FileReader(inputFiles[i].getAbsoluteFile()));
-    		auxID = new ArrayList<String>();
-    		auxThirdDims = new ArrayList<String>();
-    		dataHold = bR.readLine();
-    		while(dataHold != null && !dataHold.equalsIgnoreCase("")){
-    			//System.out.println("Block " + blockCount + " start text: " + dataHold); //VERBOSE
-    			lineHold = delimitLine(dataHold.trim()).split("\t");
 
-    			if(blockCount == 4){ //get sourceIDs
-    				String auxSourceID = null;
-    				String auxThirdDim = null;
-    				try{
-    					auxSourceID = "" + (centuryStart + Integer.parseInt(lineHold[0])) + df.format(Integer.parseInt(lineHold[1])) + df.format(Integer.parseInt(lineHold[2])) + df.format(Integer.parseInt(lineHold[3]));
-    					auxThirdDim = lineHold[6] + "," + lineHold[4] + "," + lineHold[5]; //obtained receptor site as thirdDim
-    				}catch(Exception e){
-    					e.printStackTrace(); //VERBOSE
+    	//hours back are found in the local time zone, so files read in another zone are cached apart
+    	ingest("HYSPLIT " + centuryStart + " " + localTime.zoneID(), new FileParser(){
+    		public ParsedFile parse(TrajectorySource.Entry input, LineScanner in) throws Exception{
+    			return readHSFile(input, in, centuryStart);
+    		}
+    	}, new FileSink(){
+    		int counts = 0;
+    		public void merge(ParsedFile parsed, double done) throws Exception{
+    			EndpointBatch batch = parsed.batch;
+    			int[] trajectories = addTrajectories(batch);
+    			for(int p = 0; p < batch.size(); p++){
+    				int t = batch.trajectory(p);
+    				Pair[] first = null;
+    				Pair[] last = null;
+    				if(parsed.tags != null && parsed.tags[t] != null){ //tagged on arrival, see readConcIndex
+    					first = parsed.tags[t].first;
+    					if(parsed.tags[t].last != first) last = parsed.tags[t].last;
+    				}
+    				if(nh.addEndpoint(trajectories[t], parsed.cells[p], batch.lon(p), batch.lat(p), batch.hours(p), first, last)){
+    					if(progress != null && (++counts)%PROGRESS_STEP == 0){
+    						progress.setString("Added " + counts + " endpoints.");
+    					}
     				}
-    				auxID.add(auxSourceID);
-    				auxThirdDims.add(auxThirdDim);
     			}
 
-    			if(blockCount == 6){ //addpoints!
-    				try{
-    					latY = Double.parseDouble(lineHold[9]);
-    					lonX = Double.parseDouble(lineHold[10]);
-    					
-    					String EPDate = "" + (centuryStart + Integer.parseInt(lineHold[2])) + df.format(Integer.parseInt(lineHold[3])) + df.format(Integer.parseInt(lineHold[4])) + df.format(Integer.parseInt(lineHold[5]));
-    					
-    					int T = (int)(Math.abs(this.mSecTime(EPDate) - this.mSecTime(auxID.get(Integer.parseInt(lineHold[0])-1)))/3600000);
-    					
-    					if(lonX < 0) lonX += 360;
-						if(nh.addPointToWorld(new Point(lonX, latY, auxID.get(Integer.parseInt(lineHold[0]) - 1), auxThirdDims.get(Integer.parseInt(lineHold[0]) - 1) + "," + T))){
-	    						if(progress != null){
-	    							progress.setString("Added " + (++counts) + " endpoints.");
-	    						}
-	    					//	System.out.println("Added: (" + lonX + " , " + latY + ") to World with ID: " + auxID.get(Integer.parseInt(lineHold[0]) - 1) + " and ThirdDim = " + auxThirdDims.get(Integer.parseInt(lineHold[0]) - 1)); //VERBOSE TESTING
-	    				}
-    				}catch(Exception e){
-    					e.printStackTrace(); //VERBOSE
-    				}
+    			if(progress != null){
+    				progress.setString("Added " + counts + " endpoints.");
+    				progress.setValue((int)(done*100));
     			}
+    		}
+    	});
+    	nh.compact();
 
+    	System.out.print("...done. Population of Points in World: " + nh.hemPopulation() + "\n"); //VERBOSE TESTING
+    	System.out.print("MAX NIJ in World: " + nh.getMaxNIJ()+"\n");
+    	System.out.print(ingestStats + "\n");
+    	if(ingestFilter != null) System.out.print(ingestFilter + "\n");
+    }
 
-    			dataHold = bR.readLine(); //read next line, pre-emptively.
-    			if(dataHold != null && !dataHold.equalsIgnoreCase("")){
-    				nextLine = delimitLine(dataHold.trim()).split("\t");
-    				//System.out.println("Block " + blockCount + " next line text: " + dataHold); //VERBOSE
-
-    				while(lineHold.length == nextLine.length && dataHold != null && !dataHold.equalsIgnoreCase("")){
-    					lineHold = nextLine;
-
-    					if(blockCount == 4){ //get sourceIDs
-		    				String auxSourceID = null;
-		    				String auxThirdDim = null;
-		    				try{
-		    					auxSourceID = "" + (centuryStart + Integer.parseInt(lineHold[0])) + df.format(Integer.parseInt(lineHold[1])) + df.format(Integer.parseInt(lineHold[2])) + df.format(Integer.parseInt(lineHold[3]));
-								auxThirdDim = lineHold[6] + "," +lineHold[4] + "," + lineHold[5]; //obtained receptor site as thirdDim
-							}catch(Exception e){
-		    					e.printStackTrace();
-		    				}
-		    				auxID.add(auxSourceID);
-		    				auxThirdDims.add(auxThirdDim);
-	    				}
-
-	    				if(blockCount == 6){ //addpoints!
-		    				try{
-		    					latY = Double.parseDouble(lineHold[9]);
-		    					lonX = Double.parseDouble(lineHold[10]);
-		    					
-		    					String EPDate = "" + (centuryStart + Integer.parseInt(lineHold[2])) + df.format(Integer.parseInt(lineHold[3])) + df.format(Integer.parseInt(lineHold[4])) + df.format(Integer.parseInt(lineHold[5]));
-    					
-    							int T = (int)(Math.abs(this.mSecTime(EPDate) - this.mSecTime(auxID.get(Integer.parseInt(lineHold[0])-1)))/3600000);
-	
-		    					if(lonX < 0) lonX += 360;
-		    					//Point x = new Point(lonX, latY, auxID.get(Integer.parseInt(lineHold[0]) - 1)); //TEST
-    							//x.printInfo(); //TEST
-		    					if(nh.addPointToWorld(new Point(lonX, latY, auxID.get(Integer.parseInt(lineHold[0]) - 1), auxThirdDims.get(Integer.parseInt(lineHold[0]) - 1) + "," + T))){
-		    						if(progress != null){
-		    							progress.setString("Added " + (++counts) + " endpoints.");
-		    						}
-		    						//System.out.println("Added: (" + lonX + " , " + latY + ") to World with ID: " + auxID.get(Integer.parseInt(lineHold[0]) - 1) + " and ThirdDim = " + auxThirdDims.get(Integer.parseInt(lineHold[0]) - 1)); //VERBOSE TESTING
-		    					}
-
-		    				}catch(Exception e){
-		    					e.printStackTrace(); //VERBOSE
-		    				}
-    					}
+    /**
+     *Parses a single HYSPLIT trajectory file. Thread safe: the file is read without touching the World.
+     *<p> The file is memory mapped and tokenized in place by a <code>HysplitReader</code>; Strings are only built for the
+     *sourceID and receptor site of each trajectory, its endpoints only refer to it by its index in the batch.
+     */
+    private ParsedFile readHSFile(TrajectorySource.Entry input, LineScanner in, final int centuryStart) throws Exception{
+    	final DecimalFormat fileDf = new DecimalFormat("00");
+    	final ParsedFile parsed = new ParsedFile();
+    	final String fileName = input.getName();
+    	final IngestFilter filter = ingestFilter;
+
+    	HysplitReader.read(in, new HysplitReader.Sink(){
+    		ArrayList<Integer> batchIndex = new ArrayList<Integer>(); //of each trajectory in the batch, or null
+    		ArrayList<Integer> sourceTimes = new ArrayList<Integer>();
+    		ArrayList<Integer> rejected = new ArrayList<Integer>(); //criterion rejecting each trajectory, or -1
+
+    		public void startPoint(int trajectory, int year, int month, int day, int hour, String latR, String lonR, String height){
+    			if(year == LineScanner.BAD_INT){
+    				batchIndex.add(null);
+    				sourceTimes.add(null);
+    				rejected.add(-1);
+    				return;
+    			}
+    			String auxID = "" + (centuryStart + year) + fileDf.format(month) + fileDf.format(day) + fileDf.format(hour);
+    			batchIndex.add(parsed.batch.addTrajectory(auxID, height + "," + latR + "," + lonR, latR + "," + lonR)); //obtained receptor site as thirdDim
+    			sourceTimes.add(EpochHours.of(centuryStart + year, month, day, hour));
+    			rejected.add((filter == null) ? -1 : filter.rejectsTrajectory(sourceTimes.get(sourceTimes.size() - 1), latR, lonR));
+    		}
 
+    		public void endpoint(int trajectory, int year, int month, int day, int hour, double latY, double lonX, double height){
+    			if(trajectory < 1 || trajectory > batchIndex.size() || batchIndex.get(trajectory - 1) == null){
+    				malformed(-1);
+    				return;
+    			}
+    			if(rejected.get(trajectory - 1) >= 0){
+    				filter.skipEndpoint(rejected.get(trajectory - 1));
+    				return;
+    			}
+    			int T = Math.abs(localTime.hoursBetween(sourceTimes.get(trajectory - 1), EpochHours.of(centuryStart + year, month, day, hour)));
+    			if(filter != null && !filter.acceptsEndpoint(latY, lonX, T, height, true)) return;
 
-    					dataHold = bR.readLine();
-    					if(dataHold != null && !dataHold.equalsIgnoreCase("")){
-    						nextLine = delimitLine(dataHold.trim()).split("\t");
-    					}
+    			if(lonX < 0) lonX += 360;
+    			parsed.batch.add(lonX, latY, T, batchIndex.get(trajectory - 1));
+    		}
+
+    		public void malformed(int lineNumber){
+    			parsed.batch.errors++;
+    			System.out.println("Inadmissable HYSPLIT line " + (lineNumber > 0 ? lineNumber + " " : "") + "in " + fileName + ", not added"); //VERBOSE
+    		}
+    	});
+    	return parsed;
+    }
 
-    					//System.out.println("Block " + blockCount + " repeating text: " + dataHold); //VERBOSE
+    /**
+     *Reads every file of the trajectory source and hands the endpoints parsed by <code>parser</code> to <code>sink</code> in file order.
+     *<p> Each file passes through four stages: read (the file is loaded and decompressed into memory, or its endpoints are
+     *loaded from the trajectory cache), parse, bin (the grid, identifier and receptor site of every endpoint are found) and
+     *insert (the sink adds the endpoints to the World). With a single ingest thread the stages run one after another on the
+     *calling thread. Otherwise the read stage runs on its own pool of I/O threads, parse and bin run on a pool of
+     *<code>ingestThreads</code> threads, and insertion stays on the calling thread, so that reading, parsing and gridding overlap.
+     *The stages are connected by bounded queues: at most two files per thread are in flight, and no further file is read until
+     *the oldest one has been inserted. Throughput counters of every stage are kept in <code>ingestStats</code>.
+     *@param cacheFormat identifies the reader and the parameters that affect its output in the trajectory cache; null to bypass the cache
+     */
+    private void ingest(String cacheFormat, FileParser parser, FileSink sink) throws Exception{
+    	TrajectorySource source = TrajectorySource.open(inputDirEP);
+    	ingestStats = new IngestStats();
+    	if(ingestFilter != null){
+    		ingestFilter.resetCounts();
+    		if(cacheFormat != null) cacheFormat += " " + ingestFilter.describe(); //filtered files are cached apart
+    	}
+    	try{
+    		if(ingestThreads <= 1 || source.size() == 0 || source.size() == 1){
+    			ingestSerial(source, cacheFormat, parser, sink);
+    		}else{
+    			ingestPipelined(source, cacheFormat, parser, sink);
+    		}
+    	}finally{
+    		ingestStats.finish();
+    		source.close();
+    	}
+    }
+
+    private void ingestSerial(TrajectorySource source, String cacheFormat, FileParser parser, FileSink sink) throws Exception{
+    	int size = source.size();
+    	TrajectorySource.Entry input;
+    	for(int i = 0; (input = source.next()) != null; i++){
+    		IngestJob job = new IngestJob();
+    		job.seq = i;
+    		job.input = input;
+    		job.done = (size > 0) ? ((double)i)/size : source.progress();
+    		readStage(job, cacheFormat);
+    		parseStage(job, cacheFormat, parser);
+    		binStage(job);
+    		insertStage(job, sink);
+    	}
+    }
+
+    private void ingestPipelined(final TrajectorySource source, final String cacheFormat, final FileParser parser, FileSink sink) throws Exception{
+    	final int size = source.size();
+    	final int inFlight = 2*ingestThreads;
+    	int readers = (ioThreads > 0) ? ioThreads : 2*ingestThreads;
+    	final Semaphore window = new Semaphore(inFlight);
+    	final ExecutorService io = new ThreadPoolExecutor(readers, readers, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(inFlight));
+    	final ExecutorService cpu = new ThreadPoolExecutor(ingestThreads, ingestThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(2*inFlight));
+    	final BlockingQueue<IngestJob> parsed = new ArrayBlockingQueue<IngestJob>(inFlight + 1);
+
+    	//every job ends up in parsed exactly once: binned, failed, or as the end of the source
+    	Thread feeder = new Thread(new Runnable(){
+    		public void run(){
+    			int seq = 0;
+    			try{
+    				while(true){
+    					window.acquire();
+    					TrajectorySource.Entry input = source.next();
+    					if(input == null) break;
+    					final IngestJob job = new IngestJob();
+    					job.seq = seq++;
+    					job.input = input;
+    					job.done = (size > 0) ? ((double)job.seq)/size : source.progress();
+    					io.execute(new Runnable(){
+    						public void run(){
+    							try{
+    								readStage(job, cacheFormat);
+    								cpu.execute(new Runnable(){
+    									public void run(){
+    										try{
+    											parseStage(job, cacheFormat, parser);
+    											cpu.execute(new Runnable(){
+    												public void run(){
+    													try{
+    														binStage(job);
+    													}catch(Throwable t){
+    														job.failure = t;
+    													}
+    													parsed.offer(job);
+    												}
+    											});
+    										}catch(Throwable t){
+    											job.failure = t;
+    											parsed.offer(job);
+    										}
+    									}
+    								});
+    							}catch(Throwable t){
+    								job.failure = t;
+    								parsed.offer(job);
+    							}
+    						}
+    					});
     				}
-    				blockCount++;
+    			}catch(InterruptedException e){
+    				return; //the ingest was abandoned
+    			}catch(Throwable t){
+    				IngestJob failed = new IngestJob();
+    				failed.failure = t;
+    				parsed.offer(failed);
+    				return;
     			}
+    			IngestJob end = new IngestJob();
+    			end.seq = seq;
+    			end.end = true;
+    			parsed.offer(end);
     		}
-    		bR.close();
+    	}, "IngestFeeder");
+    	feeder.setDaemon(true);
+    	feeder.start();
+
+    	//insert stage: files may finish out of order; hold them back until their predecessors are inserted
+    	HashMap<Integer, IngestJob> waiting = new HashMap<Integer, IngestJob>();
+    	int next = 0;
+    	int end = -1;
+    	try{
+    		while(end < 0 || next < end){
+    			long t0 = System.nanoTime();
+    			IngestJob job = parsed.take();
+    			ingestStats.waited(t0);
+    			if(job.failure != null){
+    				if(job.failure instanceof Exception) throw (Exception)job.failure;
+    				if(job.failure instanceof Error) throw (Error)job.failure;
+    				throw new Exception(job.failure);
+    			}
+    			if(job.end){
+    				end = job.seq;
+    			}else{
+    				waiting.put(job.seq, job);
+    			}
+    			while(waiting.containsKey(next)){
+    				insertStage(waiting.remove(next), sink);
+    				window.release();
+    				next++;
+    			}
+    		}
+    	}finally{
+    		feeder.interrupt();
+    		io.shutdownNow();
+    		cpu.shutdownNow();
+    		feeder.join();
+    	}
+    }
 
-    		if(progress != null){
-    			double percentFin = ((double)i)/((double)inputFiles.length);
-    			progress.setValue((int)(percentFin*100));
+    /**
+     *Loads a file into memory, or its endpoints from the trajectory cache.
+     */
+    private void readStage(IngestJob job, String cacheFormat) throws Exception{
+    	long t0 = System.nanoTime();
+    	File file = job.input.getFile();
+    	if(trajCache != null && cacheFormat != null && file != null){ //compressed files are not cached
+    		EndpointBatch cached = trajCache.load(file, cacheFormat);
+    		if(cached != null){
+    			job.parsed = new ParsedFile();
+    			job.parsed.batch = cached;
+    			ingestStats.read.add(cached.size(), 0, t0);
+    			return;
+    		}
+    	}
+    	job.in = job.input.open();
+    	ingestStats.read.add(0, job.in.size(), t0);
+    }
+
+    /**
+     *Parses a file loaded by <code>readStage</code> and adds the result to the trajectory cache.
+     */
+    private void parseStage(IngestJob job, String cacheFormat, FileParser parser) throws Exception{
+    	if(job.parsed != null) return; //loaded from the cache
+    	long t0 = System.nanoTime();
+    	job.parsed = parser.parse(job.input, job.in);
+    	job.in = null;
+    	File file = job.input.getFile();
+    	if(trajCache != null && cacheFormat != null && file != null){
+    		trajCache.store(file, cacheFormat, job.parsed.batch);
+    	}
+    	ingestStats.parse.add(job.parsed.batch.size(), 0, t0);
+    }
+
+    /**
+     *Finds the grid of every endpoint of a parsed file, and the tags of each of its trajectories; reads the World without modifying it.
+     */
+    private void binStage(IngestJob job){
+    	long t0 = System.nanoTime();
+    	ParsedFile parsed = job.parsed;
+    	EndpointBatch batch = parsed.batch;
+    	int n = batch.size();
+    	parsed.cells = new int[n];
+    	for(int p = 0; p < n; p++){
+    		parsed.cells[p] = nh.locate(batch.lon(p), batch.lat(p));
+    	}
+    	ConcentrationIndex index = concIndex;
+    	if(index != null){
+    		//the endpoints of a trajectory share their sourceID and receptor site: look them up once per trajectory
+    		parsed.tags = new ConcentrationIndex.Entry[batch.trajectories()];
+    		for(int t = 0; t < parsed.tags.length; t++){
+    			parsed.tags[t] = index.lookup(batch.sourceID(t), batch.receptor(t));
     		}
-    		//System.out.println("No. of Blocks in Text File: " + blockCount); //VERBOSE
     	}
+    	ingestStats.bin.add(n, 0, t0);
+    }
 
-    	System.out.print("...done. Population of Points in World: " + nh.hemPopulation() + "\n"); //VERBOSE TESTING
-    	System.out.print("MAX NIJ in World: " + nh.getMaxNIJ()+"\n");
+    /**
+     *Adds the trajectories of a parsed file to the World.
+     *@return the handle of each trajectory of the batch in the World
+     */
+    private int[] addTrajectories(EndpointBatch batch){
+    	int[] trajectories = new int[batch.trajectories()];
+    	for(int t = 0; t < trajectories.length; t++){
+    		trajectories[t] = nh.addTrajectory(batch.sourceID(t), batch.thirdDim(t), batch.receptor(t));
+    	}
+    	return trajectories;
+    }
+
+    private void insertStage(IngestJob job, FileSink sink) throws Exception{
+    	long t0 = System.nanoTime();
+    	sink.merge(job.parsed, job.done);
+    	ingestStats.insert.add(job.parsed.batch.size(), 0, t0);
     }
 
 
@@ -407,6 +785,28 @@ public class CMCRender {
      *@param progress A graphical progress bar object may be passed; pass a null object if not needed
      */
     public void readConc(double incr, int zone, boolean correctDST, javax.swing.JProgressBar progress) throws Exception{
+    	readConcFile(incr, zone, correctDST, progress, null);
+    }
+
+    /**
+     *Reads correlated data into an index, so that HYSPLIT endpoints are tagged as they are read by <code>readHSEP</code>
+     *instead of by a later call to <code>readConc</code>, which searches the whole World for every hour of every sample.
+     *<p> Must be called before <code>readHSEP</code>; the parameters, the checks of the input file and the resulting tags are those of
+     *<code>readConc</code>, which need not be called. The index applies to every later call to <code>readHSEP</code>; CMC
+     *trajectories have no receptor sites and are not tagged by it.
+     *@see #readConc
+     */
+    public void readConcIndex(double incr, int zone, boolean correctDST, javax.swing.JProgressBar progress) throws Exception{
+    	ConcentrationIndex index = new ConcentrationIndex();
+    	readConcFile(incr, zone, correctDST, progress, index);
+    	this.concIndex = index;
+    	System.out.println("INDEXED " + index.getSamples() + " samples, " + index.size() + " receptor hours"); //VERBOSE
+    }
+
+    /**
+     *Reads the correlated data input file, tagging the World or, if <code>index</code> is not null, filling <code>index</code>.
+     */
+    private void readConcFile(double incr, int zone, boolean correctDST, javax.swing.JProgressBar progress, ConcentrationIndex index) throws Exception{
     	int numLines = checkInputFile();
     	if(numLines == 0){
     		throw new Exception("Error in Input File. Ensure that it is formatted correctly.");
@@ -417,8 +817,8 @@ public class CMCRender {
     	String dataHold;
     	BufferedReader bR = new BufferedReader(new FileReader(concFile.getAbsoluteFile()));
     	//variables for tagging
-    	String startDate;
-    	String endDate;
+    	int startDate;
+    	int endDate;
     	Pair[] concData;
 
     	//get appropriate variable names for headers!
@@ -434,6 +834,7 @@ public class CMCRender {
     	
     	
     	for(int i = 6; i < lineHold.length; i++) varList[i-6] = lineHold[i];
+    	nh.setPollutantSchema(new PollutantSchema(varList)); //fixed for every sample of the file
     	dataHold = bR.readLine();
     	int j = 0;
     	while(dataHold != null){
@@ -452,17 +853,11 @@ public class CMCRender {
     				System.out.println("Error getting ReceptorMAX Line ... ensure proper formatting");
     			}
     		}else{
-    			startDate = lineHold[0] + (lineHold[1].substring(0,2));
-
-    			if(Integer.parseInt(lineHold[1].substring(2,4)) >= 30){
-    				startDate = timeCorrect(lineHold[0] + lineHold[1].substring(0,2), false, -1);
-    			}
+    			startDate = EpochHours.parse(lineHold[0] + lineHold[1].substring(0,2));
+    			if(Integer.parseInt(lineHold[1].substring(2,4)) >= 30) startDate++; //round to the nearest hour
 
-    			endDate = lineHold[2] + (lineHold[3].substring(0,2));
-
-    			if(Integer.parseInt(lineHold[3].substring(2,4)) >= 30){
-    				endDate = timeCorrect(lineHold[2] + lineHold[3].substring(0,2), false, -1);
-    			}
+    			endDate = EpochHours.parse(lineHold[2] + lineHold[3].substring(0,2));
+    			if(Integer.parseInt(lineHold[3].substring(2,4)) >= 30) endDate++;
     			//System.out.println("Hour Rounded: " + startDate + " , " + endDate); //VERBOSE TESTING
     			for(int i = 0; i < concData.length; i++){
     				concData[i] = new Pair(varList[i], Double.parseDouble(lineHold[6+i]));
@@ -471,7 +866,8 @@ public class CMCRender {
     			}
     			
     			//time-correct and tag the appropriate files...call another method in this class for it
-    			tagPointsHS(timeCorrect(startDate, correctDST, zone), timeCorrect(endDate, correctDST, zone), incr, concData, progress, lineHold[4], lineHold[5]);
+    			if(index != null) index.countSample();
+    			tagPointsHS(timeCorrect(startDate, correctDST, zone), timeCorrect(endDate, correctDST, zone), incr, concData, progress, lineHold[4], lineHold[5], index);
     		}
     		dataHold = bR.readLine();
     	}
@@ -522,92 +918,85 @@ public class CMCRender {
 
     /**
      *Tags the correlated data to the appropriate endpoints on the basis of date ranges as identifiers.
-     *@param sDate the time-zone corrected start date in the format "yyyymmddtt"
-     *@param fDate the time-zone corrected end date in the format "yyyymmddtt"
+     *@param sDate the time-zone corrected start date in epoch hours
+     *@param fDate the time-zone corrected end date in epoch hours
      *@param increment the interval between the back trajectory endpoints.
      *@param corData the pair of correlated data to tag.
      */
-    private void tagPoints(String sDate, String fDate, double increment, Pair[] corData, javax.swing.JProgressBar progress){ //increment is in hours!
+    private void tagPoints(int sDate, int fDate, double increment, Pair[] corData, javax.swing.JProgressBar progress){ //increment is in hours!
     	//round the time corrected sDate to the appropriate time with respect to the increment:
-		String sTimeBT = df.format((int)(Double.parseDouble(sDate.substring(8,10))/increment)*increment);
-		String fTimeBT = df.format((int)(Double.parseDouble(fDate.substring(8,10))/increment)*increment);
-		String sDateBTL = sDate.substring(0,8) + sTimeBT;
-		String fDateBTL = fDate.substring(0,8) + fTimeBT;
-
-		if(Integer.parseInt(sDate.substring(8,10)) >= Integer.parseInt(timeCorrect(sDateBTL, false, (int)(-0.5*increment)).substring(8,10))){
-			sDate = timeCorrect(sDateBTL, false, (int)(-1*increment));
-			String sTimeRound = df.format((int)(Double.parseDouble(sDate.substring(8,10))/increment)*increment);
-			sDate = sDate.substring(0,8) + sTimeRound;
+		int sDateBTL = EpochHours.startOfDay(sDate) + roundToIncrement(EpochHours.hour(sDate), increment);
+		int fDateBTL = EpochHours.startOfDay(fDate) + roundToIncrement(EpochHours.hour(fDate), increment);
+
+		if(EpochHours.hour(sDate) >= EpochHours.hour(sDateBTL + (int)(0.5*increment))){
+			sDate = sDateBTL + (int)increment;
+			sDate = EpochHours.startOfDay(sDate) + roundToIncrement(EpochHours.hour(sDate), increment);
 		}else{
 			sDate = sDateBTL;
 		}
 
-		if(Integer.parseInt(fDate.substring(8,10)) >= Integer.parseInt(timeCorrect(fDateBTL, false, (int)(-0.5*increment)).substring(8,10))){
-			fDate = timeCorrect(fDateBTL, false, (int)(-1*increment));
-			String fTimeRound = df.format((int)(Double.parseDouble(fDate.substring(8,10))/increment)*increment);
-			fDate = fDate.substring(0,8) + fTimeRound;
+		if(EpochHours.hour(fDate) >= EpochHours.hour(fDateBTL + (int)(0.5*increment))){
+			fDate = fDateBTL + (int)increment;
+			fDate = EpochHours.startOfDay(fDate) + roundToIncrement(EpochHours.hour(fDate), increment);
 		}else{
 			fDate = fDateBTL;
 		}
 
     	if(progress != null){
-    		progress.setString("TAGGING: " + sDate + " TO " + fDate);
+    		progress.setString("TAGGING: " + EpochHours.format(sDate) + " TO " + EpochHours.format(fDate));
     	}
-    	System.out.println("TAGGING: " + sDate + " TO " + fDate + " i.e. = " + this.mSecTime(sDate) + " TO " + this.mSecTime(fDate));
+    	System.out.println("TAGGING: " + EpochHours.format(sDate) + " TO " + EpochHours.format(fDate) + " i.e. = " + localTime.toMillis(sDate) + " TO " + localTime.toMillis(fDate));
 
 
-    	nh.tagWorld(sDate, corData, "", "");
+    	nh.tagWorld(EpochHours.format(sDate), corData, "", "");
 
-
-    	//while(!sDate.equalsIgnoreCase(fDate)){
-    	while(this.mSecTime(sDate) < this.mSecTime(fDate)){
-    		sDate = increment(sDate);
-    		/*sDate = timeCorrect(sDate, false, (int)(-1*increment));
-			String sDateBTLow = sDate.substring(0,8) + df.format((int)(Double.parseDouble(sDate.substring(8,10))/increment)*increment);
-			if(Integer.parseInt(sDate.substring(8,10)) >= Integer.parseInt(timeCorrect(sDateBTLow, false, (int)(-0.5*increment)).substring(8,10))){
-				sDate = timeCorrect(sDateBTLow, false, (int)(-1*increment));
-			}else{
-				sDate = sDateBTLow;
-			}*/
-    		nh.tagWorld(sDate, corData, "", "");
+    	while(localTime.toMillis(sDate) < localTime.toMillis(fDate)){
+    		sDate++;
+    		nh.tagWorld(EpochHours.format(sDate), corData, "", "");
     		//System.out.println("NEXT DATE: " + sDate);
     	}
     }
+
+    /**
+     *Rounds an hour of the day down to a multiple of <code>increment</code>, as formatted to whole hours by <code>df</code>.
+     */
+    private int roundToIncrement(int hour, double increment){
+    	return Integer.parseInt(df.format((int)(hour/increment)*increment));
+    }
     
-    private void tagPointsHS(String sDate, String fDate, double increment, Pair[] corData, javax.swing.JProgressBar progress, String latR, String lonR){
+    /**
+     *Tags the endpoints of every hour from <code>sDate</code> to <code>fDate</code> at a receptor site, or adds the hours to
+     *<code>index</code> if it is not null.
+     */
+    private void tagPointsHS(int sDate, int fDate, double increment, Pair[] corData, javax.swing.JProgressBar progress, String latR, String lonR, ConcentrationIndex index){
     	//simpler tagging function --> actually independent of increment
-    	/*GregorianCalendar counterDate = new GregorianCalendar(Integer.parseInt(sDate.substring(0,4)), Integer.parseInt(sDate.substring(4,6))-1, Integer.parseInt(sDate.substring(6,8)), Integer.parseInt(sDate.substring(8,10)), 0);
-    	String dateTag =  counterDate.get(Calendar.YEAR) + df.format(counterDate.get(Calendar.MONTH) + 1) + df.format(counterDate.get(Calendar.DAY_OF_MONTH)) + df.format(counterDate.get(Calendar.HOUR_OF_DAY));
-    	
-    	nh.tagWorld(dateTag, corData);
-    	
-    	counterDate.add()*/
-    	
-    	String dateCounter = sDate;
+    	//dates are compared as instants of the local time zone, but always advance by one hour of the calendar --> no DST in this case.
+    	int dateCounter = sDate;
     	//System.out.println("Tagging: " + dateCounter + "with: " + corData[0].value); //VERBOSE
-    	nh.tagWorld(dateCounter, corData, latR, lonR);
-    	dateCounter = increment(dateCounter);
+    	tagHour(dateCounter, corData, latR, lonR, index);
+    	dateCounter++;
     	
     	if(progress != null){
-    		progress.setString("TAGGING: " + sDate + " TO " + fDate);
+    		progress.setString("TAGGING: " + EpochHours.format(sDate) + " TO " + EpochHours.format(fDate));
     	}
-    		
-    	while(mSecTime(dateCounter) < mSecTime(fDate)){
+
+    	long end = localTime.toMillis(fDate);
+    	while(localTime.toMillis(dateCounter) < end){
     	//	System.out.println("Tagging: " + dateCounter + "with: " + corData[0].value); //VERBOSE
-    		nh.tagWorld(dateCounter, corData, latR, lonR);		
-    		dateCounter = increment(dateCounter);
+    		tagHour(dateCounter, corData, latR, lonR, index);
+    		dateCounter++;
     	}
 
     }
-     
 
-
-  	private String increment(String date){ //guarantees an increment of every 1hr --> no DST in this case.
-  		GregorianCalendar sDate = new GregorianCalendar(new SimpleTimeZone(0, "noDST"));
-  		sDate.set(Integer.parseInt(date.substring(0,4)), Integer.parseInt(date.substring(4,6))-1, Integer.parseInt(date.substring(6,8)), Integer.parseInt(date.substring(8,10)), 0);
-		sDate.add(Calendar.HOUR_OF_DAY, 1);
-		return sDate.get(Calendar.YEAR) + df.format(sDate.get(Calendar.MONTH) + 1) + df.format(sDate.get(Calendar.DAY_OF_MONTH)) + df.format(sDate.get(Calendar.HOUR_OF_DAY));
-  	}
+    private void tagHour(int date, Pair[] corData, String latR, String lonR, ConcentrationIndex index){
+    	if(index == null){
+    		nh.tagWorld(EpochHours.format(date), corData, latR, lonR);
+    	}else{
+    		index.put(date, latR, lonR, corData);
+    	}
+    }
+     
 
     /**
      *A line delimiter which eliminates white space from <code>input</code>
@@ -616,18 +1005,17 @@ public class CMCRender {
     private String delimitLine(String input){
     	//requires: input is not null; leading/trailing whitespaces are trimmed!
     	int i = 0;
-    	String spaceSep = "";
+    	StringBuilder spaceSep = new StringBuilder(input.length());
     	while(i < input.length()){
     		if((int)input.charAt(i) != 9 && (int)input.charAt(i) != 32){ //mutually exclusive!
     			if(i > 0 && ((int)input.charAt(i-1) == 9 || (int)input.charAt(i-1) == 32)){
-    				spaceSep += ("\t" + input.charAt(i));
-    			}else{
-    				spaceSep += input.charAt(i);
+    				spaceSep.append('\t');
     			}
+    			spaceSep.append(input.charAt(i));
     		}
     		i++;
     	}
-    	return spaceSep;
+    	return spaceSep.toString();
     }
 
     /**
@@ -901,6 +1289,8 @@ public class CMCRender {
     
     /**
      *Prints the CWT matrices to disk. Must be called externally.
+     *<p> After <code>calcRTWC</code>, the matrix of each pollutant is the CWT of its last iteration; a pollutant which
+     *converged stops iterating, so the pollutants may be at different iterations.
      */
     public void CWT() throws IOException{
     	for(int i = 0; i < varList.length; i++){
@@ -0,0 +1,174 @@
+/*CellMap.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *The populated grid cells of a World, numbered in the order they are added.
+ *<p> A cell is known by its index <code>i*(number of latitude grids) + j</code> (see <code>World.locate</code>) and is given
+ *an ordinal, <code>0 ... size()-1</code>, the first time it is added; the World keeps the grid and the results of each cell
+ *at its ordinal. The ordinals are found by open addressing with linear probing in primitive arrays, so that a World of fine
+ *grids needs neither a Grid nor a map entry object for the cells no trajectory reaches.
+ *<p> Not thread safe; filled by the thread adding points to the World.
+ */
+public class CellMap{
+
+	private static final int FREE = -1;
+
+	private int[] keys;
+	private int[] ordinals;
+	private int mask;
+
+	private int[] cells = new int[16];
+	private int size = 0;
+
+	/**
+	 *The ordinals in ascending order of cell index, for the first <code>orderSize</code> cells added.
+	 */
+	private int[] order = new int[0];
+	private int orderSize = 0;
+
+	/**
+	 *The ordinals in Z-order, for the first <code>zOrderSize</code> cells added.
+	 */
+	private int[] zOrder = new int[0];
+	private int zOrderSize = 0;
+
+	public CellMap(){
+		keys = new int[32];
+		ordinals = new int[32];
+		Arrays.fill(keys, FREE);
+		mask = keys.length - 1;
+	}
+
+	private static int hash(int cell){
+		int h = cell*0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 *Returns the ordinal of a cell, or -1 if it has not been added.
+	 */
+	public int get(int cell){
+		for(int h = hash(cell) & mask; ; h = (h + 1) & mask){
+			if(keys[h] == cell) return ordinals[h];
+			if(keys[h] == FREE) return -1;
+		}
+	}
+
+	/**
+	 *Returns the ordinal of a cell, adding it if it is new.
+	 *@param cell the index of the cell; not negative
+	 */
+	public int add(int cell){
+		int h = hash(cell) & mask;
+		while(keys[h] != FREE){
+			if(keys[h] == cell) return ordinals[h];
+			h = (h + 1) & mask;
+		}
+		keys[h] = cell;
+		ordinals[h] = size;
+		if(size == cells.length) cells = Arrays.copyOf(cells, 2*size);
+		cells[size] = cell;
+		size++;
+		if(2*size > keys.length) rehash(2*keys.length);
+		return size - 1;
+	}
+
+	private void rehash(int capacity){
+		keys = new int[capacity];
+		ordinals = new int[capacity];
+		Arrays.fill(keys, FREE);
+		mask = capacity - 1;
+		for(int c = 0; c < size; c++){
+			int h = hash(cells[c]) & mask;
+			while(keys[h] != FREE) h = (h + 1) & mask;
+			keys[h] = cells[c];
+			ordinals[h] = c;
+		}
+	}
+
+	/**
+	 *Returns the number of cells added.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 *Returns the index of the cell of an ordinal.
+	 */
+	public int cell(int ordinal){
+		return cells[ordinal];
+	}
+
+	/**
+	 *Returns the ordinals of all cells added, in ascending order of cell index: the order of a loop over the longitudes, then
+	 *the latitudes of a World. The array is shared until a cell is added and must not be modified.
+	 */
+	public int[] ordered(){
+		if(orderSize != size){
+			long[] packed = new long[size];
+			for(int c = 0; c < size; c++) packed[c] = ((long)cells[c] << 32) | c;
+			Arrays.sort(packed);
+			order = new int[size];
+			for(int n = 0; n < size; n++) order[n] = (int)packed[n];
+			orderSize = size;
+		}
+		return order;
+	}
+
+	/**
+	 *Returns the ordinals of all cells added along a Z-order (Morton) curve of their longitude and latitude indices, so that
+	 *cells close on the map are mostly close in the order; in ascending order of cell index if either index can exceed 16 bits.
+	 *The array is shared until a cell is added and must not be modified.
+	 *@param lonCells the number of longitude grids of the World
+	 *@param latCells the number of latitude grids of the World
+	 */
+	public int[] zOrdered(int lonCells, int latCells){
+		if(lonCells > 0x10000 || latCells > 0x10000) return ordered();
+		if(zOrderSize != size){
+			long[] packed = new long[size];
+			for(int c = 0; c < size; c++){
+				long code = (spread(cells[c]/latCells) << 1) | spread(cells[c]%latCells);
+				packed[c] = ((code << 32) | c) ^ Long.MIN_VALUE; //flipping the sign bit sorts the codes unsigned
+			}
+			Arrays.sort(packed);
+			zOrder = new int[size];
+			for(int n = 0; n < size; n++) zOrder[n] = (int)packed[n];
+			zOrderSize = size;
+		}
+		return zOrder;
+	}
+
+	/**
+	 *Spreads the 16 bits of <code>v</code> over the even bits of a 32 bit code.
+	 */
+	private static long spread(int v){
+		long x = v & 0xFFFFL;
+		x = (x | (x << 8)) & 0x00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0FL;
+		x = (x | (x << 2)) & 0x33333333L;
+		x = (x | (x << 1)) & 0x55555555L;
+		return x;
+	}
+}
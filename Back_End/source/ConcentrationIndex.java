@@ -0,0 +1,129 @@
+/*ConcentrationIndex.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *The correlated data of a correlated data input file, indexed by the hour and receptor site of the back trajectories they tag
+ *(see <code>CMCRender.readConcIndex</code>).
+ *<p> Tagging the World with <code>World.tagWorld</code> scans every point of every grid for each hour of each sample. With an
+ *index, the data of an endpoint is found with a single lookup of its sourceID and receptor site while the back trajectories
+ *are read. The index reproduces the tagging of <code>tagWorld</code> exactly: an endpoint tagged by several samples keeps the
+ *data of the last of them (in file order) as its values and the data of the first as its original concentrations
+ *(see <code>Point.addData</code>). Receptor sites are compared ignoring case, as by <code>Grid.tagPoints</code>.
+ *<p> An index is not modified once it has been read, so it may be searched by several threads at once.
+ */
+public class ConcentrationIndex{
+
+	/**
+	 *The data tagging the endpoints of a single hour and receptor site.
+	 */
+	static class Entry{
+		/**
+		 *The data of the first and the last samples covering the hour; the same array if a single sample covers it.
+		 */
+		Pair[] first;
+		Pair[] last;
+	}
+
+	/**
+	 *Entries by "epoch hour,latR,lonR", the receptor site in lower case.
+	 */
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+	private int samples = 0;
+
+	/**
+	 *The copy of the data last put, shared by the hours of a sample.
+	 */
+	private Pair[] lastCopy;
+
+	/**
+	 *Adds the data of a sample to an hour of a receptor site; called in the order of the correlated data input file.
+	 *@param data the data of the sample; the array is copied once for all the hours of the sample.
+	 */
+	void put(int hour, String latR, String lonR, Pair[] data){
+		String key = key(hour, latR + "," + lonR);
+		Entry entry = entries.get(key);
+		if(!sameSample(data)) lastCopy = data.clone();
+		Pair[] copy = lastCopy;
+		if(entry == null){
+			entry = new Entry();
+			entry.first = copy;
+			entries.put(key, entry);
+		}
+		entry.last = copy;
+	}
+
+	/**
+	 *Counts a sample line of the correlated data input file.
+	 */
+	void countSample(){
+		samples++;
+	}
+
+	/**
+	 *Returns the entry tagging the endpoints of a back trajectory, or null if the back trajectory is not tagged.
+	 *@param sourceID the sourceID of the endpoints, "yyyymmddtt"
+	 *@param receptor the receptor site of the endpoints, "latR,lonR" (see <code>World.receptorSite</code>)
+	 */
+	Entry lookup(String sourceID, String receptor){
+		if(sourceID == null || receptor == null) return null;
+		int hour;
+		try{
+			hour = EpochHours.parse(sourceID);
+		}catch(NumberFormatException e){
+			return null;
+		}
+		if(!EpochHours.format(hour).equals(sourceID)) return null; //tagWorld only matches dates in this format
+		return entries.get(key(hour, receptor));
+	}
+
+	/**
+	 *Returns true if <code>data</code> holds the same Pairs as the data last put.
+	 */
+	private boolean sameSample(Pair[] data){
+		if(lastCopy == null || lastCopy.length != data.length) return false;
+		for(int k = 0; k < data.length; k++){
+			if(data[k] != lastCopy[k]) return false;
+		}
+		return true;
+	}
+
+	private static String key(int hour, String receptor){
+		return hour + "," + receptor.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 *Returns the number of distinct (hour, receptor site) pairs in this index.
+	 */
+	public int size(){
+		return entries.size();
+	}
+
+	/**
+	 *Returns the number of samples read into this index.
+	 */
+	public int getSamples(){
+		return samples;
+	}
+}
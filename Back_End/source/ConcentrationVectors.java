@@ -0,0 +1,138 @@
+/*ConcentrationVectors.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *The sets of correlated data tagged to the endpoints of a World, each kept once and shared by every endpoint tagged with it.
+ *<p> A sample of the correlated data input file tags every endpoint of the back trajectories of each hour it covers. Instead of
+ *a copy per endpoint, the sample is added here once and the endpoints refer to it by its id (see <code>EndpointStore</code>).
+ *A vector is never modified once added; concentrations redistributed by RTWC are copied into the endpoint store on write.
+ *<p> The names of the variables of a vector are given by its <code>PollutantSchema</code>. A schema set by
+ *<code>setSchema</code> (the header of the correlated data input file) is shared by every vector whose data has its names.
+ *<p> Ids are numbered from 0 in the order vectors are added. A set of vectors is filled by the thread tagging the World.
+ */
+public class ConcentrationVectors{
+
+	private PollutantSchema[] schemas = new PollutantSchema[16];
+	private double[][] values = new double[16][];
+	private int size = 0;
+
+	/**
+	 *The schema of the vectors added next, if their data has its names.
+	 */
+	private PollutantSchema schema;
+
+	/**
+	 *Sets the schema of the vectors added next; data with other names is given a schema of its own.
+	 */
+	public void setSchema(PollutantSchema auxSchema){
+		schema = auxSchema;
+	}
+
+	/**
+	 *Returns the schema of the vectors added last, or null if neither a schema nor a vector has been added.
+	 */
+	public PollutantSchema schema(){
+		return schema;
+	}
+
+	/**
+	 *Adds a set of correlated data. Consecutive samples with the same names and values (the hours of a single sample) share a
+	 *single vector.
+	 *@param data the data to add; copied.
+	 *@return the id of the vector, or -1 if <code>data</code> is null or empty.
+	 */
+	public int add(Pair[] data){
+		if(data == null || data.length == 0) return -1;
+		if(size > 0 && matches(size - 1, data)) return size - 1;
+
+		if(schema == null || !schema.matches(data)) schema = PollutantSchema.of(data);
+		double[] auxValues = new double[data.length];
+		for(int k = 0; k < data.length; k++) auxValues[k] = data[k].value;
+		if(size == values.length){
+			schemas = Arrays.copyOf(schemas, 2*size);
+			values = Arrays.copyOf(values, 2*size);
+		}
+		schemas[size] = schema;
+		values[size] = auxValues;
+		return size++;
+	}
+
+	private boolean matches(int vector, Pair[] data){
+		if(values[vector].length != data.length) return false;
+		for(int k = 0; k < data.length; k++){
+			if(Double.doubleToLongBits(values[vector][k]) != Double.doubleToLongBits(data[k].value)) return false;
+		}
+		return schemas[vector].matches(data);
+	}
+
+	/**
+	 *Returns the number of correlated variables of a vector.
+	 */
+	public int length(int vector){
+		return values[vector].length;
+	}
+
+	/**
+	 *Returns the schema of the correlated variables of a vector.
+	 */
+	public PollutantSchema schema(int vector){
+		return schemas[vector];
+	}
+
+	/**
+	 *Returns the value of a correlated variable of a vector.
+	 */
+	public double value(int vector, int column){
+		return values[vector][column];
+	}
+
+	/**
+	 *Returns the exceedances of every vector for PSCF: for vector <code>v</code>, bit <code>i%64</code> of
+	 *<code>masks[v*words + i/64]</code> is set if the threshold of <code>threshData[i]</code> is less than or equal to the
+	 *value of column <code>columns[i]</code>, where <code>words = (threshData.length + 63)/64</code>. A column which a vector
+	 *does not have is never exceeded.
+	 *@param columns the column of each pollutant of threshData (see <code>PollutantSchema</code>)
+	 */
+	public long[] exceedances(Pair[] threshData, int[] columns){
+		int words = (threshData.length + 63) >> 6;
+		long[] masks = new long[size*words];
+		for(int v = 0; v < size; v++){
+			double[] auxValues = values[v];
+			for(int i = 0; i < threshData.length; i++){
+				int column = columns[i];
+				if(column >= 0 && column < auxValues.length && threshData[i].value <= auxValues[column]){
+					masks[v*words + (i >> 6)] |= 1L << i;
+				}
+			}
+		}
+		return masks;
+	}
+
+	/**
+	 *Returns the number of vectors added.
+	 */
+	public int size(){
+		return size;
+	}
+}
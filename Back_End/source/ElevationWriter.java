@@ -0,0 +1,148 @@
+/*ElevationWriter.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *Writes elevation records to disk on a background thread while back trajectories are being read.
+ *<p> Readers hand over small batches of lines; each output file is created when its first batch arrives (overwriting any
+ *existing file) and closed when its last batch has been written. Files which never receive a line are not created, as with
+ *<code>CMCRender.writeToFile</code>. The queue between the readers and the writer is bounded, so a slow disk slows the readers
+ *down instead of filling the heap.
+ */
+public class ElevationWriter{
+
+	/**
+	 *The number of lines handed to the writer at a time.
+	 */
+	public static final int BATCH_SIZE = 1024;
+
+	/**
+	 *A batch of lines for one output file.
+	 */
+	private static class Batch{
+		File file;
+		ArrayList<String> lines;
+		boolean last;
+		Batch(File file, ArrayList<String> lines, boolean last){
+			this.file = file;
+			this.lines = lines;
+			this.last = last;
+		}
+	}
+
+	/**
+	 *Signals the writer thread to close all files and stop.
+	 */
+	private static final Batch STOP = new Batch(null, null, true);
+
+	private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(64);
+
+	private final Thread worker;
+
+	/**
+	 *The first error raised by the writer thread; reported by <code>close()</code>.
+	 */
+	private volatile IOException failure;
+
+	/**
+	 *Creates a writer and starts its thread.
+	 */
+	public ElevationWriter(){
+		worker = new Thread(new Runnable(){
+			public void run(){
+				drain();
+			}
+		}, "ElevationWriter");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 *Queues a batch of lines for <code>file</code>. Blocks while the queue is full.
+	 *@param lines the lines to write; the list must not be modified by the caller afterwards
+	 *@param last true if no more lines will be written to <code>file</code>
+	 */
+	public void write(File file, ArrayList<String> lines, boolean last) throws IOException{
+		if(failure != null) throw failure;
+		try{
+			queue.put(new Batch(file, lines, last));
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing elevation data for " + file);
+		}
+	}
+
+	/**
+	 *Waits for all queued lines to be written and closes every file.
+	 *@throws IOException the first error encountered by the writer thread, if any.
+	 */
+	public void close() throws IOException{
+		try{
+			queue.put(STOP);
+			worker.join();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing elevation data");
+		}
+		if(failure != null) throw failure;
+	}
+
+	private void drain(){
+		HashMap<File, PrintWriter> open = new HashMap<File, PrintWriter>();
+		try{
+			while(true){
+				Batch batch = queue.take();
+				if(batch == STOP) break;
+				if(failure != null) continue; //keep draining so that readers never block
+
+				try{
+					PrintWriter pW = open.get(batch.file);
+					if(pW == null && batch.lines != null && batch.lines.size() > 0){
+						if(!new File(batch.file.getParent()).exists()){
+							new File(batch.file.getParent()).mkdir();
+						}
+						pW = new PrintWriter(new BufferedWriter(new FileWriter(batch.file.getAbsoluteFile(), false)));
+						open.put(batch.file, pW);
+					}
+					if(pW != null){
+						for(int i = 0; i < batch.lines.size(); i++) pW.println(batch.lines.get(i));
+						if(batch.last){
+							pW.close();
+							open.remove(batch.file);
+						}
+						if(pW.checkError()) failure = new IOException("Could not write elevation data to " + batch.file);
+					}
+				}catch(IOException e){
+					failure = e;
+				}
+			}
+		}catch(InterruptedException e){
+			failure = new InterruptedIOException("Elevation writer interrupted");
+		}finally{
+			Iterator<PrintWriter> itr = open.values().iterator();
+			while(itr.hasNext()) itr.next().close();
+		}
+	}
+}
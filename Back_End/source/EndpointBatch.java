@@ -0,0 +1,142 @@
+/*EndpointBatch.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *The endpoints parsed from a single back trajectory file, in columns, with the trajectories they belong to.
+ *<p> The identity of a trajectory is parsed once, when its header is read: its sourceID and the thirdDim shared by its
+ *endpoints, without their hours back ("height,xR,yR" for HYSPLIT, the elevation level for CMC), and its receptor site. Each
+ *endpoint only carries its position, its hours back and the index of its trajectory in this batch.
+ *<code>World.addTrajectory</code> turns the trajectories into ids of the World once per file.
+ *<p> A batch is filled by a single thread, then handed to another; it is not modified once parsed.
+ */
+public class EndpointBatch{
+
+	private ArrayList<String> sourceIDs = new ArrayList<String>();
+	private ArrayList<String> thirdDims = new ArrayList<String>();
+	private ArrayList<String> receptors = new ArrayList<String>();
+
+	private int size = 0;
+	private double[] lon;
+	private double[] lat;
+	private float[] hours;
+	private int[] trajectory;
+
+	/**
+	 *The number of inadmissable lines of the file.
+	 */
+	public int errors = 0;
+
+	public EndpointBatch(){
+		this(256);
+	}
+
+	/**
+	 *Creates an empty batch with room for <code>capacity</code> endpoints.
+	 */
+	public EndpointBatch(int capacity){
+		capacity = Math.max(capacity, 16);
+		lon = new double[capacity];
+		lat = new double[capacity];
+		hours = new float[capacity];
+		trajectory = new int[capacity];
+	}
+
+	/**
+	 *Adds a trajectory.
+	 *@param sourceID the sourceID of its endpoints
+	 *@param thirdDim the thirdDim of its endpoints without their hours back
+	 *@param receptor its receptor site "xR,yR", or null if it has none
+	 *@return the index of the trajectory in this batch
+	 */
+	public int addTrajectory(String sourceID, String thirdDim, String receptor){
+		sourceIDs.add(sourceID);
+		thirdDims.add(thirdDim);
+		receptors.add(receptor);
+		return sourceIDs.size() - 1;
+	}
+
+	/**
+	 *Adds an endpoint of a trajectory of this batch.
+	 *@param hoursBack the hours back of the endpoint, or <code>EndpointStore.NO_HOURS</code>
+	 */
+	public void add(double lonX, double latY, float hoursBack, int trajectoryIndex){
+		if(size == lon.length){
+			int capacity = 2*size;
+			lon = Arrays.copyOf(lon, capacity);
+			lat = Arrays.copyOf(lat, capacity);
+			hours = Arrays.copyOf(hours, capacity);
+			trajectory = Arrays.copyOf(trajectory, capacity);
+		}
+		lon[size] = lonX;
+		lat[size] = latY;
+		hours[size] = hoursBack;
+		trajectory[size] = trajectoryIndex;
+		size++;
+	}
+
+	/**
+	 *Returns the number of endpoints of this batch.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 *Returns the number of trajectories of this batch.
+	 */
+	public int trajectories(){
+		return sourceIDs.size();
+	}
+
+	public String sourceID(int trajectoryIndex){
+		return sourceIDs.get(trajectoryIndex);
+	}
+
+	public String thirdDim(int trajectoryIndex){
+		return thirdDims.get(trajectoryIndex);
+	}
+
+	public String receptor(int trajectoryIndex){
+		return receptors.get(trajectoryIndex);
+	}
+
+	public double lon(int i){
+		return lon[i];
+	}
+
+	public double lat(int i){
+		return lat[i];
+	}
+
+	public float hours(int i){
+		return hours[i];
+	}
+
+	/**
+	 *Returns the index in this batch of the trajectory of an endpoint.
+	 */
+	public int trajectory(int i){
+		return trajectory[i];
+	}
+}
@@ -0,0 +1,488 @@
+/*EndpointStore.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *Columnar storage of back trajectory endpoints, one primitive array per field, replacing a Vector of <code>Point</code> objects.
+ *<p> Each endpoint occupies a slot: its longitude, latitude, hours back, trajectory id and receptor id (see
+ *<code>TrajectoryDictionary</code>), and the ids of the vectors of correlated data it was last and first tagged with (see
+ *<code>ConcentrationVectors</code>), which give its current and original concentrations (as <code>Point.addData</code> and
+ *<code>Point.setNewConc</code> would). The vectors are shared by all endpoints tagged by the same sample. When a current
+ *concentration is changed (RTWC), its whole column is copied into this store on write; the original concentrations are
+ *never copied.
+ *<p> The coordinates and hours back are packed at the resolution of the HYSPLIT endpoint files, 0.001 degree and one hour:
+ *the longitude and latitude in thousandths of a degree relative to the first endpoint of the store (the endpoints of a grid
+ *cell lie within a cell width of each other), with a flag for a longitude moved east by 360 degrees, in one int; the hours
+ *back in a short. A value is only packed if it is given back exactly; the first endpoint which cannot be (a finer
+ *resolution, fractional hours or a cell wider than 16 degrees) unpacks the store to full double and float columns.
+ *<p> After ingest, the stores of a World are moved into shared arrays by <code>compact</code>, each store holding the
+ *section starting at <code>base</code>; a store takes back arrays of its own when an endpoint is added to it.
+ *<p> A <code>Grid</code> refers to the slots <code>0 ... size()-1</code> of its own store. Not thread safe, except for the
+ *value columns: once every endpoint has been added and tagged, each column may be read and changed (<code>value</code>,
+ *<code>setValue</code>) by its own thread, as long as no two threads change the same column and nothing else is modified
+ *meanwhile (RTWC iterates pollutants of different columns at once).
+ */
+public class EndpointStore{
+
+	/**
+	 *Hours back of an endpoint whose thirdDim has none.
+	 */
+	public static final float NO_HOURS = Float.NaN;
+
+	/**
+	 *Packed hours back of an endpoint whose thirdDim has none.
+	 */
+	private static final short NO_PACKED_HOURS = Short.MIN_VALUE;
+
+	private int size = 0;
+	private int capacity;
+
+	/**
+	 *The index of slot 0 in the arrays of endpoint fields below, which are shared with other stores if it is not 0 (see
+	 *<code>compact</code>). The value columns are not shared and are indexed by slot.
+	 */
+	private int base = 0;
+
+	/**
+	 *The packed coordinates of each endpoint: longitude offset (15 bits), 360 degree flag (1 bit), latitude offset (16 bits),
+	 *in thousandths of a degree from <code>originLon, originLat</code>; and the packed hours back. Null once unpacked.
+	 */
+	private int[] coords;
+	private short[] packedHours;
+	private long originLon;
+	private long originLat;
+
+	/**
+	 *The coordinates and hours back of each endpoint once the store is unpacked; null while it is packed.
+	 */
+	private double[] lon;
+	private double[] lat;
+	private float[] hours;
+	private int[] trajectory;
+	private int[] receptor;
+
+	/**
+	 *The vectors of the last and first tagging of each endpoint, -1 if it is not tagged.
+	 */
+	private int[] current;
+	private int[] original;
+	private ConcentrationVectors vectors;
+
+	/**
+	 *The correlated variables, in the order of the value columns; null until an endpoint is tagged.
+	 */
+	private PollutantSchema schema;
+
+	/**
+	 *The current concentrations of the value columns which have been changed by <code>setValue</code>, by column; null for
+	 *the columns read from the vectors.
+	 */
+	private double[][] values;
+
+	/**
+	 *Creates an empty store with room for <code>capacity</code> endpoints, tagged with vectors of <code>auxVectors</code>.
+	 */
+	public EndpointStore(int capacity, ConcentrationVectors auxVectors){
+		capacity = Math.max(capacity, 4);
+		this.capacity = capacity;
+		vectors = auxVectors;
+		coords = new int[capacity];
+		packedHours = new short[capacity];
+		trajectory = new int[capacity];
+		receptor = new int[capacity];
+		current = new int[capacity];
+		original = new int[capacity];
+	}
+
+	/**
+	 *Adds an untagged endpoint.
+	 *@param trajectoryId the trajectory of the endpoint, or -1 if it has no sourceID or thirdDim
+	 *@param receptorId the receptor site of the endpoint, or -1 if its thirdDim has none
+	 *@return the slot of the endpoint
+	 */
+	public int add(double lonX, double latY, float hoursBack, int trajectoryId, int receptorId){
+		if(size == capacity) grow(); //also the first endpoint added to a compacted store
+		if(coords != null && !pack(lonX, latY, hoursBack)) unpack();
+		int i = base + size;
+		if(coords == null){
+			lon[i] = lonX;
+			lat[i] = latY;
+			hours[i] = hoursBack;
+		}
+		trajectory[i] = trajectoryId;
+		receptor[i] = receptorId;
+		current[i] = -1;
+		original[i] = -1;
+		return size++;
+	}
+
+	/**
+	 *Packs the coordinates and hours back of the endpoint of slot <code>size</code>.
+	 *@return false if they cannot be given back exactly by <code>lon, lat</code> and <code>hours</code>
+	 */
+	private boolean pack(double lonX, double latY, float hoursBack){
+		long lonMilli = Math.round(lonX*1000);
+		long latMilli = Math.round(latY*1000);
+		if(size == 0){
+			originLon = lonMilli;
+			originLat = latMilli;
+		}
+		long dLon = lonMilli - originLon;
+		long dLat = latMilli - originLat;
+		if(dLon < -(1 << 14) || dLon >= (1 << 14) || dLat < Short.MIN_VALUE || dLat > Short.MAX_VALUE) return false;
+
+		int shifted = 0;
+		if(!same(lonMilli/1000.0, lonX)){
+			if(!same((lonMilli - 360000)/1000.0 + 360, lonX)) return false;
+			shifted = 1; //read west of Greenwich and moved east, as the trajectory readers do
+		}
+		if(!same(latMilli/1000.0, latY)) return false;
+
+		short auxHours = NO_PACKED_HOURS;
+		if(!Float.isNaN(hoursBack)){
+			auxHours = (short)hoursBack;
+			if(auxHours == NO_PACKED_HOURS || Float.floatToIntBits(auxHours) != Float.floatToIntBits(hoursBack)) return false;
+		}
+
+		coords[base + size] = ((int)dLon << 17) | (shifted << 16) | ((int)dLat & 0xFFFF);
+		packedHours[base + size] = auxHours;
+		return true;
+	}
+
+	private static boolean same(double a, double b){
+		return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+	}
+
+	/**
+	 *Replaces the packed coordinates and hours back of the endpoints by full columns.
+	 */
+	private void unpack(){
+		lon = new double[base + capacity];
+		lat = new double[base + capacity];
+		hours = new float[base + capacity];
+		for(int s = 0; s < size; s++){
+			lon[base + s] = lon(s);
+			lat[base + s] = lat(s);
+			hours[base + s] = hours(s);
+		}
+		coords = null;
+		packedHours = null;
+	}
+
+	/**
+	 *Moves the endpoints to larger arrays of this store's own, at <code>base</code> 0.
+	 */
+	private void grow(){
+		capacity = Math.max(4, capacity + (capacity >> 1));
+		if(coords != null){
+			coords = copy(coords, base, size, capacity);
+			packedHours = copy(packedHours, base, size, capacity);
+		}else{
+			lon = copy(lon, base, size, capacity);
+			lat = copy(lat, base, size, capacity);
+			hours = copy(hours, base, size, capacity);
+		}
+		trajectory = copy(trajectory, base, size, capacity);
+		receptor = copy(receptor, base, size, capacity);
+		current = copy(current, base, size, capacity);
+		original = copy(original, base, size, capacity);
+		base = 0;
+		if(schema != null){
+			for(int k = 0; k < values.length; k++){
+				if(values[k] != null) values[k] = Arrays.copyOf(values[k], capacity);
+			}
+		}
+	}
+
+	/**
+	 *Returns the number of endpoints in this store.
+	 */
+	public int size(){
+		return size;
+	}
+
+	public double lon(int slot){
+		if(coords == null) return lon[base + slot];
+		int c = coords[base + slot];
+		long lonMilli = originLon + (c >> 17);
+		return ((c & 0x10000) != 0) ? (lonMilli - 360000)/1000.0 + 360 : lonMilli/1000.0;
+	}
+
+	public double lat(int slot){
+		if(coords == null) return lat[base + slot];
+		return (originLat + (short)coords[base + slot])/1000.0;
+	}
+
+	/**
+	 *Returns the hours back of an endpoint from the start of its trajectory, or <code>NO_HOURS</code>.
+	 */
+	public float hours(int slot){
+		if(coords == null) return hours[base + slot];
+		short h = packedHours[base + slot];
+		return (h == NO_PACKED_HOURS) ? NO_HOURS : h;
+	}
+
+	public int trajectory(int slot){
+		return trajectory[base + slot];
+	}
+
+	public int receptor(int slot){
+		return receptor[base + slot];
+	}
+
+	/**
+	 *Returns the id of the vector an endpoint was last tagged with, or -1 if it is not tagged.
+	 */
+	public int vector(int slot){
+		return current[base + slot];
+	}
+
+	/**
+	 *Returns true if the current concentrations of a value column have been changed by <code>setValue</code>, so that they
+	 *no longer follow the vectors.
+	 */
+	public boolean changed(int column){
+		return values[column] != null;
+	}
+
+	/**
+	 *Returns true if correlated data has been added to an endpoint.
+	 */
+	public boolean isTagged(int slot){
+		return current[base + slot] >= 0;
+	}
+
+	/**
+	 *Tags an endpoint with a vector of correlated data. The vector of the first tagging of an endpoint also gives its original
+	 *concentrations.
+	 *@param vector the id of the vector, or -1 for null or empty data
+	 *@throws Exception if <code>vector</code> is -1, or if its size differs from that of the vectors tagged before.
+	 */
+	public void tag(int slot, int vector) throws Exception{
+		if(vector < 0 || (schema != null && vectors.length(vector) != schema.size())){
+			throw new Exception("The size of the input data is either inadmissable or does not match the required size.");
+		}
+		if(schema == null){
+			schema = vectors.schema(vector);
+			values = new double[schema.size()][];
+		}
+		if(current[base + slot] < 0) original[base + slot] = vector;
+		current[base + slot] = vector;
+		for(int k = 0; k < values.length; k++){
+			if(values[k] != null) values[k][slot] = vectors.value(vector, k);
+		}
+	}
+
+	/**
+	 *Returns the column of a correlated variable, or <code>PollutantSchema.NO_COLUMN</code> if no endpoint has been tagged
+	 *with it.
+	 */
+	public int column(String name){
+		return (schema == null) ? PollutantSchema.NO_COLUMN : schema.column(name);
+	}
+
+	/**
+	 *Returns the number of value columns.
+	 */
+	public int columns(){
+		return (schema == null) ? 0 : schema.size();
+	}
+
+	/**
+	 *Returns the current concentration of a tagged endpoint.
+	 *@param column a column of this store, <code>0 ... columns()-1</code>
+	 */
+	public double value(int slot, int column){
+		double[] changed = values[column];
+		return (changed != null) ? changed[slot] : vectors.value(current[base + slot], column);
+	}
+
+	/**
+	 *Returns the concentration of a tagged endpoint when it was first tagged.
+	 */
+	public double original(int slot, int column){
+		return vectors.value(original[base + slot], column);
+	}
+
+	/**
+	 *Assigns a new concentration to a tagged endpoint; ignored if the endpoint is not tagged or the column does not exist.
+	 */
+	public void setValue(int slot, int column, double value){
+		if(current[base + slot] < 0 || column < 0 || column >= columns()) return;
+		if(values[column] == null){
+			//copy on write: the column no longer follows the vectors
+			double[] changed = new double[capacity];
+			for(int s = 0; s < size; s++){
+				if(current[base + s] >= 0) changed[s] = vectors.value(current[base + s], column);
+			}
+			values[column] = changed;
+		}
+		values[column][slot] = value;
+	}
+
+	/**
+	 *Moves the endpoints of several stores into shared arrays, each store after the one before it, so that a pass over the
+	 *stores in this order reads every endpoint field sequentially. Growth room is dropped: the next endpoint added to a store
+	 *moves it back to arrays of its own.
+	 */
+	public static void compact(EndpointStore[] stores){
+		int total = 0;
+		boolean unpacked = false;
+		for(int n = 0; n < stores.length; n++){
+			total += stores[n].size;
+			if(stores[n].coords == null) unpacked = true;
+		}
+		int[] auxCoords = new int[total];
+		short[] auxPackedHours = new short[total];
+		double[] auxLon = unpacked ? new double[total] : null;
+		double[] auxLat = unpacked ? new double[total] : null;
+		float[] auxHours = unpacked ? new float[total] : null;
+		int[] auxTrajectory = new int[total];
+		int[] auxReceptor = new int[total];
+		int[] auxCurrent = new int[total];
+		int[] auxOriginal = new int[total];
+
+		int offset = 0;
+		for(int n = 0; n < stores.length; n++){
+			EndpointStore st = stores[n];
+			int b = st.base;
+			int count = st.size;
+			if(st.coords != null){
+				System.arraycopy(st.coords, b, auxCoords, offset, count);
+				System.arraycopy(st.packedHours, b, auxPackedHours, offset, count);
+				st.coords = auxCoords;
+				st.packedHours = auxPackedHours;
+			}else{
+				System.arraycopy(st.lon, b, auxLon, offset, count);
+				System.arraycopy(st.lat, b, auxLat, offset, count);
+				System.arraycopy(st.hours, b, auxHours, offset, count);
+				st.lon = auxLon;
+				st.lat = auxLat;
+				st.hours = auxHours;
+			}
+			System.arraycopy(st.trajectory, b, auxTrajectory, offset, count);
+			System.arraycopy(st.receptor, b, auxReceptor, offset, count);
+			System.arraycopy(st.current, b, auxCurrent, offset, count);
+			System.arraycopy(st.original, b, auxOriginal, offset, count);
+			st.trajectory = auxTrajectory;
+			st.receptor = auxReceptor;
+			st.current = auxCurrent;
+			st.original = auxOriginal;
+			if(st.schema != null){
+				for(int k = 0; k < st.values.length; k++){
+					if(st.values[k] != null) st.values[k] = Arrays.copyOf(st.values[k], count);
+				}
+			}
+			st.base = offset;
+			st.capacity = count;
+			offset += count;
+		}
+	}
+
+	private static int[] copy(int[] a, int from, int count, int length){
+		int[] b = new int[length];
+		System.arraycopy(a, from, b, 0, count);
+		return b;
+	}
+
+	private static short[] copy(short[] a, int from, int count, int length){
+		short[] b = new short[length];
+		System.arraycopy(a, from, b, 0, count);
+		return b;
+	}
+
+	private static double[] copy(double[] a, int from, int count, int length){
+		double[] b = new double[length];
+		System.arraycopy(a, from, b, 0, count);
+		return b;
+	}
+
+	private static float[] copy(float[] a, int from, int count, int length){
+		float[] b = new float[length];
+		System.arraycopy(a, from, b, 0, count);
+		return b;
+	}
+
+	/**
+	 *Returns the number of bytes held by the arrays of this store, not counting the shared vectors.
+	 */
+	public long bytes(){
+		long b = capacity*((coords != null) ? (4L + 2) : (8L + 8 + 4));
+		b += capacity*(4L + 4 + 4 + 4);
+		for(int k = 0; k < columns(); k++){
+			if(values[k] != null) b += 8L*capacity;
+		}
+		return b;
+	}
+
+	/**
+	 *TESTING ONLY: measures the heap used per endpoint by a World holding synthetic HYSPLIT trajectories, before and after tagging.
+	 *<p> usage: EndpointStore [trajectories] [pollutants]
+	 */
+	public static void main(String[] args) throws Exception{
+		int trajectories = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int pollutants = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		int length = 120; //endpoints per trajectory
+		Random random = new Random(42);
+
+		long before = usedHeap();
+		World w = new World(360, 90, 1, 1);
+		ArrayList<String> ids = new ArrayList<String>();
+		for(int t = 0; t < trajectories; t++){
+			String sourceID = EpochHours.format(EpochHours.of(2000, 1, 1, 0) + t);
+			ids.add(sourceID);
+			double lonX = 284, latY = 45;
+			for(int h = 0; h < length; h++){
+				w.addPointToWorld(new Point(lonX, latY, sourceID, "500.0,45.000,-76.000," + h));
+				lonX = Math.rint(1000*Math.min(359.9, Math.max(0, lonX + random.nextGaussian()*0.3)))/1000; //as written by HYSPLIT
+				latY = Math.rint(1000*Math.min(89.9, Math.max(0, latY + random.nextGaussian()*0.2)))/1000;
+			}
+		}
+		w.compact(); //as after readHSEP
+		long loaded = usedHeap();
+		long n = (long)trajectories*length;
+		System.out.println(n + " endpoints, " + (loaded - before)/n + " bytes per untagged endpoint");
+
+		Pair[] data = new Pair[pollutants];
+		for(int t = 0; t < trajectories; t++){
+			for(int k = 0; k < pollutants; k++) data[k] = new Pair("Pollutant" + k, random.nextDouble());
+			w.tagWorld(ids.get(t), data, "45.000", "-76.000");
+		}
+		long tagged = usedHeap();
+		System.out.println((tagged - before)/n + " bytes per endpoint tagged with " + pollutants + " pollutants");
+		System.out.println("Population: " + w.hemPopulation());
+	}
+
+	private static long usedHeap(){
+		Runtime r = Runtime.getRuntime();
+		for(int i = 0; i < 4; i++){
+			System.gc();
+			try{
+				Thread.sleep(100);
+			}catch(InterruptedException e){
+				break;
+			}
+		}
+		return r.totalMemory() - r.freeMemory();
+	}
+}
@@ -0,0 +1,235 @@
+/*EpochHours.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *Integer date arithmetic for back trajectory and correlated data dates.
+ *<p> A date "yyyymmddtt" is represented by the number of whole hours between 1970-01-01 00h and that date, counted on the
+ *calendar itself (no time zone): consecutive hours of the calendar always differ by exactly 1, whatever the time zone. Fields
+ *out of range are normalized like a lenient <code>GregorianCalendar</code> (month 13 is January of the following year, hour 24
+ *is 00h of the following day...). Dates use the proleptic Gregorian calendar.
+ *<p> An instance of this class converts such dates to and from instants in a given time zone, taking daylight savings time
+ *into account. Conversions from dates to instants are computed once per date with a <code>GregorianCalendar</code> and cached,
+ *so that the results are exactly those of the calendar.
+ */
+public class EpochHours{
+
+	private static final long MSEC_PER_HOUR = 3600000L;
+
+	/**
+	 *The time zone of the dates converted by this instance.
+	 */
+	private final TimeZone zone;
+
+	/**
+	 *Instants of the dates converted so far, in milliseconds; shared by the threads reading back trajectories.
+	 */
+	private final ConcurrentHashMap<Integer, Long> instants = new ConcurrentHashMap<Integer, Long>();
+
+	/**
+	 *Creates a converter for dates in <code>zone</code>.
+	 */
+	public EpochHours(TimeZone zone){
+		this.zone = (TimeZone)zone.clone();
+	}
+
+	/**
+	 *Returns the instant of a date in the time zone of this converter, as <code>GregorianCalendar.getTimeInMillis()</code>
+	 *would for a calendar set to the same date. Dates skipped by a daylight savings change are resolved as the calendar does.
+	 */
+	public long toMillis(int date){
+		Long cached = instants.get(date);
+		if(cached == null){
+			GregorianCalendar calendar = new GregorianCalendar(zone);
+			calendar.clear();
+			calendar.set(year(date), month(date) - 1, day(date), hour(date), 0);
+			cached = calendar.getTimeInMillis();
+			instants.put(date, cached);
+		}
+		return cached;
+	}
+
+	/**
+	 *Returns the date (to the hour) of an instant in the time zone of this converter.
+	 */
+	public int fromMillis(long millis){
+		return (int)floorDiv(millis + zone.getOffset(millis), MSEC_PER_HOUR);
+	}
+
+	/**
+	 *Shifts a date by a number of elapsed hours in the time zone of this converter; across a daylight savings change the
+	 *calendar hours differ from <code>hours</code>.
+	 */
+	public int add(int date, int hours){
+		return fromMillis(toMillis(date) + hours*MSEC_PER_HOUR);
+	}
+
+	/**
+	 *Returns the number of elapsed hours between two dates in the time zone of this converter, rounded towards zero.
+	 */
+	public int hoursBetween(int from, int to){
+		return (int)((toMillis(to) - toMillis(from))/MSEC_PER_HOUR);
+	}
+
+	/**
+	 *Returns the ID of the time zone of this converter, for example "America/Toronto".
+	 */
+	public String zoneID(){
+		return zone.getID();
+	}
+
+	//CALENDAR ARITHMETIC
+
+	/**
+	 *Returns the date of the given (possibly out of range) calendar fields.
+	 *@param month the month of the year, starting at 1.
+	 */
+	public static int of(int year, int month, int day, int hour){
+		//normalize the month first, as the number of days depends on it
+		year += floorDiv(month - 1, 12);
+		month = (int)(month - 1 - 12*floorDiv(month - 1, 12)) + 1;
+		long days = daysFromCivil(year, month, 1) + (day - 1);
+		return (int)(days*24 + hour);
+	}
+
+	/**
+	 *Parses a date in the format "yyyymmddtt"; any characters after the 10th are ignored.
+	 *@throws NumberFormatException if <code>date</code> is not in that format.
+	 */
+	public static int parse(String date){
+		if(date.length() < 10) throw new NumberFormatException("Not a date (yyyymmddtt): " + date);
+		return of(Integer.parseInt(date.substring(0,4)), Integer.parseInt(date.substring(4,6)), Integer.parseInt(date.substring(6,8)), Integer.parseInt(date.substring(8,10)));
+	}
+
+	/**
+	 *Formats a date as "yyyymmddtt".
+	 */
+	public static String format(int date){
+		int[] f = fields(date);
+		StringBuilder sb = new StringBuilder(10);
+		sb.append(f[0]);
+		pad(sb, f[1]);
+		pad(sb, f[2]);
+		pad(sb, f[3]);
+		return sb.toString();
+	}
+
+	/**
+	 *Returns the year of a date.
+	 */
+	public static int year(int date){
+		return fields(date)[0];
+	}
+
+	/**
+	 *Returns the month of a date, starting at 1.
+	 */
+	public static int month(int date){
+		return fields(date)[1];
+	}
+
+	/**
+	 *Returns the day of the month of a date.
+	 */
+	public static int day(int date){
+		return fields(date)[2];
+	}
+
+	/**
+	 *Returns the hour of the day of a date.
+	 */
+	public static int hour(int date){
+		return (int)(date - 24*floorDiv(date, 24));
+	}
+
+	/**
+	 *Returns the first hour (00h) of the day of a date.
+	 */
+	public static int startOfDay(int date){
+		return (int)(24*floorDiv(date, 24));
+	}
+
+	/**
+	 *Returns {year, month, day, hour} of a date.
+	 */
+	private static int[] fields(int date){
+		long days = floorDiv(date, 24);
+		//civil from days, H. Hinnant's algorithm
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		long doe = z - era*146097;
+		long yoe = (doe - doe/1460 + doe/36524 - doe/146096)/365;
+		long doy = doe - (365*yoe + yoe/4 - yoe/100);
+		long mp = (5*doy + 2)/153;
+		int day = (int)(doy - (153*mp + 2)/5 + 1);
+		int month = (int)(mp < 10 ? mp + 3 : mp - 9);
+		int year = (int)(yoe + era*400 + (month <= 2 ? 1 : 0));
+		return new int[]{year, month, day, hour(date)};
+	}
+
+	/**
+	 *Returns the number of days from 1970-01-01 to a date (H. Hinnant's algorithm); <code>month</code> must be in 1..12.
+	 */
+	private static long daysFromCivil(long year, int month, int day){
+		year -= (month <= 2) ? 1 : 0;
+		long era = floorDiv(year, 400);
+		long yoe = year - era*400;
+		long doy = (153*(month > 2 ? month - 3 : month + 9) + 2)/5 + day - 1;
+		long doe = yoe*365 + yoe/4 - yoe/100 + doy;
+		return era*146097 + doe - 719468;
+	}
+
+	private static long floorDiv(long a, long b){
+		long q = a/b;
+		if((a % b != 0) && ((a < 0) != (b < 0))) q--;
+		return q;
+	}
+
+	private static void pad(StringBuilder sb, int v){
+		if(v < 10) sb.append('0');
+		sb.append(v);
+	}
+
+	/**
+	 *TESTING ONLY: compares the calendar arithmetic of this class with <code>GregorianCalendar</code>.
+	 */
+	public static void main(String[] args){
+		GregorianCalendar utc = new GregorianCalendar(new SimpleTimeZone(0, "noDST"));
+		utc.clear();
+		utc.set(1900, 0, 1, 0, 0);
+		EpochHours local = new EpochHours(TimeZone.getDefault());
+		GregorianCalendar calendar = new GregorianCalendar();
+		int errors = 0;
+		for(int date = of(1900, 1, 1, 0); date < of(2100, 1, 1, 0); date++){
+			String expected = utc.get(Calendar.YEAR) + new java.text.DecimalFormat("00").format(utc.get(Calendar.MONTH) + 1)
+				+ new java.text.DecimalFormat("00").format(utc.get(Calendar.DAY_OF_MONTH)) + new java.text.DecimalFormat("00").format(utc.get(Calendar.HOUR_OF_DAY));
+			if(!format(date).equals(expected) || parse(expected) != date) errors++;
+			calendar.clear();
+			calendar.set(year(date), month(date) - 1, day(date), hour(date), 0);
+			if(local.toMillis(date) != calendar.getTimeInMillis()) errors++;
+			utc.add(Calendar.HOUR_OF_DAY, 1);
+		}
+		System.out.println("Errors: " + errors);
+	}
+}
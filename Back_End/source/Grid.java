@@ -48,9 +48,19 @@
   	private double latYC;
   	
   	/**
-  	 *The set of points in the grid. This set is initially empty.
+  	 *The endpoints of the grid, in slots <code>0 ... store.size()-1</code>; null while the grid is empty.
   	 */
-  	private Vector<Point> points;
+  	private EndpointStore store;
+  	
+  	/**
+  	 *The trajectory and receptor ids of the endpoints of this grid; shared by all grids of a World.
+  	 */
+  	private TrajectoryDictionary dictionary;
+  	
+  	/**
+  	 *The correlated data the endpoints of this grid are tagged with; shared by all grids of a World.
+  	 */
+  	private ConcentrationVectors vectors;
   	
   	/**
   	 *The set of mij values specific to this grid. Initially null and accessible to members.
@@ -58,21 +68,63 @@
   	public int[] mij;
   	
   	/**
-  	 *The set of unique sourceIDs of a grid cell
+  	 *The unique trajectory ids of the tagged points of this grid cell, ascending, in <code>ids[0 ... idCount-1]</code>, with the
+  	 *number of tagged points of each and the slot of the first; found by <code>aggregate</code>.
   	 */
-  	private HashSet<String> ids;
+  	private int[] ids = new int[0];
+  	private int idCount = 0;
+  	private int[] idCounts = new int[0];
+  	private int[] idFirst = new int[0];
   	
   	/**
   	 *An array of CWT values specific to this grid. Initially null, size assigned when MIJ is calculated.
   	 */
   	private double[] CWT;
   	
-  	private HashSet<String> receptors;
+  	/**
+  	 *The receptor site ids of the tagged points of this grid cell, ascending; found by <code>aggregate</code>.
+  	 */
+  	private int[] receptors = new int[0];
+  	private int receptorCount = 0;
+  	
+  	/**
+  	 *The slots of the tagged points of each receptor site <code>receptors[r]</code>, ascending, in
+  	 *<code>bucketSlots[bucketStart[r] ... bucketStart[r+1]-1]</code>; found by <code>aggregate</code>.
+  	 */
+  	private int[] bucketStart = new int[1];
+  	private int[] bucketSlots = new int[0];
+  	
+  	/**
+  	 *The receptor site ids of <code>receptors</code> as a bitmask: bit <code>id%64</code> of word <code>id/64</code>.
+  	 */
+  	private long[] receptorMask = new long[0];
+  	
+  	/**
+  	 *The number of tagged points of this grid cell; found by <code>aggregate</code>.
+  	 */
+  	private int taggedCount = 0;
+  	
+  	/**
+  	 *True if a point has been added or tagged since the aggregates of this grid cell were last found.
+  	 */
+  	private boolean dirty = true;
   	
   	private boolean firstTime;
   	
   	private boolean CWTCalc;
   	
+  	/**
+  	 *The mean and the sum of squared deviations from it of the tagged concentrations of each pollutant of CWT, with the
+  	 *column and the field (linear or logarithmic) they were found in; found with the CWT by <code>cwtKernel</code> for
+  	 *<code>getCWTUncertainty</code>. A pollutant whose column is <code>NO_COLUMN</code> has none: until found, and again
+  	 *once a concentration of its column changes. Each pollutant is kept on its own, so that RTWC can iterate the
+  	 *pollutants of a grid on several threads.
+  	 */
+  	private int[] momentColumns;
+  	private boolean[] momentsLog;
+  	private double[] means;
+  	private double[] squares;
+  	
   	public double[] gridNatT;
   	
   	/**
@@ -82,21 +134,81 @@
   	 *@param auxLatYC the corner latitude of this grid
   	 */
   	public Grid(double auxLonXC, double auxLatYC){
+  		this(auxLonXC, auxLatYC, new TrajectoryDictionary(), new ConcentrationVectors());
+  	}
+  	
+  	/**
+  	 *Create a grid whose endpoints refer to the trajectories and receptor sites of <code>auxDictionary</code>, and to the
+  	 *correlated data of <code>auxVectors</code>.
+  	 */
+  	public Grid(double auxLonXC, double auxLatYC, TrajectoryDictionary auxDictionary, ConcentrationVectors auxVectors){
   		this.lonXC = auxLonXC;
   		this.latYC = auxLatYC;
-  		points = new Vector<Point>();
+  		this.dictionary = auxDictionary;
+  		this.vectors = auxVectors;
   		firstTime = true;
   		CWTCalc = false;
   	}
   	
   	
   	/**
-  	 *Adds a point to this Grid.
+  	 *Adds a point to this Grid. Only the fields of the point are kept, not the point itself.
   	 *@param x the <code>Point</code> to be added
   	 */
   	public void addPoint(Point x){
   		//the points added are likely to contain an empty set of correlated data. this would be "filled" afterwards on the basis of sourceID
-  		points.add(x);
+  		int trajectory = -1;
+  		int receptor = -1;
+  		if(x.sourceID() != null && x.thirdDim() != null){
+  			String site = World.receptorSite(x.thirdDim());
+  			if(site != null) receptor = dictionary.receptor(site);
+  			trajectory = dictionary.trajectory(World.uniqueID(x.sourceID(), x.thirdDim()), x.sourceID(), receptor, Double.NaN);
+  		}
+  		int slot = addEndpoint(x.lon(), x.lat(), hoursBack(x.thirdDim()), trajectory, receptor);
+  		if(x.hasData()){
+  			//the original concentrations first, then the current ones, as World.insert tags an endpoint
+  			Pair[] original = x.originalData();
+  			if(original != null) tagPoint(slot, vectors.add(original));
+  			tagPoint(slot, vectors.add(x.data()));
+  		}
+  	}
+  	
+  	/**
+  	 *Adds an endpoint whose identifiers were found by the World.
+  	 *@param trajectory the id of its trajectory in the dictionary of this grid, or -1
+  	 *@param receptor the id of its receptor site, or -1
+  	 *@return the slot of the endpoint, for <code>tagPoint</code>
+  	 */
+  	int addEndpoint(double lon, double lat, float hours, int trajectory, int receptor){
+  		if(store == null) store = new EndpointStore(16, vectors);
+  		dirty = true;
+  		forgetMoments(PollutantSchema.NO_COLUMN);
+  		return store.add(lon, lat, hours, trajectory, receptor);
+  	}
+  	
+  	/**
+  	 *Returns the endpoints of this grid, or null if it has none; for <code>World.compact</code>.
+  	 */
+  	EndpointStore store(){
+  		return store;
+  	}
+  	
+  	/**
+  	 *Returns the hours back of a thirdDim "height,xR,yR,T", or <code>EndpointStore.NO_HOURS</code>.
+  	 */
+  	static float hoursBack(String auxThirdDim){
+  		if(auxThirdDim == null) return EndpointStore.NO_HOURS;
+  		int start = -1;
+  		for(int c = 0; c < 3; c++){
+  			start = auxThirdDim.indexOf(',', start + 1);
+  			if(start < 0) return EndpointStore.NO_HOURS;
+  		}
+  		int end = auxThirdDim.indexOf(',', start + 1);
+  		try{
+  			return (float)Double.parseDouble(auxThirdDim.substring(start + 1, (end < 0) ? auxThirdDim.length() : end));
+  		}catch(NumberFormatException e){
+  			return EndpointStore.NO_HOURS;
+  		}
   	}
   	
   	
@@ -104,18 +216,15 @@
   	 *Returns the number of points in this grid. 0 if empty.
   	 */
   	public int population(){
-  		return points.size(); 
+  		return (store == null) ? 0 : store.size(); 
   	}
   	
   	/**
   	 *Returns the number of points in the grid which have correlated data.
   	 */
   	public int taggedPop(){
-  		int counter = 0;
-  		for(int i = 0; i < points.size(); i++){
-  			if(((Point)(points.get(i))).hasData()) counter++;
-  		}
-  		return counter;
+  		aggregate();
+  		return taggedCount;
   	}
   	
   	/**
@@ -128,32 +237,69 @@
   		//search the vector of points for the desired targetID; then fill the point(s) with data
   		//if no points were found with the appropriate sourceID, the state of the program has not changed
   		int i = 0;
-  		while(i < points.size()){
-  			if(((Point)(points.get(i))).sourceID() != null && ((Point)(points.get(i))).sourceID().equals(targetID) && 
-  				latR.equalsIgnoreCase(thirdDimLat(((Point)(points.get(i))).thirdDim())) && lonR.equalsIgnoreCase(thirdDimLon(((Point)(points.get(i))).thirdDim()))){
-  				try{
-  					((Point)(points.get(i))).addData(auxData);
-  					if(firstTime && auxData.length > 0){
-  						//initialize the MIJ values, not by higher level
-  						this.mij = new int[auxData.length];
-  						this.CWT = new double[auxData.length];
-  						this.gridNatT = new double[auxData.length];
-  						firstTime = false;
-  					}
-  				}catch(Exception e){
-  					System.out.println(e); //thrown if auxData is null
-  				}
+  		int vector = -2; //added with the first point found
+  		while(i < population()){
+  			int trajectory = store.trajectory(i);
+  			int receptor = store.receptor(i);
+  			if(trajectory >= 0 && receptor >= 0 && dictionary.sourceID(trajectory).equals(targetID) && 
+  				latR.equalsIgnoreCase(dictionary.siteLat(receptor)) && lonR.equalsIgnoreCase(dictionary.siteLon(receptor))){
+  				if(vector == -2) vector = vectors.add(auxData);
+  				tagPoint(i, vector);
   			}
   			i++;
   		}
   	}
   	
-  	private String thirdDimLat(String auxThirdDim){
-  		return (auxThirdDim.split(","))[1];
+  	/**
+  	 *Adds correlated data to a single point of this Grid, found by its identifier elsewhere (see <code>World.tagWorld</code>).
+  	 *@param slot the slot of the point, as returned by <code>addEndpoint</code>
+  	 *@param vector the set of data to be correlated to the point, as returned by <code>ConcentrationVectors.add</code>
+  	 */
+  	void tagPoint(int slot, int vector){
+  		try{
+  			store.tag(slot, vector);
+  			dirty = true;
+  			forgetMoments(PollutantSchema.NO_COLUMN);
+  			int length = vectors.length(vector);
+  			if(firstTime && length > 0){
+  				//initialize the MIJ values, not by higher level
+  				this.mij = new int[length];
+  				this.CWT = new double[length];
+  				this.gridNatT = new double[length];
+  				this.momentColumns = new int[length];
+  				Arrays.fill(momentColumns, PollutantSchema.NO_COLUMN);
+  				this.momentsLog = new boolean[length];
+  				this.means = new double[length];
+  				this.squares = new double[length];
+  				firstTime = false;
+  			}
+  		}catch(Exception e){
+  			System.out.println(e); //thrown if auxData is null
+  		}
+  	}
+  	
+  	/**
+  	 *Returns the column of a correlated variable in the endpoints of this grid, or <code>PollutantSchema.NO_COLUMN</code>.
+  	 */
+  	public int column(String name){
+  		return (store == null) ? PollutantSchema.NO_COLUMN : store.column(name);
   	}
   	
-  	private String thirdDimLon(String auxThirdDim){
-  		return (auxThirdDim.split(","))[2];
+  	private int[] columns(String[] names){
+  		int[] auxColumns = new int[names.length];
+  		for(int i = 0; i < names.length; i++) auxColumns[i] = column(names[i]);
+  		return auxColumns;
+  	}
+  	
+  	/**
+  	 *Checks, once per pollutant rather than once per point, that a column resolved by name exists in the tagged points of
+  	 *this grid.
+  	 *@throws Exception if the column is <code>NO_COLUMN</code> (or out of range) and this grid has tagged points.
+  	 */
+  	private void checkColumn(int column) throws Exception{
+  		if(this.taggedPop() > 0 && (column < 0 || column >= store.columns())){
+  			throw new Exception("The name specified was not found in this set of correlated data.");
+  		}
   	}
   	
 	/**
@@ -161,32 +307,66 @@
 	 *@param threshData the set of threshold data in the same order as the indices of the mij array.
 	 *@throws Exception occurs if a name sought after in correlated data sets is not found
 	 */
-  	public void calcMIJ(Pair[] threshData, int receptorMax) throws Exception{ //threshold data as a pair.  	
+  	public void calcMIJ(Pair[] threshData, int receptorMax) throws Exception{ //threshold data as a pair.
+  		String[] names = new String[threshData.length];
+  		for(int i = 0; i < names.length; i++) names[i] = threshData[i].name;
+  		calcMIJ(threshData, columns(names), receptorMax);
+  	}
+  	
+	/**
+	 *As <code>calcMIJ(threshData, receptorMax)</code>, with the columns of the pollutants of <code>threshData</code> already resolved.
+	 *@param columns the column of each pollutant of threshData (see <code>PollutantSchema</code>)
+	 */
+  	public void calcMIJ(Pair[] threshData, int[] columns, int receptorMax) throws Exception{
+  		calcMIJ(threshData, columns, vectors.exceedances(threshData, columns), receptorMax);
+  	}
+  	
+	/**
+	 *As <code>calcMIJ(threshData, columns, receptorMax)</code>, with the exceedances of the vectors of the World already found
+	 *(see <code>ConcentrationVectors.exceedances</code>), so that the points of each receptor are counted for every pollutant
+	 *in a single pass.
+	 */
+  	public void calcMIJ(Pair[] threshData, int[] columns, long[] exceedances, int receptorMax) throws Exception{
 		
 		if(receptorMax > this.numReceptors()){
 			mij = null; //nullify an array to give a no-data value
 		} 
 		
 		if(mij != null && threshData.length == mij.length){
+			int words = (mij.length + 63) >> 6;
+			int auxMIJ[][] = new int[this.numReceptors()][mij.length];
+			
+			//count the points of each receptor in its bucket, for every pollutant the vector of the point exceeds
+			for(int r = 0; r < auxMIJ.length; r++){
+				for(int b = bucketStart[r]; b < bucketStart[r + 1]; b++){
+					int at = store.vector(bucketSlots[b])*words;
+					for(int w = 0; w < words; w++){
+						long bits = exceedances[at + w];
+						while(bits != 0){
+							auxMIJ[r][(w << 6) + Long.numberOfTrailingZeros(bits)]++;
+							bits &= bits - 1;
+						}
+					}
+				}
+			}
+			
 			for(int i = 0; i < mij.length; i++){
 				mij[i] =  1; //initially set mij to one (multiplier effect).
-				Iterator itrReceptors = this.receptors.iterator();
-				int auxMIJ[] = new int[this.numReceptors()];
-			
-				//iterate through all receptors here and multiply the MIJ finding
-				for(int r = 0; r < this.numReceptors(); r++){
-					String receptor = (String)itrReceptors.next();
-					for(int j = 0; j < points.size(); j++){
-						if(((Point)points.get(j)).hasData() && threshData[i].value <= ((Point)points.get(j)).getValue(threshData[i].name)){
-							String auxThirdDim[] = ((Point)points.get(j)).thirdDim().split(",");
-							if(auxThirdDim[1].equalsIgnoreCase(receptor.split(",")[0]) && auxThirdDim[2].equalsIgnoreCase(receptor.split(",")[1])){
-								auxMIJ[r]++;	
-							}
+				int column = columns[i];
+				if(auxMIJ.length > 0) checkColumn(column);
+				if(auxMIJ.length > 0 && store.changed(column)){
+					//redistributed by RTWC: the vectors no longer give the concentrations
+					for(int r = 0; r < auxMIJ.length; r++){
+						auxMIJ[r][i] = 0;
+						for(int b = bucketStart[r]; b < bucketStart[r + 1]; b++){
+							if(threshData[i].value <= store.value(bucketSlots[b], column)) auxMIJ[r][i]++;
 						}
 					}
-					
+				}
+				
+				for(int r = 0; r < auxMIJ.length; r++){
 					//multiply the MIJ finding:
-					mij[i] *= auxMIJ[r];	
+					mij[i] *= auxMIJ[r][i];	
 				}		
 			}
 		} //mij(!= null)
@@ -195,20 +375,9 @@
   	public int multiPopForPSCF(int receptorMax){
   		if(this.numReceptors() < receptorMax) return -1;
   		
-  		Iterator itrReceptors = this.receptors.iterator();
   		int NIJMulti = 1;
-  		while(itrReceptors.hasNext()){
-  			int nijRec = 0;
-  			String receptor = (String)(itrReceptors.next());
-  			
-  			for(int j = 0; j < points.size(); j++){
-  				Point auxP = (Point)(points.get(j));
-  				if(auxP.hasData() && thirdDimLat(auxP.thirdDim()).equalsIgnoreCase(receptor.split(",")[0]) && thirdDimLon(auxP.thirdDim()).equalsIgnoreCase(receptor.split(",")[1])){
-  					nijRec++;
-  				}
-  			}
-  			
-  			NIJMulti *= nijRec;
+  		for(int r = 0; r < receptorCount; r++){
+  			NIJMulti *= bucketStart[r + 1] - bucketStart[r];
   		}
   		return NIJMulti;
   	}
@@ -218,24 +387,26 @@
   	 */
   	public int uniqueID(){
   		if(this.population() == 0) return 0;
-  		HashSet<String> auxIds = new HashSet<String>();
-  		for(int i = 0; i < points.size(); i++){
-  			if(((Point)points.get(i)).sourceID() != null && ((Point)points.get(i)).thirdDim() != null) 
-  				auxIds.add(((Point)points.get(i)).sourceID() + this.lastComma(((Point)points.get(i)).thirdDim()));
+  		HashSet<Integer> auxIds = new HashSet<Integer>();
+  		for(int i = 0; i < population(); i++){
+  			if(store.trajectory(i) >= 0) auxIds.add(store.trajectory(i));
   		}
   		return auxIds.size();
   	}
   	
   	public int numReceptors(){
-  		if(this.taggedUniqueID() == 0) return 0;
-  		receptors = new HashSet<String>();
-  		for(int i = 0; i < points.size(); i++){
-  			if(((Point)points.get(i)).hasData() && ((Point)points.get(i)).sourceID() != null && ((Point)points.get(i)).thirdDim() != null){
-  				String receptorOfPoint = thirdDimLat(((Point)points.get(i)).thirdDim()) + "," + thirdDimLon(((Point)points.get(i)).thirdDim());
-  				receptors.add(receptorOfPoint);
-  			}
-  		}
-  		return receptors.size();
+  		aggregate();
+  		int count = 0;
+  		for(int k = 0; k < receptorMask.length; k++) count += Long.bitCount(receptorMask[k]);
+  		return count;
+  	}
+  	
+  	/**
+  	 *Returns true if a tagged point of a trajectory from the receptor site of id <code>receptor</code> lies in this grid cell.
+  	 *Requires the aggregates to be current.
+  	 */
+  	private boolean hasReceptor(int receptor){
+  		return receptor >= 0 && (receptor >> 6) < receptorMask.length && (receptorMask[receptor >> 6] & (1L << receptor)) != 0;
   	}
   	
   	
@@ -243,26 +414,97 @@
   	 *The number of unique sourceIDs in this grid. Only points with tagged data are considered.  	 
   	 */
   	public int taggedUniqueID(){
-  		if(this.population() == 0) return 0;
-  		ids = new HashSet<String>();
-  		for(int i = 0; i < points.size(); i++){
-  			if(((Point)points.get(i)).hasData() && ((Point)points.get(i)).sourceID() != null && ((Point)points.get(i)).thirdDim() != null){
-  				String uniqueID = ((Point)points.get(i)).sourceID() + this.lastComma(((Point)points.get(i)).thirdDim());
-  				ids.add(uniqueID);
+  		aggregate();
+  		return idCount;
+  	}
+  	
+  	/**
+  	 *Returns the id of the <code>j</code>-th trajectory of the tagged points of this grid, ascending; <code>j</code> is less
+  	 *than <code>taggedUniqueID()</code>.
+  	 */
+  	int taggedTrajectory(int j){
+  		aggregate();
+  		return ids[j];
+  	}
+  	
+  	/**
+  	 *Returns the number of tagged points of the <code>j</code>-th trajectory of this grid (see <code>taggedTrajectory</code>).
+  	 */
+  	int taggedTrajectoryPop(int j){
+  		aggregate();
+  		return idCounts[j];
+  	}
+  	
+  	/**
+  	 *Finds the tagged population, the unique tagged trajectories and receptor sites of this grid cell and the tagged points of
+  	 *each, in one pass over the points. They are kept until <code>addEndpoint</code> or <code>tagPoint</code> changes the
+  	 *points, so that the analyses need not scan the points again for every pollutant, trajectory or receptor.
+  	 */
+  	private void aggregate(){
+  		if(!dirty) return;
+  		int n = population();
+  		int[] auxIds = new int[n];
+  		int[] auxReceptors = new int[n];
+  		int m = 0;
+  		int k = 0;
+  		taggedCount = 0;
+  		for(int i = 0; i < n; i++){
+  			if(store.isTagged(i)){
+  				taggedCount++;
+  				if(store.trajectory(i) >= 0){
+  					auxIds[m++] = store.trajectory(i);
+  					if(store.receptor(i) >= 0) auxReceptors[k++] = store.receptor(i);
+  				}
   			}
   		}
+  		idCount = distinct(auxIds, m);
+  		ids = Arrays.copyOf(auxIds, idCount);
+  		receptorCount = (idCount == 0) ? 0 : distinct(auxReceptors, k);
+  		receptors = Arrays.copyOf(auxReceptors, receptorCount);
   		
-  		//VERBOSE:
+  		receptorMask = new long[(receptorCount == 0) ? 0 : (receptors[receptorCount - 1] >> 6) + 1];
+  		for(int r = 0; r < receptorCount; r++) receptorMask[receptors[r] >> 6] |= 1L << receptors[r];
   		
-  		/*System.out.println("-----CONTENTS:------");
-  		String x[] = new String[ids.size()];
-  		ids.toArray(x);
-  		for(int i = 0; i < x.length; i++){
-  			System.out.println(x[i]);
+  		idCounts = new int[idCount];
+  		idFirst = new int[idCount];
+  		bucketStart = new int[receptorCount + 1];
+  		int[] bucketOf = new int[n]; //the bucket of each slot, or -1
+  		for(int i = n - 1; i >= 0; i--){
+  			bucketOf[i] = -1;
+  			if(!store.isTagged(i)) continue;
+  			if(store.trajectory(i) >= 0){
+  				int t = Arrays.binarySearch(ids, store.trajectory(i));
+  				idCounts[t]++;
+  				idFirst[t] = i; //last assigned by the lowest slot
+  			}
+  			if(hasReceptor(store.receptor(i))){
+  				bucketOf[i] = Arrays.binarySearch(receptors, store.receptor(i));
+  				bucketStart[bucketOf[i] + 1]++;
+  			}
   		}
-  		System.out.println("--------------\n\n");*/
   		
-  		return ids.size();
+  		//bucket the tagged points by receptor site, in slot order
+  		for(int r = 0; r < receptorCount; r++) bucketStart[r + 1] += bucketStart[r];
+  		bucketSlots = new int[bucketStart[receptorCount]];
+  		int[] next = Arrays.copyOf(bucketStart, receptorCount);
+  		for(int i = 0; i < n; i++){
+  			if(bucketOf[i] >= 0) bucketSlots[next[bucketOf[i]]++] = i;
+  		}
+  		dirty = false;
+  	}
+  	
+  	/**
+  	 *Sorts <code>a[0 ... n-1]</code> and moves its distinct values to the front.
+  	 *@return the number of distinct values
+  	 */
+  	private static int distinct(int[] a, int n){
+  		if(n == 0) return 0;
+  		Arrays.sort(a, 0, n);
+  		int d = 1;
+  		for(int i = 1; i < n; i++){
+  			if(a[i] != a[d-1]) a[d++] = a[i];
+  		}
+  		return d;
   	}
   	
   	/**
@@ -279,33 +521,24 @@
   	
   	public Pair[] nijmTable(){
   		Pair[] auxTable = new Pair[this.taggedUniqueID()];
-  		Iterator itrUniqueID = this.ids.iterator();
-  		String idsTemp = "";
-  		for(int i = 0; i < ids.size(); i++){
-  			idsTemp = (String)itrUniqueID.next();
-  			auxTable[i] = new Pair(idsTemp, countNIJM(idsTemp));
+  		for(int i = 0; i < idCount; i++){
+  			auxTable[i] = new Pair(dictionary.uniqueID(ids[i]), countNIJM(ids[i]));
   		}
   		return auxTable;
   	}
   	
   	public int countNIJM(String auxUID){
-  		int auxNIJM = 0;
-  		for(int i = 0; i < points.size(); i++){	
-  			if(((Point)points.get(i)).hasData() && ((Point)points.get(i)).sourceID() != null && ((Point)points.get(i)).thirdDim() != null){
-  				String uniqueID = ((Point)points.get(i)).sourceID() + this.lastComma(((Point)points.get(i)).thirdDim());
-  				if(uniqueID.equalsIgnoreCase(auxUID)) auxNIJM++;
-  			}
-  		}
-  		return auxNIJM;
+  		return countNIJM(dictionary.findTrajectory(auxUID));
   	}
   	
-  	private double getConcByUniqueID(String auxUID, String polName) throws Exception{
-  		for(int i = 0; i < points.size(); i++){
-  			if(((Point)points.get(i)).hasData() && (((Point)points.get(i)).sourceID() + this.lastComma(((Point)points.get(i)).thirdDim())).equalsIgnoreCase(auxUID)){
-  				return ((Point)points.get(i)).getValue(polName);
-  			}
-  		}
-  		throw new Exception("The name specified was not found in this set of correlated data.");
+  	/**
+  	 *Returns the number of tagged points of a trajectory in this grid.
+  	 *@param trajectory the id of the trajectory in the dictionary of this grid
+  	 */
+  	public int countNIJM(int trajectory){
+  		aggregate();
+  		int t = Arrays.binarySearch(ids, 0, idCount, trajectory);
+  		return (t < 0) ? 0 : idCounts[t];
   	}
   	
   	//NOTE: ONLY CALL THIS METHOD IF taggedPop > 0. Will return NULL OTHERWISE!
@@ -316,28 +549,14 @@
   	 *RETURN: CWT[0 ... K], where K is the number of pollutants in all cells
   	 */
   	public double[] getCalcCWT(String[] varList) throws Exception{
-  		//calculate the CWT for this grid!
-  		//iteration levels: for each pollutant, through each uniqueID!
-  		
-		int j = this.taggedUniqueID();
-  		for(int i = 0; i < varList.length; i++){
-  			Iterator itrUniqueID = this.ids.iterator();
-  			double auxSum = 0;
-  			
-  			for(j = 0; j < this.taggedUniqueID(); j++){
-  				String auxUniqueID = (String)itrUniqueID.next();
-  				//System.out.println(auxUniqueID); //VERBOSE
-  				auxSum += getConcByUniqueID(auxUniqueID, varList[i])*countNIJM(auxUniqueID);
-  			}
-  			
-  			
-  			if(this.taggedPop() > 0 && ((!CWTCalc) || (CWTCalc && CWT[i] >= 0))){
-  				CWT[i] = auxSum/this.taggedPop(); //do this if this is the first time calculating CWT or if CWT[i] != ndValue
-  				//System.out.println(this.latYC + "," + (this.lonXC-360) + "," + CWT[i] + "," + this.taggedPop()); //VERBOSE
-  			}
-  		}
-  		CWTCalc = true;
-  		return CWT;
+  		return getCalcCWT(columns(varList));
+  	}
+  	
+  	/**
+  	 *As <code>getCalcCWT(varList)</code>, with the column of each pollutant of varList already resolved.
+  	 */
+  	public double[] getCalcCWT(int[] columns) throws Exception{
+  		return calcCWT(columns, false);
   	}
   	
   	/**
@@ -349,24 +568,89 @@
   	 *
   	 */
   	public double[] getCalcCWTLog(String[] varList) throws Exception{
+  		return getCalcCWTLog(columns(varList));
+  	}
+  	
+  	/**
+  	 *As <code>getCalcCWTLog(varList)</code>, with the column of each pollutant of varList already resolved.
+  	 */
+  	public double[] getCalcCWTLog(int[] columns) throws Exception{
+  		return calcCWT(columns, true);
+  	}
+  	
+  	/**
+  	 *The CWT of getCalcCWT and getCalcCWTLog: one pass of <code>cwtKernel</code> for every pollutant at once.
+  	 */
+  	private double[] calcCWT(int[] columns, boolean logUsed) throws Exception{
   		//calculate the CWT for this grid!
-  		//iteration levels: for each pollutant, through each uniqueID!
-		int j = this.taggedUniqueID();
-  		for(int i = 0; i < varList.length; i++){
-  			Iterator itrUniqueID = this.ids.iterator();
-  			double auxSum = 0;
-  			
-  			for(j = 0; j < this.taggedUniqueID(); j++){
-  				String auxUniqueID = (String)itrUniqueID.next();
-  				auxSum += Math.log10(getConcByUniqueID(auxUniqueID, varList[i]))*countNIJM(auxUniqueID);
+  		cwtKernel(0, columns, logUsed, true);
+  		CWTCalc = true;
+  		return CWT;
+  	}
+  	
+  	/**
+  	 *Recalculates CWT[i] alone, as getCalcCWT or getCalcCWTLog would; for RTWC, which iterates each pollutant on its own
+  	 *once the CWT of every pollutant has been found. Pollutants of a grid may be recalculated on several threads at once.
+  	 *@return the CWT of the pollutant
+  	 */
+  	double calcCWT(int i, int column, boolean logUsed) throws Exception{
+  		cwtKernel(i, new int[]{column}, logUsed, true);
+  		return CWT[i];
+  	}
+  	
+  	/**
+  	 *The CWT kernel: finds, in one pass over the trajectories of this grid, the CWT of pollutants
+  	 *<code>first ... first+columns.length-1</code> (of columns <code>columns[0] ...</code>) together with the mean and the sum of
+  	 *squared deviations from it of their tagged concentrations, from which getCWTUncertainty finds the confidence half-width
+  	 *without another pass.
+  	 *<p> The concentration of each trajectory is read (and its logarithm found) once, from the slot of its first tagged point,
+  	 *and weighted by its number of tagged points: in the sum of the CWT, and in Welford's method (with weights, as by West).
+  	 *Tagged points without a trajectory only count towards the moments, as they only count towards taggedPop in the CWT.
+  	 *@param setCWT false to find the moments alone, leaving the CWT as it is
+  	 */
+  	private void cwtKernel(int first, int[] columns, boolean logUsed, boolean setCWT) throws Exception{
+		int n = this.taggedUniqueID();
+		int pop = this.taggedPop();
+		double[] sums = new double[columns.length];
+  		for(int x = 0; x < columns.length; x++){
+  			if(n > 0) checkColumn(columns[x]);
+  			means[first + x] = 0;
+  			squares[first + x] = 0;
+  		}
+  		
+  		int count = 0;
+  		for(int j = 0; j < n; j++){
+  			int weight = idCounts[j];
+  			count += weight;
+  			for(int x = 0; x < columns.length; x++){
+  				double conc = store.value(idFirst[j], columns[x]);
+  				if(logUsed) conc = Math.log10(conc);
+  				sums[x] += conc*weight;
+  				double delta = conc - means[first + x];
+  				means[first + x] += delta*weight/count;
+  				squares[first + x] += weight*delta*(conc - means[first + x]);
   			}
-  			
-  			if(this.taggedPop() > 0 && ((!CWTCalc) || (CWTCalc && CWT[i] >= 0))){
-  				CWT[i] = auxSum/this.taggedPop();
+  		}
+  		for(int i = 0; count < pop && i < population(); i++){
+  			if(!store.isTagged(i) || store.trajectory(i) >= 0) continue;
+  			count++;
+  			for(int x = 0; x < columns.length; x++){
+  				double conc = store.value(i, columns[x]);
+  				if(logUsed) conc = Math.log10(conc);
+  				double delta = conc - means[first + x];
+  				means[first + x] += delta/count;
+  				squares[first + x] += delta*(conc - means[first + x]);
   			}
   		}
-  		CWTCalc = true;
-  		return CWT;
+  		
+  		for(int x = 0; x < columns.length; x++){
+  			int i = first + x;
+  			if(setCWT && pop > 0 && ((!CWTCalc) || (CWTCalc && CWT[i] >= 0))){
+  				CWT[i] = sums[x]/pop; //do this if this is the first time calculating CWT or if CWT[i] != ndValue
+  			}
+  			momentsLog[i] = logUsed;
+  			momentColumns[i] = columns[x];
+  		}
   	}
   	
   	
@@ -377,6 +661,13 @@
   	 *@param logUsed true if the concentration field is logarithmic, false if it is not (regular)
   	 */
   	public double[] getCWTUncertainty(double confInt, String[] varList, boolean logUsed) throws Exception{
+  		return getCWTUncertainty(confInt, columns(varList), logUsed);
+  	}
+  	
+  	/**
+  	 *As <code>getCWTUncertainty(confInt, varList, logUsed)</code>, with the column of each pollutant of varList already resolved.
+  	 */
+  	public double[] getCWTUncertainty(double confInt, int[] columns, boolean logUsed) throws Exception{
   		/*REQUIREMENT: CWT[] must already be calculated for this grid
   		 *This ensures that the standard-dev calculations can be made for CI interval to be obtained.
   		 *The invoking class should have CWT[i] +/- this uncertainty returned
@@ -384,22 +675,9 @@
   		if(!this.CWTCalc) return null;
   		
   		double CWTUnc[] = new double[CWT.length];
-  		
-  		for(int x = 0; x < varList.length; x++){ //for every pollutant in varList
-  			double sdSquareSum = 0;
-  			for(int i = 0; i < points.size(); i++){
-  				if(((Point)points.get(i)).hasData()){
-  					if(!logUsed){
-  						sdSquareSum += Math.pow(Math.abs(CWT[x] - ((Point)points.get(i)).getValue(varList[x])), 2.0);
-  					}else{
-  						sdSquareSum += Math.pow(Math.abs(CWT[x] - Math.log10(((Point)points.get(i)).getValue(varList[x]))), 2.0);
-  					}
-  					
-  				}
-  			}
-  			
-  			CWTUnc[x] = Math.sqrt(sdSquareSum/((double)this.taggedPop() - 1))*(new Statistics()).AStudT(1-confInt, this.taggedPop()-1)/Math.sqrt((double)this.taggedPop());
-  			
+  		double studT = (new Statistics()).AStudT(1-confInt, this.taggedPop()-1);
+  		for(int x = 0; x < columns.length; x++){ //for every pollutant in varList
+  			CWTUnc[x] = getCWTUncertainty(x, columns[x], logUsed, studT);
   		}
   		return CWTUnc;
   	}
@@ -412,28 +690,53 @@
   	 *@param logUsed true if the concentration field is logarithmic, false if it is not (regular)
   	 */
   	public double getCWTUncertainty(double confInt, int index, String polName, boolean logUsed) throws Exception{
+  		return getCWTUncertainty(confInt, index, column(polName), logUsed);
+  	}
+  	
+  	/**
+  	 *As <code>getCWTUncertainty(confInt, index, polName, logUsed)</code>, with the column of the pollutant already resolved.
+  	 */
+  	public double getCWTUncertainty(double confInt, int index, int column, boolean logUsed) throws Exception{
   		/*REQUIREMENT: CWT[] must already be calculated for this grid
   		 *This ensures that the standard-dev calculations can be made for CI interval to be obtained.
   		 *The invoking class should have CWT[i] +/- this uncertainty returned
   		 **/
   		if(!this.CWTCalc) return 0.0;
-  		int x = index;
-  		double CWTUnc = 0;
-  		
-		double sdSquareSum = 0;
-		for(int i = 0; i < points.size(); i++){
-			if(((Point)points.get(i)).hasData()){
-				if(!logUsed){
-					sdSquareSum += Math.pow(Math.abs(CWT[x] - ((Point)points.get(i)).getValue(polName)), 2.0);
-				}else{
-					sdSquareSum += Math.pow(Math.abs(CWT[x] - Math.log10(((Point)points.get(i)).getValue(polName))), 2.0);
-				}	
-			}
-		}
-  			
-  		CWTUnc = Math.sqrt(sdSquareSum/((double)this.taggedPop() - 1))*(new Statistics()).AStudT(1-confInt, this.taggedPop()-1)/Math.sqrt((double)this.taggedPop());
-  		
-  		return CWTUnc;
+  		return getCWTUncertainty(index, column, logUsed, (new Statistics()).AStudT(1-confInt, this.taggedPop()-1));
+  	}
+  	
+  	/**
+  	 *As <code>getCWTUncertainty(confInt, index, column, logUsed)</code>, with the critical value of Student's t already found
+  	 *for the confidence interval and <code>taggedPop()-1</code> degrees of freedom (see <code>Statistics.AStudT</code>).
+  	 *The moments of the pollutant are those found with its CWT (see <code>cwtKernel</code>); they are only found again if
+  	 *a concentration of its column has changed since.
+  	 */
+  	double getCWTUncertainty(int index, int column, boolean logUsed, double studT) throws Exception{
+  		if(!this.CWTCalc) return 0.0;
+  		checkColumn(column);
+  		if(momentColumns[index] != column || momentsLog[index] != logUsed) cwtKernel(index, new int[]{column}, logUsed, false);
+  		return uncertainty(index, studT);
+  	}
+  	
+  	/**
+  	 *Drops the moments of the pollutants of a column, or of every pollutant if <code>column</code> is <code>NO_COLUMN</code>.
+  	 */
+  	private void forgetMoments(int column){
+  		if(momentColumns == null) return;
+  		for(int x = 0; x < momentColumns.length; x++){
+  			if(column == PollutantSchema.NO_COLUMN || momentColumns[x] == column) momentColumns[x] = PollutantSchema.NO_COLUMN;
+  		}
+  	}
+  	
+  	/**
+  	 *Returns the confidence half-width of CWT[x] from the moments of its pollutant: the sum of squared deviations of the
+  	 *tagged concentrations from CWT[x] is the one from their mean, plus taggedPop()*(mean - CWT[x])^2.
+  	 */
+  	private double uncertainty(int x, double studT){
+  		double pop = this.taggedPop();
+  		double offset = means[x] - CWT[x];
+  		double sdSquareSum = squares[x] + pop*offset*offset;
+  		return Math.sqrt(sdSquareSum/(pop - 1))*studT/Math.sqrt(pop);
   	}
   	
   	/**
@@ -445,28 +748,51 @@
   	 */
   	public void changeConc(String auxUID, int auxIndex, double auxNewValue){ //CHANGE!
   		if(this.taggedUniqueID() <= 0) return;
-  		for(int i = 0; i < points.size(); i++){
-  			if(((Point)points.get(i)).hasData() && ((Point)points.get(i)).sourceID() != null && ((Point)points.get(i)).thirdDim() != null){
-  				if((((Point)points.get(i)).sourceID() + this.lastComma(((Point)points.get(i)).thirdDim())).equalsIgnoreCase(auxUID)){ //changed
-  					((Point)points.get(i)).setNewConc(auxIndex, auxNewValue);
-  					//((Point)points.get(i)).printInfo(); //VERBOSE TESTING
-  				}
+  		int trajectory = dictionary.findTrajectory(auxUID);
+  		for(int i = 0; trajectory >= 0 && i < population(); i++){
+  			if(store.isTagged(i) && store.trajectory(i) == trajectory){ //changed
+  				store.setValue(i, auxIndex, auxNewValue);
   			}
   		}
+  		forgetMoments(auxIndex);
   	}
   	
   	public void changeConcByMultiple(String auxUID, int auxIndex, double multiple, String polName) throws Exception{ //CHANGE
+  		changeConcByMultiple(dictionary.findTrajectory(auxUID), auxIndex, multiple, polName);
+  	}
+  	
+  	/**
+  	 *As <code>changeConcByMultiple(auxUID, ...)</code> for the trajectory of id <code>trajectory</code> in the dictionary of this grid.
+  	 */
+  	public void changeConcByMultiple(int trajectory, int auxIndex, double multiple, String polName) throws Exception{
   		if(this.taggedUniqueID() <= 0) return;
-  		for(int i = 0; i < points.size(); i++){
-  			if(((Point)points.get(i)).hasData() && ((Point)points.get(i)).sourceID() != null && ((Point)points.get(i)).thirdDim() != null){
-  				if((((Point)points.get(i)).sourceID() + this.lastComma(((Point)points.get(i)).thirdDim())).equalsIgnoreCase(auxUID)){
-  					double existingConc = ((Point)points.get(i)).getOriginalValue(auxIndex);
-  					//System.out.println(auxUID + "," + (((Point)points.get(i))).lat() + "," + ((((Point)points.get(i))).lon()-360) + "," + existingConc + "," + multiple); //VERBOSE TESTING 
-  					((Point)points.get(i)).setNewConc(auxIndex, multiple*existingConc);
-  					//((Point)points.get(i)).printInfo(); //VERBOSE TESTING
-  				}
+  		for(int i = 0; trajectory >= 0 && i < population(); i++){
+  			if(store.isTagged(i) && store.trajectory(i) == trajectory){
+  				if(auxIndex < 0 || auxIndex >= store.columns()) throw new Exception("The name specified was not found in this set of correlated data.");
+  				double existingConc = store.original(i, auxIndex);
+  				//System.out.println(auxUID + "," + store.lat(i) + "," + (store.lon(i)-360) + "," + existingConc + "," + multiple); //VERBOSE TESTING 
+  				store.setValue(i, auxIndex, multiple*existingConc);
   			}
   		}
+  		forgetMoments(auxIndex);
+  	}
+  	
+  	/**
+  	 *As <code>changeConcByMultiple</code> for every trajectory of this grid at once, in one pass over its points: the
+  	 *original concentration of each tagged point is multiplied by <code>cwt/averages[t]</code>, where <code>t</code> is the
+  	 *id of its trajectory. Trajectories whose average is not at least 0 (or NaN) are left unchanged.
+  	 *@param averages the average CWT of each trajectory, by its id in the dictionary of this grid
+  	 */
+  	void changeConcByAverages(int auxIndex, double cwt, double[] averages) throws Exception{
+  		if(this.taggedUniqueID() <= 0) return;
+  		for(int i = 0; i < population(); i++){
+  			int trajectory = store.trajectory(i);
+  			if(store.isTagged(i) && trajectory >= 0 && trajectory < averages.length && averages[trajectory] >= 0){
+  				if(auxIndex < 0 || auxIndex >= store.columns()) throw new Exception("The name specified was not found in this set of correlated data.");
+  				store.setValue(i, auxIndex, (cwt/averages[trajectory])*store.original(i, auxIndex));
+  			}
+  		}
+  		forgetMoments(auxIndex);
   	}
   	
   	/**
@@ -474,23 +800,34 @@
   	 *@param sourceID - the unique identifier that we look for
   	 */
   	public boolean containsID(String uniqueID){
+  		int trajectory = dictionary.findTrajectory(uniqueID);
+  		return trajectory >= 0 && dictionary.uniqueID(trajectory).equals(uniqueID) && containsTrajectory(trajectory);
+  	}
+  	
+  	/**
+  	 *Determines if a TAGGED point of a trajectory lies here
+  	 *@param trajectory the id of the trajectory in the dictionary of this grid
+  	 */
+  	public boolean containsTrajectory(int trajectory){
   		if(this.taggedUniqueID() <= 0) return false;
-  		Iterator itrUniqueID = this.ids.iterator();
-  		while(itrUniqueID.hasNext()){
-  			if(uniqueID.equals((String)itrUniqueID.next())){
-  				return true;
-  			}
-  		}
-  		return false;
+  		return Arrays.binarySearch(ids, 0, idCount, trajectory) >= 0;
   	}
   	
   	/**
   	 *
   	 */
   	public double getQTBA(String polName, double a, int polIndex, int worldRecCount, int maxRec) throws Exception{
+  		return getQTBA(column(polName), a, polIndex, worldRecCount, maxRec);
+  	}
+  	
+  	/**
+  	 *As <code>getQTBA(polName, ...)</code>, with the column of the pollutant already resolved.
+  	 */
+  	public double getQTBA(int column, double a, int polIndex, int worldRecCount, int maxRec) throws Exception{
   		//Receptor endpoints are NOT counted in the QTBA calculations!
   		
   		if(this.taggedUniqueID() <= 0) return -1;
+  		checkColumn(column);
   		
   		double gridQTBAs[] = new double[this.numReceptors()];
   		double gridNatTs[] = new double[this.numReceptors()];
@@ -498,33 +835,24 @@
   		double bareGridQTBA = 0; 
   		Statistics statPackage = new Statistics();
   		
-  		Iterator itrReceptors = this.receptors.iterator();
-  		
-  		//calculate the QTBAs FOR EACH receptor in this grid:
+  		//calculate the QTBAs FOR EACH receptor in this grid, from the points of its bucket:
 		for(int r = 0; r < gridQTBAs.length; r++){
 	  		concWeightedQTBA = 0;
 			bareGridQTBA = 0; 
-			String receptor = (String)itrReceptors.next();
+			int receptor = receptors[r];
 			
-	  		for(int i = 0; i < points.size(); i++){
-	  			if(((Point)points.get(i)).hasData() && ((Point)points.get(i)).sourceID() != null && ((Point)points.get(i)).thirdDim() != null){
-	  				Point auxP = (Point)points.get(i);
-	  				String[] auxThirdDim = auxP.thirdDim().split(","); 
+	  		for(int b = bucketStart[r]; b < bucketStart[r + 1]; b++){
+	  			int i = bucketSlots[b];
+	  			if(store.trajectory(i) >= 0){
+	  				double v = statPackage.haversineV(store.lat(i), store.lon(i)-360, dictionary.siteLatValue(receptor), dictionary.siteLonValue(receptor));
+	  				double T = store.hours(i);
+	  				if(Double.isNaN(T)) throw new NumberFormatException("No hours back for an endpoint of " + dictionary.uniqueID(store.trajectory(i)));
 	  				
-	  				if(auxThirdDim[1].equalsIgnoreCase(receptor.split(",")[0]) && auxThirdDim[2].equalsIgnoreCase(receptor.split(",")[1])){				
-		  				double v = statPackage.haversineV(auxP.lat(), auxP.lon()-360, Double.parseDouble(auxThirdDim[1]), Double.parseDouble(auxThirdDim[2]));
-		  				
-		  				if(Math.abs(v) >= 1E-9 && Math.abs(Double.parseDouble(auxThirdDim[3])) > 0.001){ //explicitly exclude receptor !
-		  					double natTxy = statPackage.naturalTransPot(Math.abs(Double.parseDouble(auxThirdDim[3])), v, a);
-		  					bareGridQTBA += natTxy;
-		  					concWeightedQTBA += (natTxy*auxP.getValue(polName));
-		  				}
+	  				if(Math.abs(v) >= 1E-9 && Math.abs(T) > 0.001){ //explicitly exclude receptor !
+	  					double natTxy = statPackage.naturalTransPot(Math.abs(T), v, a);
+	  					bareGridQTBA += natTxy;
+	  					concWeightedQTBA += (natTxy*store.value(i, column));
 	  				}
-	  				
-	  				//System.out.println(auxP.lat() + "," + (auxP.lon()-360) + "," + auxP.sourceID() + "," + auxP.getValue(polName));
-	  				
-	  				//System.out.println(auxP.lat() + "," + (auxP.lon()-360) + "," + statPackage.naturalTransPot(Math.abs(Double.parseDouble(auxThirdDim[3])), v, a)
-	  				//	+ "(T,v,a) = " + Double.parseDouble(auxThirdDim[3]) + "," + v + "," + a); //VERBOSE
 	  			}
 	  		}
 	  		
@@ -592,14 +920,6 @@
   		return this.lonXC;
   	}
   	 	
- 	private String lastComma(String aux){
- 		try{
- 			return aux.substring(0, aux.lastIndexOf(","));
- 		}catch(Exception e){
- 			return aux;
- 		}
- 	}
-  	
   	
   	
   	
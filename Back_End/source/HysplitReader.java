@@ -0,0 +1,109 @@
+/*HysplitReader.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+
+/**
+ *Reads HYSPLIT trajectory (tdump) files from a <code>LineScanner</code> and reports their starting points and endpoints as
+ *primitive values.
+ *<p> A tdump file is a sequence of blocks; a new block starts whenever the number of columns changes from one line to the next,
+ *and the file ends at EOF or at the first empty line. Block 4 holds one starting point (receptor site) per trajectory and block 6
+ *holds the endpoints. The numeric columns used by MetCor are parsed in place, so no String or String[] is built per endpoint;
+ *only the receptor coordinates and height of each starting point are kept as text, since they are matched as text against the
+ *correlated data input file.
+ */
+public class HysplitReader{
+
+	/**
+	 *Receives the contents of a tdump file in the order they are read.
+	 */
+	public interface Sink{
+		/**
+		 *A starting point of block 4. Trajectories are numbered from 1 in the order of their starting points.
+		 *@param year the two digit year of the start time, as written in the file
+		 *@param latR receptor latitude as written in the file
+		 *@param lonR receptor longitude as written in the file
+		 *@param height starting height as written in the file
+		 */
+		void startPoint(int trajectory, int year, int month, int day, int hour, String latR, String lonR, String height);
+
+		/**
+		 *An endpoint of block 6.
+		 *@param trajectory the trajectory number of this endpoint (column 1)
+		 *@param year the two digit year of this endpoint, as written in the file
+		 *@param height the height of this endpoint above ground level (column 12), or NaN if the column is absent
+		 */
+		void endpoint(int trajectory, int year, int month, int day, int hour, double lat, double lon, double height);
+
+		/**
+		 *A line of block 4 or block 6 with missing or malformed columns; the line is skipped.
+		 */
+		void malformed(int lineNumber);
+	}
+
+	/**
+	 *Runs the block state machine of a tdump file. Blocks are counted exactly as the original String based reader did:
+	 *a line of white space only counts as a single (empty) column.
+	 *@param in the tokenized file
+	 *@param sink receives every starting point and endpoint
+	 */
+	public static void read(LineScanner in, Sink sink){
+		int blockCount = 0;
+		int lastColumns = -1;
+		int trajectories = 0;
+
+		while(in.nextLine() && !in.isEmpty()){
+			int columns = Math.max(1, in.tokenCount());
+			if(columns != lastColumns){
+				blockCount++;
+				lastColumns = columns;
+			}
+
+			if(blockCount == 4){ //starting points
+				trajectories++;
+				int year = in.parseInt(0);
+				int month = in.parseInt(1);
+				int day = in.parseInt(2);
+				int hour = in.parseInt(3);
+				if(in.tokenCount() < 7 || year == LineScanner.BAD_INT || month == LineScanner.BAD_INT || day == LineScanner.BAD_INT || hour == LineScanner.BAD_INT){
+					sink.malformed(in.lineNumber());
+					sink.startPoint(trajectories, LineScanner.BAD_INT, 0, 0, 0, null, null, null); //keeps the numbering of later trajectories
+				}else{
+					sink.startPoint(trajectories, year, month, day, hour, in.token(4), in.token(5), in.token(6));
+				}
+			}else if(blockCount == 6){ //endpoints
+				int trajectory = in.parseInt(0);
+				int year = in.parseInt(2);
+				int month = in.parseInt(3);
+				int day = in.parseInt(4);
+				int hour = in.parseInt(5);
+				double lat = in.parseDouble(9);
+				double lon = in.parseDouble(10);
+				if(trajectory == LineScanner.BAD_INT || year == LineScanner.BAD_INT || month == LineScanner.BAD_INT || day == LineScanner.BAD_INT
+					|| hour == LineScanner.BAD_INT || Double.isNaN(lat) || Double.isNaN(lon)){
+					sink.malformed(in.lineNumber());
+				}else{
+					sink.endpoint(trajectory, year, month, day, hour, lat, lon, in.parseDouble(11));
+				}
+			}
+		}
+	}
+}
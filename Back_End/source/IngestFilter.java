@@ -0,0 +1,258 @@
+/*IngestFilter.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *Selects the back trajectory endpoints read by <code>CMCRender</code>. The filter is applied by the readers while the files are
+ *parsed, so rejected endpoints never become Points.
+ *<p> Every criterion is optional; a new filter accepts everything. The criteria are:
+ *<ul>
+ *<li> a latitude/longitude box, in degrees as written in the trajectory files (longitudes west of Greenwich are negative);
+ *<li> the maximum number of hours back from the start of the trajectory;
+ *<li> a range of endpoint heights, in metres above ground level (endpoints without a height are rejected);
+ *<li> a list of receptor sites: whole trajectories starting elsewhere are rejected;
+ *<li> a range of trajectory start dates: whole trajectories starting outside the range are rejected.
+ *</ul>
+ *HYSPLIT trajectories support all criteria. CMC trajectories carry neither receptor sites, hours back nor endpoint heights, so
+ *only the box and the start dates apply to them.
+ *<p> The filter counts the endpoints it rejects for each criterion; the counts are reset at the start of every read.
+ */
+public class IngestFilter{
+
+	/**
+	 *Rejection criteria, as indices of the skip counters.
+	 */
+	public static final int BOX = 0;
+	public static final int HOURS_BACK = 1;
+	public static final int HEIGHT = 2;
+	public static final int RECEPTOR = 3;
+	public static final int START_DATE = 4;
+
+	private static final String[] NAMES = {"outside box", "hours back", "height", "receptor", "start date"};
+
+	private boolean hasBox = false;
+	private double minLat, maxLat, minLon, maxLon;
+
+	private int maxHoursBack = Integer.MAX_VALUE;
+
+	private boolean hasHeight = false;
+	private double minHeight, maxHeight;
+
+	/**
+	 *Receptor latitudes and longitudes, in pairs; null if all receptors are accepted.
+	 */
+	private double[] receptors;
+
+	private int fromDate = Integer.MIN_VALUE;
+	private int toDate = Integer.MAX_VALUE;
+
+	private final AtomicLong[] skipped = new AtomicLong[NAMES.length];
+	private final AtomicLong skippedTrajectories = new AtomicLong();
+
+	/**
+	 *Creates a filter which accepts every endpoint.
+	 */
+	public IngestFilter(){
+		for(int i = 0; i < skipped.length; i++) skipped[i] = new AtomicLong();
+	}
+
+	//CRITERIA
+
+	/**
+	 *Accepts only endpoints with <code>minLat &lt;= lat &lt;= maxLat</code> and <code>minLon &lt;= lon &lt;= maxLon</code>.
+	 */
+	public void setBoundingBox(double minLat, double maxLat, double minLon, double maxLon){
+		this.hasBox = true;
+		this.minLat = minLat;
+		this.maxLat = maxLat;
+		this.minLon = minLon;
+		this.maxLon = maxLon;
+	}
+
+	/**
+	 *Accepts only endpoints at most <code>hours</code> hours back from the start of their trajectory.
+	 */
+	public void setMaxHoursBack(int hours){
+		this.maxHoursBack = hours;
+	}
+
+	/**
+	 *Accepts only endpoints with <code>minHeight &lt;= height &lt;= maxHeight</code> (metres above ground level).
+	 */
+	public void setHeightRange(double minHeight, double maxHeight){
+		this.hasHeight = true;
+		this.minHeight = minHeight;
+		this.maxHeight = maxHeight;
+	}
+
+	/**
+	 *Accepts only trajectories starting at one of the given receptor sites.
+	 *@param sites receptor sites in the format "latR,lonR", compared numerically with the starting points of the trajectories;
+	 *null accepts every receptor site.
+	 *@throws NumberFormatException if a site is not in that format.
+	 */
+	public void setReceptors(String[] sites){
+		if(sites == null){
+			this.receptors = null;
+			return;
+		}
+		double[] r = new double[2*sites.length];
+		for(int i = 0; i < sites.length; i++){
+			String[] latLon = sites[i].split(",");
+			if(latLon.length != 2) throw new NumberFormatException("Not a receptor site (latR,lonR): " + sites[i]);
+			r[2*i] = Double.parseDouble(latLon[0].trim());
+			r[2*i + 1] = Double.parseDouble(latLon[1].trim());
+		}
+		this.receptors = r;
+	}
+
+	/**
+	 *Accepts only trajectories starting between two dates, inclusive.
+	 *@param from the first start date, "yyyymmddtt"; null for no lower limit
+	 *@param to the last start date, "yyyymmddtt"; null for no upper limit
+	 */
+	public void setStartDateRange(String from, String to){
+		this.fromDate = (from == null) ? Integer.MIN_VALUE : EpochHours.parse(from);
+		this.toDate = (to == null) ? Integer.MAX_VALUE : EpochHours.parse(to);
+	}
+
+	/**
+	 *Returns a description of the criteria of this filter; filters with equal descriptions accept the same endpoints.
+	 */
+	public String describe(){
+		StringBuilder sb = new StringBuilder();
+		if(hasBox) sb.append(" box=" + minLat + ":" + maxLat + "," + minLon + ":" + maxLon);
+		if(maxHoursBack != Integer.MAX_VALUE) sb.append(" hours<=" + maxHoursBack);
+		if(hasHeight) sb.append(" height=" + minHeight + ":" + maxHeight);
+		if(receptors != null) sb.append(" receptors=" + Arrays.toString(receptors));
+		if(fromDate != Integer.MIN_VALUE || toDate != Integer.MAX_VALUE) sb.append(" start=" + ((fromDate == Integer.MIN_VALUE) ? "" : EpochHours.format(fromDate))
+			+ ":" + ((toDate == Integer.MAX_VALUE) ? "" : EpochHours.format(toDate)));
+		return sb.toString().trim();
+	}
+
+	//TESTS, called by the readers
+
+	/**
+	 *Tests the start date and receptor site of a trajectory. Rejected trajectories are counted; their endpoints must be
+	 *counted with <code>skipEndpoint</code>.
+	 *@param startDate the start date of the trajectory in epoch hours
+	 *@param latR receptor latitude as written in the trajectory file, or null if the format has no receptor sites (CMC)
+	 *@param lonR receptor longitude as written in the trajectory file, or null
+	 *@return the criterion rejecting the trajectory (<code>START_DATE</code> or <code>RECEPTOR</code>), or -1 if it is accepted.
+	 */
+	int rejectsTrajectory(int startDate, String latR, String lonR){
+		int reason = -1;
+		if(startDate < fromDate || startDate > toDate){
+			reason = START_DATE;
+		}else if(receptors != null && latR != null){
+			reason = RECEPTOR;
+			try{
+				double lat = Double.parseDouble(latR);
+				double lon = Double.parseDouble(lonR);
+				for(int i = 0; i < receptors.length; i += 2){
+					if(receptors[i] == lat && receptors[i + 1] == lon) reason = -1;
+				}
+			}catch(NumberFormatException e){
+				//not a receptor of the list
+			}
+		}
+		if(reason >= 0) skippedTrajectories.incrementAndGet();
+		return reason;
+	}
+
+	/**
+	 *Counts an endpoint of a trajectory rejected by <code>rejectsTrajectory</code>.
+	 */
+	void skipEndpoint(int criterion){
+		skipped[criterion].incrementAndGet();
+	}
+
+	/**
+	 *Returns true if an endpoint is accepted by this filter; rejected endpoints are counted.
+	 *@param lon longitude as written in the trajectory file
+	 *@param hoursBack hours back from the start of the trajectory, or a negative value if unknown (CMC trajectories)
+	 *@param height height above ground level, or NaN if unknown
+	 *@param hasHeight false if the trajectory format has no endpoint heights, in which case the height range does not apply
+	 */
+	boolean acceptsEndpoint(double lat, double lon, int hoursBack, double height, boolean hasHeight){
+		int reason = -1;
+		if(hasBox && !(lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon)){
+			reason = BOX;
+		}else if(hoursBack > maxHoursBack){
+			reason = HOURS_BACK;
+		}else if(this.hasHeight && hasHeight && !(height >= minHeight && height <= maxHeight)){
+			reason = HEIGHT;
+		}
+		if(reason < 0) return true;
+		skipped[reason].incrementAndGet();
+		return false;
+	}
+
+	//COUNTS
+
+	/**
+	 *Resets the skip counters; called by <code>CMCRender</code> at the start of every read.
+	 */
+	void resetCounts(){
+		for(int i = 0; i < skipped.length; i++) skipped[i].set(0);
+		skippedTrajectories.set(0);
+	}
+
+	/**
+	 *Returns the number of endpoints rejected for a criterion (<code>BOX, HOURS_BACK, HEIGHT, RECEPTOR</code> or <code>START_DATE</code>)
+	 *during the last read.
+	 */
+	public long getSkipped(int criterion){
+		return skipped[criterion].get();
+	}
+
+	/**
+	 *Returns the total number of endpoints rejected during the last read.
+	 */
+	public long getSkipped(){
+		long total = 0;
+		for(int i = 0; i < skipped.length; i++) total += skipped[i].get();
+		return total;
+	}
+
+	/**
+	 *Returns the number of whole trajectories rejected for their receptor site or start date during the last read.
+	 */
+	public long getSkippedTrajectories(){
+		return skippedTrajectories.get();
+	}
+
+	/**
+	 *Summarizes the skip counters of the last read.
+	 */
+	public String toString(){
+		StringBuilder sb = new StringBuilder("FILTER skipped " + getSkipped() + " endpoints (");
+		for(int i = 0; i < skipped.length; i++){
+			if(i > 0) sb.append(", ");
+			sb.append(NAMES[i] + ": " + skipped[i].get());
+		}
+		sb.append("), " + skippedTrajectories.get() + " trajectories");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,150 @@
+/*IngestStats.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.text.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ *Throughput counters of the stages of a back trajectory read (see <code>CMCRender.readHSEP</code> and <code>CMCRender.readEP</code>).
+ *<p> Every stage counts the files and endpoints it has handled and the time its threads spent working on them. A stage whose
+ *busy time is close to the elapsed time of the whole read is the bottleneck; the time the insertion stage spent waiting for
+ *the earlier stages is reported separately. Counters may be read while the ingest is running.
+ */
+public class IngestStats{
+
+	/**
+	 *The counters of a single stage; updated concurrently by the threads of the stage.
+	 */
+	public static class Stage{
+		private final String name;
+		private final AtomicLong files = new AtomicLong();
+		private final AtomicLong endpoints = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		Stage(String name){
+			this.name = name;
+		}
+
+		/**
+		 *Records a file handled by this stage.
+		 *@param endpoints the number of endpoints of the file, if known to this stage
+		 *@param bytes the number of bytes of the file, if known to this stage
+		 *@param startNanos the value of <code>System.nanoTime()</code> when the stage started working on the file
+		 */
+		void add(long endpoints, long bytes, long startNanos){
+			this.busyNanos.addAndGet(System.nanoTime() - startNanos);
+			this.files.incrementAndGet();
+			this.endpoints.addAndGet(endpoints);
+			this.bytes.addAndGet(bytes);
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public long getFiles(){
+			return files.get();
+		}
+
+		public long getEndpoints(){
+			return endpoints.get();
+		}
+
+		public long getBytes(){
+			return bytes.get();
+		}
+
+		/**
+		 *Returns the total time spent by the threads of this stage, in milliseconds.
+		 */
+		public double getBusyMillis(){
+			return busyNanos.get()/1e6;
+		}
+
+		public String toString(){
+			DecimalFormat f = new DecimalFormat("0.0");
+			double sec = busyNanos.get()/1e9;
+			StringBuilder sb = new StringBuilder(name + ": " + files.get() + " files");
+			if(bytes.get() > 0) sb.append(", " + f.format(bytes.get()/1048576.0) + " MB");
+			if(endpoints.get() > 0) sb.append(", " + endpoints.get() + " endpoints");
+			sb.append(", " + f.format(getBusyMillis()) + " ms busy");
+			if(sec > 0){
+				if(bytes.get() > 0) sb.append(", " + f.format(bytes.get()/1048576.0/sec) + " MB/s");
+				if(endpoints.get() > 0) sb.append(", " + (long)(endpoints.get()/sec) + " endpoints/s");
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 *Reading (and decompressing) the trajectory files, or loading them from the trajectory cache.
+	 */
+	public final Stage read = new Stage("read");
+
+	/**
+	 *Parsing the text of the trajectory files into endpoints.
+	 */
+	public final Stage parse = new Stage("parse");
+
+	/**
+	 *Locating the grid cell, identifier and receptor site of every endpoint.
+	 */
+	public final Stage bin = new Stage("bin");
+
+	/**
+	 *Adding the endpoints to the World, in file order.
+	 */
+	public final Stage insert = new Stage("insert");
+
+	private final AtomicLong insertWaitNanos = new AtomicLong();
+	private final long startNanos = System.nanoTime();
+	private volatile long endNanos = -1;
+
+	void waited(long startNanos){
+		insertWaitNanos.addAndGet(System.nanoTime() - startNanos);
+	}
+
+	void finish(){
+		endNanos = System.nanoTime();
+	}
+
+	/**
+	 *Returns the time the insertion stage spent waiting for files from the earlier stages, in milliseconds.
+	 */
+	public double getInsertWaitMillis(){
+		return insertWaitNanos.get()/1e6;
+	}
+
+	/**
+	 *Returns the elapsed time of the read, in milliseconds (so far, if it is still running).
+	 */
+	public double getElapsedMillis(){
+		return (((endNanos < 0) ? System.nanoTime() : endNanos) - startNanos)/1e6;
+	}
+
+	public String toString(){
+		DecimalFormat f = new DecimalFormat("0.0");
+		return "INGEST " + f.format(getElapsedMillis()) + " ms | " + read + " | " + parse + " | " + bin + " | " + insert
+			+ ", waited " + f.format(getInsertWaitMillis()) + " ms";
+	}
+}
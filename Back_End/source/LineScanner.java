@@ -0,0 +1,282 @@
+/*LineScanner.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ *A whitespace tokenizer which reads the raw bytes of a text file line by line without building Strings.
+ *<p> Tokens are separated by spaces or tabs (the same separators as <code>CMCRender.delimitLine</code>) and leading/trailing
+ *white space is ignored, as with <code>String.trim()</code>. Lines may end with "\n", "\r" or "\r\n". After a call to
+ *<code>nextLine()</code> the tokens of the current line are addressed by their index and parsed in place; malformed numbers are
+ *reported with sentinel values rather than exceptions.
+ */
+public class LineScanner{
+
+	/**
+	 *Returned by <code>parseInt</code> if a token is not an integer.
+	 */
+	public static final int BAD_INT = Integer.MIN_VALUE;
+
+	/**
+	 *Exact powers of ten used to convert decimal tokens of up to 15 significant digits without rounding error.
+	 */
+	private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	/**
+	 *The bytes being scanned.
+	 */
+	private final ByteBuffer buf;
+
+	/**
+	 *The position of the next unread byte.
+	 */
+	private int pos;
+
+	/**
+	 *The start (inclusive) and end (exclusive) offsets of every token on the current line.
+	 */
+	private int[] tokStart = new int[32];
+	private int[] tokEnd = new int[32];
+
+	/**
+	 *The number of tokens on the current line.
+	 */
+	private int tokens;
+
+	/**
+	 *True if the current line contains no characters at all (as opposed to white space only).
+	 */
+	private boolean empty;
+
+	/**
+	 *The 1-based number of the current line.
+	 */
+	private int lineNumber;
+
+	/**
+	 *Creates a scanner over the remaining bytes of a buffer.
+	 *@param data the bytes to tokenize; heap, direct and memory mapped buffers are all supported.
+	 */
+	public LineScanner(ByteBuffer data){
+		this.buf = data.slice();
+		this.pos = 0;
+	}
+
+	/**
+	 *Creates a scanner over the first <code>length</code> bytes of an array.
+	 */
+	public LineScanner(byte[] data, int length){
+		this(ByteBuffer.wrap(data, 0, length));
+	}
+
+	/**
+	 *Creates a scanner over a memory mapped, read-only view of a file. The file is loaded into memory by this call, so that the
+	 *disk (or network) is not accessed while the file is being scanned.
+	 *@param input the file to read; files larger than 2GB are not supported.
+	 */
+	public static LineScanner open(File input) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(input, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapped.load();
+			return new LineScanner(mapped);
+		}finally{
+			raf.close(); //the mapping stays valid after the channel is closed
+		}
+	}
+
+	/**
+	 *Returns the number of bytes being scanned.
+	 */
+	public int size(){
+		return buf.limit();
+	}
+
+	/**
+	 *Returns a copy of the bytes being scanned.
+	 */
+	byte[] toByteArray(){
+		byte[] copy = new byte[buf.limit()];
+		ByteBuffer view = buf.duplicate();
+		view.position(0);
+		view.get(copy);
+		return copy;
+	}
+
+	/**
+	 *Advances to the next line and splits it into tokens.
+	 *@return false if the end of the data was reached; true otherwise.
+	 */
+	public boolean nextLine(){
+		int limit = buf.limit();
+		if(pos >= limit) return false;
+
+		tokens = 0;
+		empty = true;
+		lineNumber++;
+		boolean inToken = false;
+		while(pos < limit){
+			byte c = buf.get(pos);
+			if(c == '\n' || c == '\r') break;
+			empty = false;
+			if(c == ' ' || c == '\t' || (c >= 0 && c < ' ')){
+				if(inToken){
+					tokEnd[tokens++] = pos;
+					inToken = false;
+				}
+			}else if(!inToken){
+				if(tokens == tokStart.length) grow();
+				tokStart[tokens] = pos;
+				inToken = true;
+			}
+			pos++;
+		}
+		if(inToken) tokEnd[tokens++] = pos;
+
+		//consume the line terminator
+		if(pos < limit){
+			byte c = buf.get(pos++);
+			if(c == '\r' && pos < limit && buf.get(pos) == '\n') pos++;
+		}
+		return true;
+	}
+
+	private void grow(){
+		int[] s = new int[tokStart.length*2];
+		int[] e = new int[tokEnd.length*2];
+		System.arraycopy(tokStart, 0, s, 0, tokStart.length);
+		System.arraycopy(tokEnd, 0, e, 0, tokEnd.length);
+		tokStart = s;
+		tokEnd = e;
+	}
+
+	/**
+	 *Returns the number of tokens on the current line.
+	 */
+	public int tokenCount(){
+		return tokens;
+	}
+
+	/**
+	 *Returns true if the current line has no characters at all, which is how <code>BufferedReader.readLine()</code> reports
+	 *an empty line (""). A line of white space only is not empty.
+	 */
+	public boolean isEmpty(){
+		return empty;
+	}
+
+	/**
+	 *Returns the 1-based number of the current line.
+	 */
+	public int lineNumber(){
+		return lineNumber;
+	}
+
+	/**
+	 *Returns a token as a String. Intended for the few tokens that must be kept as text.
+	 */
+	public String token(int t){
+		int len = tokEnd[t] - tokStart[t];
+		byte[] b = new byte[len];
+		for(int i = 0; i < len; i++) b[i] = buf.get(tokStart[t] + i);
+		try{
+			return new String(b, "ISO-8859-1");
+		}catch(UnsupportedEncodingException e){
+			return new String(b);
+		}
+	}
+
+	/**
+	 *Parses a token as a decimal integer with an optional sign.
+	 *@return the value, or <code>BAD_INT</code> if the token is not an integer (or <code>t</code> is not a token of this line).
+	 */
+	public int parseInt(int t){
+		if(t < 0 || t >= tokens) return BAD_INT;
+		int p = tokStart[t];
+		int e = tokEnd[t];
+		boolean neg = false;
+		byte c = buf.get(p);
+		if(c == '-' || c == '+'){
+			neg = (c == '-');
+			p++;
+		}
+		if(p >= e || e - p > 9) return BAD_INT;
+		int v = 0;
+		for(; p < e; p++){
+			c = buf.get(p);
+			if(c < '0' || c > '9') return BAD_INT;
+			v = v*10 + (c - '0');
+		}
+		return neg ? -v : v;
+	}
+
+	/**
+	 *Parses a token as a floating point number. Plain decimals (an optional sign, digits and an optional fraction) of up to
+	 *15 significant digits are converted in place and give exactly the same value as <code>Double.parseDouble</code>; any
+	 *other notation falls back to <code>Double.parseDouble</code>.
+	 *@return the value, or <code>Double.NaN</code> if the token is not a number (or <code>t</code> is not a token of this line).
+	 */
+	public double parseDouble(int t){
+		if(t < 0 || t >= tokens) return Double.NaN;
+		int p = tokStart[t];
+		int e = tokEnd[t];
+		boolean neg = false;
+		byte c = buf.get(p);
+		if(c == '-' || c == '+'){
+			neg = (c == '-');
+			p++;
+		}
+		long mant = 0;
+		int digits = 0;
+		int frac = -1;
+		boolean plain = p < e;
+		boolean sawDigit = false;
+		for(; p < e && plain; p++){
+			c = buf.get(p);
+			if(c >= '0' && c <= '9'){
+				mant = mant*10 + (c - '0');
+				sawDigit = true;
+				if(mant != 0 || frac >= 0) digits++;
+				if(frac >= 0) frac++;
+			}else if(c == '.' && frac < 0){
+				frac = 0;
+			}else{
+				plain = false;
+			}
+		}
+		if(plain && sawDigit && digits <= 15){
+			//mant and 10^frac are both exact doubles, so a single division is correctly rounded
+			double v = (frac > 0) ? mant/POW10[frac] : mant;
+			return neg ? -v : v;
+		}
+
+		try{
+			return Double.parseDouble(token(t));
+		}catch(NumberFormatException nfe){
+			return Double.NaN;
+		}
+	}
+}
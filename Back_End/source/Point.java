@@ -69,18 +69,10 @@ import java.text.*;
  	 */
  	private double originalConc[];
  	
- 	private boolean firstTime = true;
  	
- 	/**
- 	 *length mismatch exception: The size of the input data is either inadmissable or does not match the required size.
- 	 */
- 	private Exception lengthMismatchException = new Exception("The size of the input data is either inadmissable or does not match the required size.");
- 	
- 	/**
- 	 *notFound exception: The name specified was not found in this set of correlated data.
- 	 */
- 	 private Exception notFoundException = new Exception("The name specified was not found in this set of correlated data.");
+ 	private static final String LENGTH_MISMATCH = "The size of the input data is either inadmissable or does not match the required size.";
  	
+ 	private static final String NOT_FOUND = "The name specified was not found in this set of correlated data.";
  	
  	/**	
  	 *Create an instance of a Point with only latitude and longitude.
@@ -154,12 +146,12 @@ import java.text.*;
  	  		if(name.equals(values[i].name)) return values[i].value;
  	  		i++;
  	  	}
- 	  	throw notFoundException;
+ 	  	throw new Exception(NOT_FOUND);
  	  }
  	  
  	  public double getOriginalValue(int index) throws Exception{
  	  	if(this.originalConc == null || index < 0 || index >= this.originalConc.length){
- 	  		throw notFoundException;
+ 	  		throw new Exception(NOT_FOUND);
  	  	}
  	  	return this.originalConc[index];
  	  }
@@ -167,25 +159,24 @@ import java.text.*;
  	  /**
  	   *adds an initial set of correlated data to this point. If there was correlated data before,
  	   *it is overwritten. Implementation Note: auxPair is copied into the point, there is no reference to it.
- 	   *@exception this.lengthMismatchException Thrown if <code>auxPair</code> is empty or null
+ 	   *@exception Exception Thrown if <code>auxPair</code> is empty or null
  	   */
  	  public void addData(Pair[] auxPair) throws Exception{
  	  	//System.out.println("ADDED DATA TO POINT: " + this.lat() + "," + this.lon() +
  	  	//"ID = " + this.sourceID() + "," + this.thirdDim() + ", conc = " + auxPair[0].value); //VERBOSE TESTING
  	  	if(auxPair == null || auxPair.length <= 0){
- 	  		throw this.lengthMismatchException;
+ 	  		throw new Exception(LENGTH_MISMATCH);
  	  	}else{
+ 	  		boolean firstTime = (this.originalConc == null);
  	  		this.values = new Pair[auxPair.length];
- 	  		if(this.firstTime){
+ 	  		if(firstTime){
  	  			this.originalConc = new double[auxPair.length];
  	  		}
  	  		for(int i = 0; i < values.length; i++){
  	  			values[i] = new Pair(auxPair[i].name, auxPair[i].value);
- 	  			if(this.firstTime) originalConc[i] = auxPair[i].value;
+ 	  			if(firstTime) originalConc[i] = auxPair[i].value;
  	  			values[i].threshold = auxPair[i].threshold;
  	  		}
- 	  		
- 	  		firstTime = false;
  	  	}
  	  }
  	  
@@ -213,6 +204,29 @@ import java.text.*;
  	  public boolean hasData(){
  	  	return (values != null);
  	  }
+	  
+ 	  /**
+ 	   *Returns the correlated data of this point, or null if it has none; not a copy.
+ 	   */
+ 	  Pair[] data(){
+ 	  	return this.values;
+ 	  }
+ 	  
+ 	  /**
+ 	   *Returns the correlated data of this point as it was first added, or null if it is the same as <code>data()</code>
+ 	   *(or if their sizes differ).
+ 	   */
+ 	  Pair[] originalData(){
+ 	  	if(values == null || originalConc == null || originalConc.length != values.length) return null;
+ 	  	boolean changed = false;
+ 	  	Pair[] auxPair = new Pair[values.length];
+ 	  	for(int i = 0; i < values.length; i++){
+ 	  		auxPair[i] = new Pair(values[i].name, originalConc[i]);
+ 	  		auxPair[i].threshold = values[i].threshold;
+ 	  		changed |= (Double.doubleToLongBits(originalConc[i]) != Double.doubleToLongBits(values[i].value));
+ 	  	}
+ 	  	return changed ? auxPair : null;
+ 	  }
  	  
  	  public void printInfo(){
  	  	System.out.println("<--POINT: " + this.lonX + " , " + this.latY + ".-->");
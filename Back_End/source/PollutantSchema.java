@@ -0,0 +1,101 @@
+/*PollutantSchema.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *The names of the correlated variables (pollutants, factor contributions) of a set of correlated data, in column order.
+ *<p> The schema of a correlated data input file is fixed when it is read (see <code>CMCRender.readConc</code>) and shared by
+ *every vector of correlated data tagged from it, so that a variable is found by a single lookup of its name instead of a
+ *search of the names of every endpoint. Names are case specific, as in <code>Point.getValue</code>.
+ *<p> A schema is immutable and may be read by several threads at once.
+ */
+public class PollutantSchema{
+
+	/**
+	 *Returned by <code>column</code> for a name which is not in the schema.
+	 */
+	public static final int NO_COLUMN = -1;
+
+	private final String[] names;
+	private final HashMap<String, Integer> columns;
+
+	/**
+	 *Creates the schema of the correlated variables <code>names</code>, in this order.
+	 */
+	public PollutantSchema(String[] names){
+		this.names = names.clone();
+		this.columns = new HashMap<String, Integer>(2*names.length);
+		for(int k = names.length - 1; k >= 0; k--){
+			columns.put(names[k], k); //the first of duplicate names wins, as in a search of the names
+		}
+	}
+
+	/**
+	 *Returns the schema of the names of <code>data</code>.
+	 */
+	public static PollutantSchema of(Pair[] data){
+		String[] names = new String[data.length];
+		for(int k = 0; k < data.length; k++) names[k] = data[k].name;
+		return new PollutantSchema(names);
+	}
+
+	/**
+	 *Returns the column of a correlated variable, or <code>NO_COLUMN</code> if it is not in this schema.
+	 */
+	public int column(String name){
+		Integer k = columns.get(name);
+		return (k == null) ? NO_COLUMN : k;
+	}
+
+	/**
+	 *Returns the columns of several correlated variables, <code>NO_COLUMN</code> for those not in this schema.
+	 */
+	public int[] columns(String[] names){
+		int[] auxColumns = new int[names.length];
+		for(int i = 0; i < names.length; i++) auxColumns[i] = column(names[i]);
+		return auxColumns;
+	}
+
+	public String name(int column){
+		return names[column];
+	}
+
+	/**
+	 *Returns the number of correlated variables.
+	 */
+	public int size(){
+		return names.length;
+	}
+
+	/**
+	 *Returns true if the names of <code>data</code> are those of this schema, in the same order.
+	 */
+	public boolean matches(Pair[] data){
+		if(data.length != names.length) return false;
+		for(int k = 0; k < data.length; k++){
+			String name = names[k];
+			if(name == null ? data[k].name != null : !name.equals(data[k].name)) return false;
+		}
+		return true;
+	}
+}
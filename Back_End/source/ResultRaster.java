@@ -0,0 +1,169 @@
+/*ResultRaster.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *One of the results of a World (PSCF, CWT, RTWC or QTBA) for every populated grid cell and every correlated variable.
+ *<p> The values of each correlated variable (a layer) are held in one contiguous array indexed by the ordinal of the cell
+ *(see <code>CellMap</code>), and a bitmap records which cells have a result; a cell without one is written as no-data. A
+ *bitmap is used rather than NaN because a log-CWT may itself be NaN or infinite.
+ *<p> The arrays only grow, so that recalculating a result or copying one result to another (see <code>copyFrom</code>)
+ *allocates nothing once the raster has reached the size of the World.
+ *<p> Not thread safe, except as each method states: once every cell has its result (see <code>allocate</code> and
+ *<code>allocateFrom</code>), different cells (<code>setValues</code>) or different layers (<code>set</code>,
+ *<code>copyLayer</code>, <code>swapLayer</code>) may be written by several threads at once, as long as each cell or layer is
+ *written by one thread and no cell is allocated meanwhile.
+ */
+public class ResultRaster{
+
+	private double[][] layers = new double[0][];
+	private long[] present = new long[0];
+	private int capacity = 0;
+
+	/**
+	 *Returns the number of correlated variables of this raster.
+	 */
+	public int layers(){
+		return layers.length;
+	}
+
+	/**
+	 *Sets the number of correlated variables of this raster. The values of the layers kept are unchanged; new layers are 0.
+	 */
+	public void setLayers(int count){
+		if(count == layers.length) return;
+		double[][] auxLayers = Arrays.copyOf(layers, count);
+		for(int k = layers.length; k < count; k++) auxLayers[k] = new double[capacity];
+		layers = auxLayers;
+	}
+
+	/**
+	 *Returns true if the cell of ordinal <code>cell</code> has a result.
+	 */
+	public boolean has(int cell){
+		return cell < capacity && (present[cell >> 6] & (1L << cell)) != 0;
+	}
+
+	public double get(int cell, int layer){
+		return layers[layer][cell];
+	}
+
+	/**
+	 *Sets a value of a cell which has a result (see <code>allocate</code>).
+	 */
+	public void set(int cell, int layer, double value){
+		layers[layer][cell] = value;
+	}
+
+	/**
+	 *Gives a cell a result of 0 for every correlated variable.
+	 */
+	public void allocate(int cell){
+		if(cell >= capacity) grow(Math.max(cell + 1, Math.max(16, 2*capacity)));
+		present[cell >> 6] |= 1L << cell;
+		for(int k = 0; k < layers.length; k++) layers[k][cell] = 0;
+	}
+
+	/**
+	 *Gives a cell the result <code>values</code>; values beyond the number of layers are ignored.
+	 */
+	public void setRow(int cell, double[] values){
+		allocate(cell);
+		setValues(cell, values);
+	}
+
+	/**
+	 *Sets the values of a cell which has a result; values beyond the number of layers are ignored. Cells may be set by
+	 *several threads at once, as long as each cell is set by one.
+	 */
+	public void setValues(int cell, double[] values){
+		int count = Math.min(values.length, layers.length);
+		for(int k = 0; k < count; k++) layers[k][cell] = values[k];
+	}
+
+	/**
+	 *Makes this raster a copy of <code>source</code>: the same layers, cells, values and size.
+	 */
+	public void copyFrom(ResultRaster source){
+		if(capacity < source.capacity) grow(source.capacity);
+		capacity = source.capacity; //the arrays are kept, even if larger
+		setLayers(source.layers.length);
+		for(int k = 0; k < layers.length; k++){
+			System.arraycopy(source.layers[k], 0, layers[k], 0, source.capacity);
+		}
+		int words = (source.capacity + 63) >> 6;
+		System.arraycopy(source.present, 0, present, 0, words);
+		Arrays.fill(present, words, present.length, 0L);
+	}
+
+	/**
+	 *Copies the values of one correlated variable of every cell with a result in <code>source</code>, giving the cells
+	 *which have none here a result of 0 for the other variables first. Once they all have one (see <code>allocateFrom</code>),
+	 *layers may be copied by several threads at once, each layer by one.
+	 */
+	public void copyLayer(ResultRaster source, int layer){
+		for(int w = 0; w < source.present.length; w++){
+			long bits = source.present[w];
+			while(bits != 0){
+				int cell = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if(!has(cell)) allocate(cell);
+				layers[layer][cell] = source.layers[layer][cell];
+			}
+		}
+	}
+
+	/**
+	 *Gives every cell with a result in <code>source</code> and none here a result of 0.
+	 */
+	public void allocateFrom(ResultRaster source){
+		for(int w = 0; w < source.present.length; w++){
+			long bits = source.present[w];
+			while(bits != 0){
+				int cell = (w << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if(!has(cell)) allocate(cell);
+			}
+		}
+	}
+
+	/**
+	 *Exchanges the values of one correlated variable with those of <code>other</code>, without copying them; the cells with a
+	 *result are not exchanged. Both rasters must have the same cells and size, as after <code>copyFrom</code>. Layers may be
+	 *exchanged by several threads at once, each layer by one.
+	 */
+	public void swapLayer(ResultRaster other, int layer){
+		if(capacity != other.capacity) throw new IllegalArgumentException("The rasters differ in size: " + capacity + ", " + other.capacity);
+		double[] auxLayer = layers[layer];
+		layers[layer] = other.layers[layer];
+		other.layers[layer] = auxLayer;
+	}
+
+	private void grow(int cells){
+		for(int k = 0; k < layers.length; k++){
+			if(layers[k].length < cells) layers[k] = Arrays.copyOf(layers[k], cells);
+		}
+		if(present.length < ((cells + 63) >> 6)) present = Arrays.copyOf(present, (cells + 63) >> 6);
+		capacity = cells;
+	}
+}
@@ -0,0 +1,230 @@
+/*TrajectoryCache.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ *A persistent cache of parsed back trajectory files.
+ *<p> The endpoints parsed from each input file are stored in a binary sidecar file in the cache directory. Every sidecar
+ *records the size, modification time and MD5 digest of the file it was parsed from, as well as a description of how it was
+ *parsed (the reader and its parameters); it is used only if all of these still match, otherwise the file must be parsed again.
+ *<p> Sidecar layout (big-endian): magic, version, format (UTF), size, mtime, digest (16 bytes), error count, the sourceID and
+ *thirdDim of every trajectory and its receptor site, if it has one (see <code>EndpointBatch</code>), then for every endpoint
+ *its longitude, latitude, hours back and trajectory index.
+ */
+public class TrajectoryCache{
+
+	private static final int MAGIC = 0x4D544331; //"MTC1"
+	private static final int VERSION = 3;
+
+	/**
+	 *The directory holding the sidecar files.
+	 */
+	private File dir;
+
+	/**
+	 *Creates a cache in <code>cacheDir</code>; the directory is created if it does not exist.
+	 */
+	public TrajectoryCache(File cacheDir) throws IOException{
+		this.dir = cacheDir;
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Could not create trajectory cache directory " + dir);
+		}
+	}
+
+	/**
+	 *Returns the sidecar file of an input file. The name includes a hash of the input path so that files of the same name in
+	 *different trajectory directories do not evict each other.
+	 */
+	private File sidecar(File input){
+		return new File(dir, input.getName() + "." + Integer.toHexString(input.getAbsolutePath().hashCode()) + ".mtc");
+	}
+
+	/**
+	 *Loads the endpoints of an input file.
+	 *@param format describes the reader and the parameters the file was parsed with, for example "HYSPLIT 2000 America/Toronto".
+	 *@return the cached endpoints, or null if the file has no valid sidecar (never cached, changed, or parsed differently).
+	 */
+	public EndpointBatch load(File input, String format){
+		File cached = sidecar(input);
+		if(!cached.isFile()) return null;
+		DataInputStream in = null;
+		try{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached), 1 << 16));
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+			if(!in.readUTF().equals(format)) return null;
+			if(in.readLong() != input.length() || in.readLong() != input.lastModified()) return null;
+			byte[] digest = new byte[16];
+			in.readFully(digest);
+			if(!Arrays.equals(digest, digest(input))) return null;
+
+			int errors = in.readInt();
+			int trajectories = in.readInt();
+			String[] sourceIDs = new String[trajectories];
+			String[] thirdDims = new String[trajectories];
+			String[] receptors = new String[trajectories];
+			for(int t = 0; t < trajectories; t++){
+				sourceIDs[t] = in.readUTF();
+				thirdDims[t] = in.readUTF();
+				receptors[t] = in.readBoolean() ? in.readUTF() : null;
+			}
+
+			int count = in.readInt();
+			EndpointBatch batch = new EndpointBatch(count);
+			batch.errors = errors;
+			for(int t = 0; t < trajectories; t++) batch.addTrajectory(sourceIDs[t], thirdDims[t], receptors[t]);
+			for(int i = 0; i < count; i++){
+				double lonX = in.readDouble();
+				double latY = in.readDouble();
+				float hours = in.readFloat();
+				int trajectory = in.readInt();
+				if(trajectory < 0 || trajectory >= trajectories) return null;
+				batch.add(lonX, latY, hours, trajectory);
+			}
+			return batch;
+		}catch(Exception e){
+			return null; //truncated or corrupt sidecar; parse the file again
+		}finally{
+			close(in);
+		}
+	}
+
+	/**
+	 *Stores the endpoints of an input file, replacing any previous sidecar. The sidecar is written to a temporary file first
+	 *so that an interrupted run never leaves a partial sidecar behind.
+	 *@param format describes the reader and the parameters the file was parsed with; see <code>load</code>.
+	 */
+	public void store(File input, String format, EndpointBatch parsed) throws IOException{
+		long size = input.length();
+		long mtime = input.lastModified();
+		byte[] digest = digest(input);
+
+		File cached = sidecar(input);
+		File temp = new File(dir, cached.getName() + ".tmp" + Thread.currentThread().getId());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(format);
+			out.writeLong(size);
+			out.writeLong(mtime);
+			out.write(digest);
+			out.writeInt(parsed.errors);
+			out.writeInt(parsed.trajectories());
+			for(int t = 0; t < parsed.trajectories(); t++){
+				out.writeUTF(parsed.sourceID(t));
+				out.writeUTF(parsed.thirdDim(t));
+				out.writeBoolean(parsed.receptor(t) != null);
+				if(parsed.receptor(t) != null) out.writeUTF(parsed.receptor(t));
+			}
+			out.writeInt(parsed.size());
+			for(int i = 0; i < parsed.size(); i++){
+				out.writeDouble(parsed.lon(i));
+				out.writeDouble(parsed.lat(i));
+				out.writeFloat(parsed.hours(i));
+				out.writeInt(parsed.trajectory(i));
+			}
+		}catch(IOException e){
+			close(out);
+			temp.delete();
+			throw e;
+		}
+		out.close();
+		if(cached.exists()) cached.delete();
+		if(!temp.renameTo(cached)){
+			temp.delete();
+			throw new IOException("Could not write trajectory cache file " + cached);
+		}
+	}
+
+	/**
+	 *Returns the MD5 digest of the contents of a file.
+	 */
+	private static byte[] digest(File input) throws IOException{
+		MessageDigest md;
+		try{
+			md = MessageDigest.getInstance("MD5");
+		}catch(NoSuchAlgorithmException e){
+			throw new IOException("MD5 is not available: " + e.getMessage());
+		}
+		FileInputStream in = new FileInputStream(input);
+		try{
+			FileChannel channel = in.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+			while(channel.read(buf) > 0){
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		}finally{
+			in.close();
+		}
+		return md.digest();
+	}
+
+	private static void close(Closeable c){
+		if(c == null) return;
+		try{
+			c.close();
+		}catch(IOException e){
+			//nothing to do
+		}
+	}
+
+	/**
+	 *Cold versus warm ingest benchmark.
+	 *<p> Usage: TrajectoryCache &lt;HYSPLIT|CMC&gt; &lt;trajectory dir&gt; &lt;correlated data file&gt; &lt;output dir&gt; [runs]
+	 *<p> Reads the trajectory directory once without a cache, once with an empty cache (cold) and <code>runs</code> times
+	 *with the cache filled by the cold run (warm), and prints the time taken by each read.
+	 */
+	public static void main(String[] args) throws Exception{
+		if(args.length < 4){
+			System.out.println("Usage: TrajectoryCache <HYSPLIT|CMC> <trajectory dir> <correlated data file> <output dir> [runs]");
+			return;
+		}
+		boolean hysplit = args[0].equalsIgnoreCase("HYSPLIT");
+		int runs = (args.length > 4) ? Integer.parseInt(args[4]) : 3;
+		File cacheDir = new File(args[3], "CACHE_BENCHMARK");
+		if(cacheDir.isDirectory()){
+			File[] old = cacheDir.listFiles();
+			for(int i = 0; i < old.length; i++) old[i].delete();
+		}
+
+		for(int run = -1; run <= runs; run++){
+			CMCRender render = new CMCRender(360, 90, 1, 1, args[1], args[2], args[3]);
+			if(run >= 0) render.setTrajectoryCache(cacheDir.getPath());
+			long start = System.nanoTime();
+			if(hysplit){
+				render.readHSEP(2000, null);
+			}else{
+				render.readEP(9, false, null);
+			}
+			long elapsed = (System.nanoTime() - start)/1000000;
+			String label = (run < 0) ? "no cache" : (run == 0) ? "cold" : "warm " + run;
+			System.out.println("BENCHMARK " + label + ": " + elapsed + " ms");
+		}
+	}
+}
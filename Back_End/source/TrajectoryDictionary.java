@@ -0,0 +1,226 @@
+/*TrajectoryDictionary.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.util.*;
+
+/**
+ *Numbers the back trajectories and receptor sites of a World, so that the endpoints of an <code>EndpointStore</code> refer to
+ *them by integer ids instead of Strings.
+ *<p> A trajectory is identified by its unique identifier, the sourceID of its endpoints followed by their thirdDim without its
+ *last field (see <code>World.uniqueID</code>); a receptor site by "xR,yR" (see <code>World.receptorSite</code>). Both are
+ *compared ignoring case, as the grids compare them; the spelling first added is kept.
+ *<p> The identity of a trajectory is parsed once, when it is added: its start hour, receptor site and starting height are
+ *kept by id, so that the endpoints themselves need only carry the id.
+ *<p> Ids are numbered from 0 in the order they are added. A dictionary is filled by the thread adding points to the World.
+ */
+public class TrajectoryDictionary{
+
+	/**
+	 *Start hour of a trajectory whose sourceID is not a date.
+	 */
+	public static final int NO_START = Integer.MIN_VALUE;
+
+	private HashMap<String, Integer> trajectoryIds = new HashMap<String, Integer>();
+	private ArrayList<String> uniqueIDs = new ArrayList<String>();
+	private ArrayList<String> sourceIDs = new ArrayList<String>();
+	private int[] startHours = new int[8];
+	private int[] trajectoryReceptors = new int[8];
+	private double[] heights = new double[8];
+
+	private HashMap<String, Integer> receptorIds = new HashMap<String, Integer>();
+	private ArrayList<String> sites = new ArrayList<String>();
+	private ArrayList<String> siteLats = new ArrayList<String>();
+	private ArrayList<String> siteLons = new ArrayList<String>();
+	private double[] siteLatValues = new double[8];
+	private double[] siteLonValues = new double[8];
+
+	/**
+	 *Returns the id of a trajectory, adding it if it is new.
+	 *@param uniqueID the unique identifier of the trajectory
+	 *@param sourceID the sourceID of its endpoints
+	 *@param receptor the id of its receptor site, or -1
+	 *@param height its starting height, or NaN
+	 */
+	public int trajectory(String uniqueID, String sourceID, int receptor, double height){
+		String key = uniqueID.toLowerCase(Locale.ROOT);
+		Integer id = trajectoryIds.get(key);
+		if(id == null){
+			id = uniqueIDs.size();
+			trajectoryIds.put(key, id);
+			uniqueIDs.add(uniqueID);
+			sourceIDs.add(sourceID);
+			if(id == startHours.length){
+				startHours = Arrays.copyOf(startHours, 2*id);
+				trajectoryReceptors = Arrays.copyOf(trajectoryReceptors, 2*id);
+				heights = Arrays.copyOf(heights, 2*id);
+			}
+			startHours[id] = startHour(sourceID);
+			trajectoryReceptors[id] = receptor;
+			heights[id] = height;
+		}
+		return id;
+	}
+
+	/**
+	 *Returns the id of a receptor site "xR,yR", adding it if it is new.
+	 */
+	public int receptor(String site){
+		String key = site.toLowerCase(Locale.ROOT);
+		Integer id = receptorIds.get(key);
+		if(id == null){
+			id = sites.size();
+			receptorIds.put(key, id);
+			int comma = site.indexOf(',');
+			String lat = (comma < 0) ? site : site.substring(0, comma);
+			String lon = (comma < 0) ? "" : site.substring(comma + 1);
+			sites.add(site);
+			siteLats.add(lat);
+			siteLons.add(lon);
+			if(id == siteLatValues.length){
+				siteLatValues = Arrays.copyOf(siteLatValues, 2*id);
+				siteLonValues = Arrays.copyOf(siteLonValues, 2*id);
+			}
+			siteLatValues[id] = parse(lat);
+			siteLonValues[id] = parse(lon);
+		}
+		return id;
+	}
+
+	/**
+	 *Returns the id of a trajectory, or -1 if it has not been added.
+	 */
+	public int findTrajectory(String uniqueID){
+		Integer id = trajectoryIds.get(uniqueID.toLowerCase(Locale.ROOT));
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 *Returns the id of a receptor site, or -1 if it has not been added.
+	 */
+	public int findReceptor(String site){
+		Integer id = receptorIds.get(site.toLowerCase(Locale.ROOT));
+		return (id == null) ? -1 : id;
+	}
+
+	public String uniqueID(int trajectory){
+		return uniqueIDs.get(trajectory);
+	}
+
+	public String sourceID(int trajectory){
+		return sourceIDs.get(trajectory);
+	}
+
+	/**
+	 *Returns the start of a trajectory in epoch hours (see <code>EpochHours</code>), or <code>NO_START</code> if its sourceID is
+	 *not a date "yyyymmddtt".
+	 */
+	public int startHour(int trajectory){
+		return startHours[trajectory];
+	}
+
+	/**
+	 *Returns the receptor site id of a trajectory, or -1 if it has none.
+	 */
+	public int receptorOf(int trajectory){
+		return trajectoryReceptors[trajectory];
+	}
+
+	/**
+	 *Returns the starting height of a trajectory, or NaN if it has none.
+	 */
+	public double height(int trajectory){
+		return heights[trajectory];
+	}
+
+	/**
+	 *Returns the receptor site "xR,yR" of a receptor id.
+	 */
+	public String site(int receptor){
+		return sites.get(receptor);
+	}
+
+	/**
+	 *Returns the receptor latitude as written in the trajectory files.
+	 */
+	public String siteLat(int receptor){
+		return siteLats.get(receptor);
+	}
+
+	/**
+	 *Returns the receptor longitude as written in the trajectory files.
+	 */
+	public String siteLon(int receptor){
+		return siteLons.get(receptor);
+	}
+
+	/**
+	 *Returns the receptor latitude in degrees.
+	 *@throws NumberFormatException if the latitude is not a number.
+	 */
+	public double siteLatValue(int receptor){
+		double v = siteLatValues[receptor];
+		if(Double.isNaN(v)) throw new NumberFormatException("Not a receptor latitude: " + siteLats.get(receptor));
+		return v;
+	}
+
+	/**
+	 *Returns the receptor longitude in degrees.
+	 *@throws NumberFormatException if the longitude is not a number.
+	 */
+	public double siteLonValue(int receptor){
+		double v = siteLonValues[receptor];
+		if(Double.isNaN(v)) throw new NumberFormatException("Not a receptor longitude: " + siteLons.get(receptor));
+		return v;
+	}
+
+	/**
+	 *Returns the number of trajectories added.
+	 */
+	public int trajectories(){
+		return uniqueIDs.size();
+	}
+
+	/**
+	 *Returns the number of receptor sites added.
+	 */
+	public int receptors(){
+		return sites.size();
+	}
+
+	private static int startHour(String sourceID){
+		if(sourceID == null) return NO_START;
+		try{
+			int hour = EpochHours.parse(sourceID);
+			return EpochHours.format(hour).equals(sourceID) ? hour : NO_START;
+		}catch(NumberFormatException e){
+			return NO_START;
+		}
+	}
+
+	private static double parse(String text){
+		try{
+			return Double.parseDouble(text);
+		}catch(NumberFormatException e){
+			return Double.NaN;
+		}
+	}
+}
@@ -0,0 +1,567 @@
+/*TrajectorySource.java
+ *Project DensityNorth
+ **/
+
+/*
+ * Copyright [2013] [Ankit Rastogi]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+
+package dnimp;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ *The back trajectory files read by <code>CMCRender</code>, enumerated one at a time.
+ *<p> A source is either a directory of trajectory files (any of which may be gzip compressed, with the extension ".gz"), a zip
+ *archive, or a gzip compressed tar archive (".tar.gz" or ".tgz"). Compressed files are decompressed into memory as they are
+ *read; nothing is extracted to disk.
+ *<p> The entries of a directory or a zip archive can be opened in any order and from any thread, so that they are
+ *decompressed in parallel by the threads parsing them. A tar archive can only be read sequentially; its entries are
+ *decompressed by <code>next()</code>, in order.
+ */
+public abstract class TrajectorySource{
+
+	/**
+	 *A single back trajectory file of a source.
+	 */
+	public static abstract class Entry{
+		private String name;
+
+		Entry(String name){
+			this.name = name;
+		}
+
+		/**
+		 *Returns the name of the trajectory file, without any directory or ".gz" extension.
+		 */
+		public String getName(){
+			return name;
+		}
+
+		/**
+		 *Returns the uncompressed file on disk holding this entry, or null if the entry is compressed or archived.
+		 */
+		public File getFile(){
+			return null;
+		}
+
+		/**
+		 *Returns a scanner over the (decompressed) contents of this entry. Entries of a directory or zip archive are read or
+		 *decompressed by this call; thread safe.
+		 */
+		public abstract LineScanner open() throws IOException;
+	}
+
+	/**
+	 *Returns the next entry of this source, or null if all entries have been returned.
+	 */
+	public abstract Entry next() throws IOException;
+
+	/**
+	 *Returns the number of entries of this source, or -1 if it is not known before the source has been read (tar archives).
+	 */
+	public abstract int size();
+
+	/**
+	 *Returns the fraction of this source read by <code>next()</code> so far, between 0 and 1.
+	 */
+	public abstract double progress();
+
+	/**
+	 *Releases the files held open by this source. Entries must not be opened after the source is closed.
+	 */
+	public void close() throws IOException{
+	}
+
+	/**
+	 *Returns true if <code>path</code> is a directory or an archive supported by <code>open</code>.
+	 */
+	public static boolean isSupported(File path){
+		if(path.isDirectory()) return true;
+		String name = path.getName().toLowerCase();
+		return path.isFile() && (name.endsWith(".zip") || name.endsWith(".tar.gz") || name.endsWith(".tgz"));
+	}
+
+	/**
+	 *Opens a directory, zip archive or gzip compressed tar archive of back trajectory files.
+	 *@throws IOException if <code>path</code> cannot be read or is not supported.
+	 */
+	public static TrajectorySource open(File path) throws IOException{
+		String name = path.getName().toLowerCase();
+		if(path.isDirectory()) return new DirectorySource(path);
+		if(!path.isFile()) throw new FileNotFoundException(path.toString());
+		if(name.endsWith(".zip")) return new ZipSource(path);
+		if(name.endsWith(".tar.gz") || name.endsWith(".tgz")) return new TarSource(path);
+		throw new IOException("Unsupported trajectory source (expected a directory, .zip, .tar.gz or .tgz): " + path);
+	}
+
+	/**
+	 *Reads a stream to its end into a scanner.
+	 *@param sizeHint the expected number of bytes, or a value less than 1 if unknown
+	 */
+	static LineScanner readFully(InputStream in, long sizeHint) throws IOException{
+		//one byte more than expected, so that the end of the stream is found without growing the buffer
+		byte[] buf = new byte[(int)Math.min(Math.max(sizeHint + 1, 8192), Integer.MAX_VALUE - 8)];
+		int length = 0;
+		try{
+			while(true){
+				if(length == buf.length){
+					if(length >= Integer.MAX_VALUE - 8) throw new IOException("Trajectory file larger than 2GB");
+					buf = Arrays.copyOf(buf, (int)Math.min(2L*length, Integer.MAX_VALUE - 8));
+				}
+				int r = in.read(buf, length, buf.length - length);
+				if(r < 0) break;
+				length += r;
+			}
+		}finally{
+			in.close();
+		}
+		return new LineScanner(buf, length);
+	}
+
+	/**
+	 *The files of a directory, in the order of <code>File.listFiles()</code>; subdirectories are ignored.
+	 */
+	private static class DirectorySource extends TrajectorySource{
+		private File[] files;
+		private int next = 0;
+
+		DirectorySource(File dir) throws IOException{
+			File[] all = dir.listFiles();
+			if(all == null) throw new IOException("The Input File Directory Could not be Read: " + dir);
+			ArrayList<File> list = new ArrayList<File>();
+			for(int i = 0; i < all.length; i++){
+				if(!all[i].isDirectory()) list.add(all[i]);
+			}
+			files = list.toArray(new File[list.size()]);
+		}
+
+		public Entry next(){
+			if(next >= files.length) return null;
+			final File file = files[next++];
+			String name = file.getName();
+			if(!name.toLowerCase().endsWith(".gz")){
+				return new Entry(name){
+					public File getFile(){
+						return file;
+					}
+					public LineScanner open() throws IOException{
+						return LineScanner.open(file.getAbsoluteFile());
+					}
+				};
+			}
+			return new Entry(name.substring(0, name.length() - 3)){
+				public LineScanner open() throws IOException{
+					return readFully(new GZIPInputStream(new FileInputStream(file), 1 << 16), 4*file.length());
+				}
+			};
+		}
+
+		public int size(){
+			return files.length;
+		}
+
+		public double progress(){
+			return (files.length == 0) ? 1 : ((double)next)/files.length;
+		}
+	}
+
+	/**
+	 *The file entries of a zip archive, in the order of the archive. <code>ZipFile</code> allows several entries to be
+	 *decompressed at the same time.
+	 */
+	private static class ZipSource extends TrajectorySource{
+		private ZipFile zip;
+		private ArrayList<ZipEntry> entries = new ArrayList<ZipEntry>();
+		private int next = 0;
+
+		ZipSource(File path) throws IOException{
+			zip = new ZipFile(path);
+			Enumeration<? extends ZipEntry> e = zip.entries();
+			while(e.hasMoreElements()){
+				ZipEntry entry = e.nextElement();
+				if(!entry.isDirectory()) entries.add(entry);
+			}
+		}
+
+		public Entry next(){
+			if(next >= entries.size()) return null;
+			final ZipEntry entry = entries.get(next++);
+			return new Entry(baseName(entry.getName())){
+				public LineScanner open() throws IOException{
+					return readFully(zip.getInputStream(entry), entry.getSize());
+				}
+			};
+		}
+
+		public int size(){
+			return entries.size();
+		}
+
+		public double progress(){
+			return entries.isEmpty() ? 1 : ((double)next)/entries.size();
+		}
+
+		public void close() throws IOException{
+			zip.close();
+		}
+	}
+
+	/**
+	 *The regular file entries of a gzip compressed tar archive (POSIX ustar, with GNU and pax long names).
+	 */
+	private static class TarSource extends TrajectorySource{
+		private static final int BLOCK = 512;
+
+		private long length;
+		private CountingInputStream counter;
+		private InputStream in;
+		private byte[] header = new byte[BLOCK];
+		private boolean done = false;
+
+		TarSource(File path) throws IOException{
+			length = path.length();
+			counter = new CountingInputStream(new FileInputStream(path));
+			in = new BufferedInputStream(new GZIPInputStream(counter, 1 << 16), 1 << 16);
+		}
+
+		public Entry next() throws IOException{
+			String longName = null;
+			while(!done){
+				if(!readBlock(header)){
+					done = true;
+					break;
+				}
+				if(isZero(header)){ //end of archive
+					done = true;
+					break;
+				}
+				long size = octal(header, 124, 12);
+				char type = (char)header[156];
+				String name = longName;
+				longName = null;
+				if(name == null){
+					name = string(header, 0, 100);
+					//only POSIX headers have a name prefix; GNU headers ("ustar  ") hold access and change times there
+					if(new String(header, 257, 6, "ISO-8859-1").equals("ustar\0")){
+						String prefix = string(header, 345, 155);
+						if(prefix.length() > 0) name = prefix + "/" + name;
+					}
+				}
+
+				if(type == 'L'){ //GNU long name of the next entry
+					longName = string(data(size), 0, (int)size);
+				}else if(type == 'x'){ //pax extended header of the next entry
+					longName = paxPath(data(size));
+				}else if(type == '0' || type == '\0' || type == '7'){ //regular file
+					final LineScanner scanner = new LineScanner(data(size), (int)size);
+					return new Entry(baseName(name)){
+						public LineScanner open(){
+							return scanner;
+						}
+					};
+				}else{
+					data(size); //directories, links, global headers...
+				}
+			}
+			return null;
+		}
+
+		public int size(){
+			return -1;
+		}
+
+		public double progress(){
+			return (length == 0 || done) ? 1 : Math.min(1, ((double)counter.count)/length);
+		}
+
+		public void close() throws IOException{
+			in.close();
+		}
+
+		/**
+		 *Reads the data of an entry and the padding of its last block.
+		 */
+		private byte[] data(long size) throws IOException{
+			if(size > Integer.MAX_VALUE - 8) throw new IOException("Trajectory file larger than 2GB");
+			byte[] data = new byte[(int)size];
+			readFully(data, data.length);
+			long padding = (BLOCK - size%BLOCK)%BLOCK;
+			while(padding > 0){
+				long s = in.skip(padding);
+				if(s <= 0) throw new EOFException("Truncated tar archive");
+				padding -= s;
+			}
+			return data;
+		}
+
+		private boolean readBlock(byte[] block) throws IOException{
+			int r = 0;
+			while(r < BLOCK){
+				int n = in.read(block, r, BLOCK - r);
+				if(n < 0){
+					if(r == 0) return false;
+					throw new EOFException("Truncated tar archive");
+				}
+				r += n;
+			}
+			return true;
+		}
+
+		private void readFully(byte[] b, int len) throws IOException{
+			int r = 0;
+			while(r < len){
+				int n = in.read(b, r, len - r);
+				if(n < 0) throw new EOFException("Truncated tar archive");
+				r += n;
+			}
+		}
+
+		private static boolean isZero(byte[] block){
+			for(int i = 0; i < block.length; i++){
+				if(block[i] != 0) return false;
+			}
+			return true;
+		}
+
+		private static long octal(byte[] b, int off, int len) throws IOException{
+			long v = 0;
+			for(int i = off; i < off + len; i++){
+				byte c = b[i];
+				if(c == 0 || c == ' '){
+					if(v == 0) continue; //leading padding
+					break;
+				}
+				if(c < '0' || c > '7') throw new IOException("Malformed tar header");
+				v = v*8 + (c - '0');
+			}
+			return v;
+		}
+
+		private static String string(byte[] b, int off, int len) throws UnsupportedEncodingException{
+			int end = off;
+			while(end < off + len && b[end] != 0) end++;
+			return new String(b, off, end - off, "ISO-8859-1");
+		}
+
+		/**
+		 *Returns the "path" record of a pax extended header, or null.
+		 */
+		private static String paxPath(byte[] data) throws UnsupportedEncodingException{
+			String records = new String(data, "ISO-8859-1"); //record lengths are in bytes
+			int p = 0;
+			while(p < records.length()){
+				int space = records.indexOf(' ', p);
+				if(space < 0) break;
+				int len;
+				try{
+					len = Integer.parseInt(records.substring(p, space));
+				}catch(NumberFormatException e){
+					break;
+				}
+				if(len <= 0 || p + len > records.length()) break;
+				String record = records.substring(space + 1, p + len - 1); //without the trailing newline
+				if(record.startsWith("path=")) return new String(record.substring(5).getBytes("ISO-8859-1"), "UTF-8");
+				p += len;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 *Counts the compressed bytes read from a tar archive, for <code>progress()</code>.
+	 */
+	private static class CountingInputStream extends FilterInputStream{
+		volatile long count = 0;
+
+		CountingInputStream(InputStream in){
+			super(in);
+		}
+
+		public int read() throws IOException{
+			int c = super.read();
+			if(c >= 0) count++;
+			return c;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			int n = super.read(b, off, len);
+			if(n > 0) count += n;
+			return n;
+		}
+
+		public long skip(long n) throws IOException{
+			long s = super.skip(n);
+			count += s;
+			return s;
+		}
+	}
+
+	private static String baseName(String path){
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 *Returns the name and (decompressed) bytes of every entry of a source, by name.
+	 *@throws IOException if two entries have the same name.
+	 */
+	private static TreeMap<String, byte[]> contents(TrajectorySource source) throws IOException{
+		TreeMap<String, byte[]> files = new TreeMap<String, byte[]>();
+		try{
+			Entry entry;
+			while((entry = source.next()) != null){
+				if(files.put(entry.getName(), entry.open().toByteArray()) != null) throw new IOException("Duplicate entry: " + entry.getName());
+			}
+		}finally{
+			source.close();
+		}
+		return files;
+	}
+
+	/**
+	 *Writes a tar header block. GNU headers are written with the "ustar  " magic of GNU tar, and <code>prefix</code> (which
+	 *GNU tar uses for access and change times) is written in the prefix field of either kind.
+	 */
+	private static void tarHeader(OutputStream out, String name, String prefix, char type, long size, boolean gnu) throws IOException{
+		byte[] header = new byte[512];
+		put(header, 0, name);
+		put(header, 100, "0000644");
+		put(header, 108, "0001750");
+		put(header, 116, "0001750");
+		put(header, 124, String.format("%011o", size));
+		put(header, 136, String.format("%011o", 1356736500L));
+		header[156] = (byte)type;
+		put(header, 257, gnu ? "ustar  " : "ustar");
+		if(!gnu) put(header, 263, "00");
+		put(header, 345, prefix);
+		Arrays.fill(header, 148, 156, (byte)' ');
+		int sum = 0;
+		for(int i = 0; i < header.length; i++) sum += header[i] & 0xff;
+		put(header, 148, String.format("%06o", sum));
+		header[155] = ' ';
+		out.write(header);
+	}
+
+	/**
+	 *Writes a tar entry: its header, its data and the padding of its last block.
+	 */
+	private static void tarEntry(OutputStream out, String name, String prefix, char type, byte[] data, boolean gnu) throws IOException{
+		tarHeader(out, name, prefix, type, data.length, gnu);
+		out.write(data);
+		out.write(new byte[(512 - data.length%512)%512]);
+	}
+
+	private static void put(byte[] b, int off, String s) throws IOException{
+		byte[] bytes = s.getBytes("ISO-8859-1");
+		System.arraycopy(bytes, 0, b, off, bytes.length);
+	}
+
+	private static void write(File file, byte[] data, boolean gzip) throws IOException{
+		OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file);
+		try{
+			out.write(data);
+		}finally{
+			out.close();
+		}
+	}
+
+	private static void delete(File file){
+		File[] children = file.listFiles();
+		for(int i = 0; children != null && i < children.length; i++) delete(children[i]);
+		file.delete();
+	}
+
+	/**
+	 *TESTING ONLY: packs the back trajectory files of a zip archive as a directory, a directory of gzip compressed files, a
+	 *zip archive and a gzip compressed tar archive, and checks that all four sources give the entry names and bytes of the
+	 *original archive. The tar archive names its files by POSIX name prefixes, GNU long names and pax paths, and holds GNU
+	 *headers with access and change times.
+	 *<p> Usage: TrajectorySource &lt;zip archive&gt;, for example Back_End/tests/QTBA_TestCase/trajectoryfilesfortest.zip
+	 */
+	public static void main(String[] args) throws Exception{
+		if(args.length < 1){
+			System.out.println("Usage: TrajectorySource <zip archive>");
+			return;
+		}
+		TreeMap<String, byte[]> expected = contents(open(new File(args[0])));
+		File work = File.createTempFile("TrajectorySource", "");
+		work.delete();
+		File plainDir = new File(work, "plain");
+		File gzipDir = new File(work, "gzip");
+		File zip = new File(work, "trajectories.zip");
+		File tar = new File(work, "trajectories.tar.gz");
+		plainDir.mkdirs();
+		gzipDir.mkdirs();
+
+		ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zip));
+		OutputStream tarOut = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tar)));
+		String dir = "trajectories/";
+		String longDir = dir;
+		while(longDir.length() < 120) longDir += "receptor_site_ottawa/";
+		tarEntry(tarOut, dir, "", '5', new byte[0], false);
+		int n = 0;
+		for(Map.Entry<String, byte[]> file : expected.entrySet()){
+			String name = file.getKey();
+			byte[] data = file.getValue();
+			write(new File(plainDir, name), data, false);
+			write(new File(gzipDir, name + ".gz"), data, true);
+			zipOut.putNextEntry(new ZipEntry(dir + name));
+			zipOut.write(data);
+			zipOut.closeEntry();
+
+			//each entry of the tar archive is named in another way
+			switch(n++ % 5){
+			case 0:
+				tarEntry(tarOut, dir + name, "", '0', data, false);
+				break;
+			case 1: //POSIX: the directory in the prefix field
+				tarEntry(tarOut, name, longDir.substring(0, longDir.length() - 1), '0', data, false);
+				break;
+			case 2: //GNU: access and change times where POSIX has the prefix
+				tarEntry(tarOut, dir + name, String.format("%011o", 1356736500L) + "\0" + String.format("%011o", 1356736500L), '0', data, true);
+				break;
+			case 3: //GNU long name
+				tarEntry(tarOut, "././@LongLink", "", 'L', (longDir + name + "\0").getBytes("ISO-8859-1"), true);
+				tarEntry(tarOut, (longDir + name).substring(0, 100), "", '0', data, true);
+				break;
+			default: //pax path; the length of a record counts its own digits
+				String record = " path=" + longDir + name + "\n";
+				int length = record.length() + 1;
+				while(length != record.length() + String.valueOf(length).length()) length++;
+				tarEntry(tarOut, "PaxHeaders/" + name, "", 'x', (length + record).getBytes("ISO-8859-1"), false);
+				tarEntry(tarOut, (longDir + name).substring(0, 100), "", '0', data, false);
+			}
+		}
+		tarOut.write(new byte[1024]);
+		tarOut.close();
+		zipOut.close();
+
+		File[] sources = {plainDir, gzipDir, zip, tar};
+		int errors = 0;
+		for(int s = 0; s < sources.length; s++){
+			TreeMap<String, byte[]> found = contents(open(sources[s]));
+			int mismatches = found.keySet().equals(expected.keySet()) ? 0 : 1;
+			for(Map.Entry<String, byte[]> file : expected.entrySet()){
+				if(found.containsKey(file.getKey()) && !Arrays.equals(found.get(file.getKey()), file.getValue())) mismatches++;
+			}
+			System.out.println(sources[s].getName() + ": " + found.size() + " entries, " + mismatches + " mismatches");
+			errors += mismatches;
+		}
+		delete(work);
+		System.out.println("Errors: " + errors);
+	}
+}
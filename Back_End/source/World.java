@@ -25,6 +25,8 @@
  package dnimp;
  import java.text.*;
  import java.util.*;
+ import java.util.concurrent.*;
+ import java.util.concurrent.atomic.*;
  import java.io.*;
  
 /**
@@ -56,40 +58,55 @@
  	private int totalLat;
  	
  	/**
- 	 *The 2D array of Grid objects representing the world.
+ 	 *The number of grids of this World along the longitude and the latitude.
  	 */
- 	private Grid nHem[][];
+ 	private int lonCells;
+ 	private int latCells;
  	
  	/**
- 	 *A 3D matrix containing a set of PSCF values (for the set of correlated data), 
- 	 *for each grid in this World.
+ 	 *The grid cells of this World which have received a point, by cell index (see <code>locate</code>). A grid is only
+ 	 *created when its first point arrives; the grids and the analysis results below are kept at the ordinal of their cell,
+ 	 *and cells which are not in the map have no points and no results.
  	 */
- 	private double PSCF[][][];
+ 	private CellMap cells = new CellMap();
  	
  	/**
- 	 *A 3D matrix containing a set of CWT values for each grid in this world, 
- 	 *for each correlated variable
+ 	 *The Grid objects of the populated cells of this world, by ordinal.
  	 */
- 	private double CWT[][][];
+ 	private Grid grids[] = new Grid[16];
  	
  	/**
- 	 *A 3D matrix containing a set of CWT values for each grid in this world 
- 	 *from a PREVIOUS iteration.
+ 	 *A set of PSCF values (for the set of correlated data) for each populated grid in this World, by ordinal.
  	 */
- 	 private double oldCWT[][][];
+ 	private ResultRaster PSCF = new ResultRaster();
  	
  	/**
- 	 *A 3D matrix containing the final set of CWT values to write to disk
- 	 *for RTWC calculations. This accounts for the fact that different correlated variables
- 	 *in <code>CMCRender.varList[]</code> will converge at different times in the calculation.
+ 	 *A set of CWT values for each populated grid in this world, for each correlated variable, by ordinal.
  	 */
- 	 private double finalCWT[][][];
+ 	private ResultRaster CWT = new ResultRaster();
  	
  	/**
- 	 *A 3D matrix containing a set of QTBA values for each grid in this world; NOTE that the QTBA
+ 	 *A set of CWT values for each populated grid in this world from a PREVIOUS iteration, by ordinal.
+ 	 */
+ 	 private ResultRaster oldCWT = new ResultRaster();
+ 	 
+ 	/**
+ 	 *The CWT values of the iteration before <code>oldCWT</code>, by ordinal; for the extrapolation of RTWC only (see
+ 	 *<code>setRTWCAcceleration</code>).
+ 	 */
+ 	 private ResultRaster olderCWT = new ResultRaster();
+ 	
+ 	/**
+ 	 *The final set of CWT values to write to disk for RTWC calculations, by ordinal. This accounts for the fact that different
+ 	 *correlated variables in <code>CMCRender.varList[]</code> will converge at different times in the calculation.
+ 	 */
+ 	 private ResultRaster finalCWT = new ResultRaster();
+ 	
+ 	/**
+ 	 *A set of QTBA values for each populated grid in this world, by ordinal; NOTE that the QTBA
  	 *method can only be used if HYSPLIT files are being used.
  	 */
- 	 private double QTBA[][][];
+ 	 private ResultRaster QTBA = new ResultRaster();
  	
  	/**
  	 *Formats numerical variables to a string in the format 0.000. For example, 4.1299 is formatted to 4.129.
@@ -106,6 +123,16 @@
  	 */
  	 private HashSet<String> worldIds;
  	 
+ 	 /**
+ 	  *The tagged points of each trajectory of worldIds in each grid, as a sparse trajectories x grids matrix in compressed
+ 	  *rows: the grids (ordinals, in the order of <code>cells.ordered()</code>) of trajectory <code>t</code> are
+ 	  *<code>incidenceCells[incidenceStart[t] ... incidenceStart[t+1]-1]</code>, with their number of tagged points of it in
+ 	  *<code>incidenceCounts</code>. Built by <code>reDistConc</code>; null once a point is added or tagged.
+ 	  */
+ 	 private int[] incidenceStart;
+ 	 private int[] incidenceCells;
+ 	 private int[] incidenceCounts;
+ 	 
  	 /**
  	  *Contains all of the receptor sites in this world as a HashSet of Strings.
  	  *Important for calculating grid dependent multisite calculations. Format: "xR,yR"
@@ -118,6 +145,139 @@
  	   */
  	  private double[] avgNatT;
  	  private double[] avgTaggedNIJ;
+ 	  
+ 	  /**
+ 	   *The number of threads computing the grids in calcPSCF, calcPSCFBySourceID, calcCWT, calcCWTLog and calcQTBA; 1 computes
+ 	   *them serially (default).
+ 	   */
+ 	  private int analysisThreads = 1;
+ 	  
+ 	  /**
+ 	   *True if RTWC extrapolates the CWT of each pollutant from its last three iterations; see setRTWCAcceleration.
+ 	   */
+ 	  private boolean accelerateRTWC = false;
+ 	  
+ 	  /**
+ 	   *A piece of the work of an analysis pass: grid <code>c</code> (an ordinal), or its correlated variable <code>k</code>.
+ 	   *Pieces of different grids, or of different variables of a grid, must be independent.
+ 	   */
+ 	  private interface GridTask{
+ 	  	void run(int c, int k) throws Exception;
+ 	  }
+ 	  
+ 	  /**
+ 	   *Runs the pieces <code>from ... to-1</code> of a pass, split in two at the middle of their weight until a piece is small.
+ 	   *Piece <code>u</code> is variable <code>u%perGrid</code> of grid <code>grids[u/perGrid]</code>; its weight is the
+ 	   *population of the grid, so that the few crowded grids near the receptors are split off from the many sparse ones and
+ 	   *idle threads steal the rest.
+ 	   */
+ 	  private static class GridAction extends RecursiveAction{
+ 	  	private static final long serialVersionUID = 1L;
+ 	  	
+ 	  	int[] grids;
+ 	  	int perGrid;
+ 	  	GridTask task;
+ 	  	long[] cumulative;
+ 	  	long grain;
+ 	  	AtomicReference<Exception> failure;
+ 	  	int from;
+ 	  	int to;
+ 	  	
+ 	  	GridAction(int[] grids, int perGrid, GridTask task, long[] cumulative, long grain, AtomicReference<Exception> failure, int from, int to){
+ 	  		this.grids = grids;
+ 	  		this.perGrid = perGrid;
+ 	  		this.task = task;
+ 	  		this.cumulative = cumulative;
+ 	  		this.grain = grain;
+ 	  		this.failure = failure;
+ 	  		this.from = from;
+ 	  		this.to = to;
+ 	  	}
+ 	  	
+ 	  	protected void compute(){
+ 	  		if(to - from == 1 || cumulative[to] - cumulative[from] <= grain){
+ 	  			for(int u = from; u < to && failure.get() == null; u++){
+ 	  				try{
+ 	  					task.run(grids[u/perGrid], u%perGrid);
+ 	  				}catch(Exception e){
+ 	  					failure.compareAndSet(null, e);
+ 	  				}
+ 	  			}
+ 	  			return;
+ 	  		}
+ 	  		int split = Arrays.binarySearch(cumulative, from + 1, to, (cumulative[from] + cumulative[to]) >>> 1);
+ 	  		if(split < 0) split = -split - 1;
+ 	  		split = Math.max(from + 1, Math.min(to - 1, split));
+ 	  		invokeAll(new GridAction(grids, perGrid, task, cumulative, grain, failure, from, split),
+ 	  			new GridAction(grids, perGrid, task, cumulative, grain, failure, split, to));
+ 	  	}
+ 	  }
+ 	  
+ 	  /**
+ 	   *The points of the grids of this World by sourceID, then by receptor site "xR,yR" in lower case. Built as points are added,
+ 	   *so that <code>tagWorld</code> visits only the points it tags instead of every point of every grid.
+ 	   */
+ 	  private HashMap<String, HashMap<String, TagGroup>> tagIndex;
+ 	  
+ 	  /**
+ 	   *The points of a single sourceID and receptor site, as the grid and slot holding each of them.
+ 	   */
+ 	  private static class TagGroup{
+ 	  	Grid[] grids = new Grid[4];
+ 	  	int[] slots = new int[4];
+ 	  	int size = 0;
+ 	  	
+ 	  	void add(Grid g, int slot){
+ 	  		if(size == slots.length){
+ 	  			grids = Arrays.copyOf(grids, 2*size);
+ 	  			slots = Arrays.copyOf(slots, 2*size);
+ 	  		}
+ 	  		grids[size] = g;
+ 	  		slots[size] = slot;
+ 	  		size++;
+ 	  	}
+ 	  }
+ 	  
+ 	  /**
+ 	   *The trajectories and receptor sites of the points of this World, shared by its grids.
+ 	   */
+ 	  private TrajectoryDictionary dictionary = new TrajectoryDictionary();
+ 	  
+ 	  /**
+ 	   *The correlated data tagged to the points of this World, shared by its grids.
+ 	   */
+ 	  private ConcentrationVectors vectors = new ConcentrationVectors();
+ 	  
+ 	  /**
+ 	   *The trajectories added by <code>addTrajectory</code>, by handle, and the handles by sourceID, thirdDim (without its hours
+ 	   *back) and receptor site.
+ 	   */
+ 	  private ArrayList<Trajectory> trajectories = new ArrayList<Trajectory>();
+ 	  private HashMap<String, Integer> trajectoryHandles = new HashMap<String, Integer>();
+ 	  
+ 	  /**
+ 	   *The identity of a back trajectory, parsed once for all of its endpoints. Its ids in the dictionary and its tag group are
+ 	   *found when its first endpoint lands in a grid, its identifiers registered when its first endpoint lands in this World.
+ 	   */
+ 	  private static class Trajectory{
+ 	  	String sourceID;
+ 	  	String thirdDim;
+ 	  	String uniqueID;
+ 	  	String receptor;
+ 	  	double height;
+ 	  	int id = -1;
+ 	  	int receptorId = -1;
+ 	  	TagGroup group;
+ 	  	boolean registered = false;
+ 	  	
+ 	  	/**
+ 	  	 *The data last passed to <code>addEndpoint</code> for its endpoints, and their vectors.
+ 	  	 */
+ 	  	Pair[] first;
+ 	  	Pair[] last;
+ 	  	int firstVector = NO_DATA;
+ 	  	int lastVector = NO_DATA;
+ 	  }
  	
  	//this will be constructor for GUI interface!
  	/**
@@ -135,32 +295,19 @@
  			totalLat = lat;
  			lonDX = dX;
  			latDY = dY;
- 			nHem = new Grid[(int)(totalLon/dX)][(int)(totalLat/dY)];
- 			PSCF = new double[(int)(totalLon/dX)][(int)(totalLat/dY)][];
- 			CWT = new double[(int)(totalLon/dX)][(int)(totalLat/dY)][];
- 			oldCWT = new double[(int)(totalLon/dX)][(int)(totalLat/dY)][];
- 			finalCWT = new double[(int)(totalLon/dX)][(int)(totalLat/dY)][];
- 			QTBA =  new double[(int)(totalLon/dX)][(int)(totalLat/dY)][];
+ 			lonCells = (int)(totalLon/dX);
+ 			latCells = (int)(totalLat/dY);
  		}else{
  			lonDX = 1;
  			latDY = 1;
  			totalLon = lon;
  			totalLat = lat;
- 			nHem = new Grid[totalLon][totalLat];
- 			PSCF = new double[totalLon][totalLat][];
- 			CWT = new double[totalLon][totalLat][];
- 			oldCWT = new double[totalLon][totalLat][];
- 			finalCWT = new double[totalLon][totalLat][];
- 			QTBA = new double[totalLon][totalLat][];
+ 			lonCells = totalLon;
+ 			latCells = totalLat;
  			
  		}
  		
- 		//initialize the grid as well:
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				nHem[i][j] = new Grid(lonDX*i, latDY*j);
- 			}
- 		}
+ 		//the grids are created as their first points arrive, see grid()
  		
  		//default PSCF weights should all be 1, with 5 classes.
  		PSCFWeights = new Triplet[5];
@@ -171,19 +318,78 @@
  		//initialize the sourceID arrays:
  		worldIds = new HashSet<String>();
  		worldRecs = new HashSet<String>();
+ 		tagIndex = new HashMap<String, HashMap<String, TagGroup>>();
  		
  	}
  	
- 	private String lastComma(String aux){
- 		try{
- 			return aux.substring(0, aux.lastIndexOf(","));
- 		}catch(Exception e){
- 			return aux;
- 		}
+ 	private static String lastComma(String aux){
+ 		if(aux == null) return null;
+ 		int comma = aux.lastIndexOf(',');
+ 		return (comma < 0) ? aux : aux.substring(0, comma);
+ 	}
+ 	
+ 	/**
+ 	 *Returns the unique identifier (sourceID and thirdDim without its last field) under which a trajectory is registered for
+ 	 *RTWC analysis.
+ 	 */
+ 	static String uniqueID(String sourceID, String thirdDim){
+ 		return sourceID + lastComma(thirdDim);
+ 	}
+ 	
+ 	/**
+ 	 *Returns the receptor site "xR,yR" of a thirdDim "height,xR,yR,T", or null if it has none.
+ 	 */
+ 	static String receptorSite(String thirdDim){
+ 		if(thirdDim == null) return null;
+ 		int first = thirdDim.indexOf(',');
+ 		if(first < 0) return null;
+ 		int second = thirdDim.indexOf(',', first + 1);
+ 		if(second < 0) return null;
+ 		int third = thirdDim.indexOf(',', second + 1);
+ 		return thirdDim.substring(first + 1, (third < 0) ? thirdDim.length() : third);
  	}
  	
- 	private String receptorSite(String aux){
- 		return (aux.split(",")[1] + "," + aux.split(",")[2]);
+ 	/**
+ 	 *Returned by <code>locate</code> for a point which is ignored by this World altogether: its longitude lies outside a
+ 	 *World which spans the equator.
+ 	 */
+ 	public static final int NOT_IN_WORLD = -1;
+ 	
+ 	/**
+ 	 *Returned by <code>locate</code> for a point whose identifiers are registered by this World but which lies outside every grid.
+ 	 */
+ 	public static final int OUTSIDE_GRID = -2;
+ 	
+ 	/**
+ 	 *Returned by <code>locate</code> for a point whose grid indices exceed the grid array (rounding at the edge of the World).
+ 	 */
+ 	private static final int BAD_CELL = -3;
+ 	
+ 	/**
+ 	 *Finds the grid of a point without modifying this World; safe to call from several threads at once.
+ 	 *@return the index of the grid as <code>i*(number of latitude grids) + j</code>, or <code>NOT_IN_WORLD</code> or <code>OUTSIDE_GRID</code>
+ 	 */
+ 	public int locate(double lon, double lat){
+ 		int auxI;
+ 		int auxJ;
+ 		if(this.totalLat > 90){
+ 			if(!(lon >= 0 && lon < this.totalLon)) return NOT_IN_WORLD;
+ 			if(lat < 0 && lat >= (90-this.totalLat)){
+ 				auxI = (int)(lon/lonDX);
+ 				auxJ = (int)((89-lat)/latDY);
+ 			}else if(lat >= 0 && lat < 90){
+ 				auxI = (int)(lon/lonDX);
+ 				auxJ = (int)(lat/latDY);
+ 			}else{
+ 				return OUTSIDE_GRID;
+ 			}
+ 		}else{
+ 			if(!((lon >= 0 && lon < this.totalLon) && (lat >= 0 && lat < this.totalLat))) return OUTSIDE_GRID;
+ 			auxI = (int)(lon/lonDX);
+ 			auxJ = (int)(lat/latDY);
+ 		}
+ 		if(auxI >= lonCells || auxJ >= latCells) return BAD_CELL;
+ 		return auxI*latCells + auxJ;
  	}
  	
  	/**
@@ -192,40 +398,242 @@
  	 *@return false The point could not be added to this World.  
  	 */
  	public boolean addPointToWorld(Point x){
- 		if(this.totalLat > 90 && (x.lon() >= 0 && x.lon() < this.totalLon)){
- 			
- 			worldIds.add(x.sourceID() + this.lastComma(x.thirdDim()));
- 			worldRecs.add(receptorSite(x.thirdDim()));
- 			
- 			if(x.lat() < 0 && x.lat() >= (90-this.totalLat)){
- 				int auxI = (int)(x.lon()/lonDX);
- 				int auxJ = (int)((89-x.lat())/latDY);
- 				nHem[auxI][auxJ].addPoint(x);
- 				return true;
+ 		int cell = locate(x.lon(), x.lat());
+ 		if(cell == NOT_IN_WORLD) return false;
+ 		Trajectory t = trajectories.get(addTrajectory(x.sourceID(), x.thirdDim()));
+ 		return insert(t, cell, x.lon(), x.lat(), Grid.hoursBack(x.thirdDim()), x.hasData() ? vectors.add(x.data()) : NO_DATA, NO_DATA);
+ 	}
+ 	
+ 	/**
+ 	 *Returns the handle of a back trajectory for <code>addEndpoint</code>, adding it if it is new. Its identifiers are parsed
+ 	 *here once, instead of for each of its endpoints.
+ 	 *@param sourceID the sourceID of its endpoints
+ 	 *@param thirdDim the thirdDim of any of its endpoints; its last field, the hours back of HYSPLIT endpoints, is ignored
+ 	 */
+ 	public int addTrajectory(String sourceID, String thirdDim){
+ 		return addTrajectory(sourceID, lastComma(thirdDim), receptorSite(thirdDim));
+ 	}
+ 	
+ 	/**
+ 	 *As <code>addTrajectory(sourceID, thirdDim)</code> for a trajectory whose thirdDim and receptor site are already known,
+ 	 *so that no hours back need be given.
+ 	 *@param trajectoryDim the thirdDim of its endpoints without their hours back: "height,xR,yR" for HYSPLIT, the elevation
+ 	 *level for CMC
+ 	 *@param receptor its receptor site "xR,yR", or null if it has none; the starting height is then not parsed either
+ 	 */
+ 	public int addTrajectory(String sourceID, String trajectoryDim, String receptor){
+ 		String key = sourceID + "\n" + ((trajectoryDim == null) ? "\n" : trajectoryDim) + "\n" + receptor;
+ 		Integer handle = trajectoryHandles.get(key);
+ 		if(handle != null) return handle;
+ 		
+ 		Trajectory t = new Trajectory();
+ 		t.sourceID = sourceID;
+ 		t.thirdDim = trajectoryDim;
+ 		t.uniqueID = sourceID + trajectoryDim;
+ 		t.receptor = receptor;
+ 		t.height = Double.NaN;
+ 		if(receptor != null && trajectoryDim != null && trajectoryDim.indexOf(',') >= 0){
+ 			try{
+ 				t.height = Double.parseDouble(trajectoryDim.substring(0, trajectoryDim.indexOf(',')));
+ 			}catch(NumberFormatException e){
+ 				//no starting height
  			}
- 			
- 			if(x.lat() >= 0 && x.lat() < 90){
- 				int auxI = (int)(x.lon()/lonDX);
- 				int auxJ = (int)(x.lat()/latDY);
- 				nHem[auxI][auxJ].addPoint(x);
- 				return true;
+ 		}
+ 		trajectories.add(t);
+ 		trajectoryHandles.put(key, trajectories.size() - 1);
+ 		return trajectories.size() - 1;
+ 	}
+ 	
+ 	/**
+ 	 *Adds an endpoint of a trajectory added by <code>addTrajectory</code>, whose grid was found by <code>locate</code>, possibly
+ 	 *on another thread. The endpoint is then tagged with <code>first</code> and <code>last</code> as two calls to
+ 	 *<code>tagWorld</code> would if its identifiers matched; used to tag endpoints as they are read (see <code>ConcentrationIndex</code>).
+ 	 *@param hours the hours back of the endpoint, or <code>EndpointStore.NO_HOURS</code>
+ 	 *<code>first</code> and <code>last</code> are shared by all endpoints of the trajectory they are passed with, and must not be
+ 	 *modified afterwards.
+ 	 *@param first the data of the first sample tagging the endpoint, or null if it is not tagged
+ 	 *@param last the data of the last sample tagging the endpoint, or null if it is tagged by <code>first</code> only
+ 	 *@return true if the endpoint was added to a grid of this World
+ 	 *@throws IllegalArgumentException if the trajectory has no receptor site; its identifier is registered all the same.
+ 	 */
+ 	public boolean addEndpoint(int trajectory, int cell, double lon, double lat, float hours, Pair[] first, Pair[] last){
+ 		if(cell == NOT_IN_WORLD) return false;
+ 		Trajectory t = trajectories.get(trajectory);
+ 		if(first != t.first){
+ 			t.first = first;
+ 			t.firstVector = (first == null) ? NO_DATA : vectors.add(first);
+ 		}
+ 		if(last != t.last){
+ 			t.last = last;
+ 			t.lastVector = (last == null) ? NO_DATA : vectors.add(last);
+ 		}
+ 		return insert(t, cell, lon, lat, hours, t.firstVector, t.lastVector);
+ 	}
+ 	
+ 	/**
+ 	 *Passed to <code>insert</code> for an endpoint which is not tagged.
+ 	 */
+ 	private static final int NO_DATA = -2;
+ 	
+ 	private boolean insert(Trajectory t, int cell, double lon, double lat, float hours, int firstVector, int lastVector){
+ 		if(cell == NOT_IN_WORLD) return false;
+ 		if(!t.registered){
+ 			worldIds.add(t.uniqueID);
+ 			if(t.receptor != null) worldRecs.add(t.receptor);
+ 			t.registered = true;
+ 		}
+ 		if(t.receptor == null) throw new IllegalArgumentException("No receptor site in " + t.thirdDim);
+ 		if(cell == OUTSIDE_GRID) return false;
+ 		if(cell == BAD_CELL) throw new ArrayIndexOutOfBoundsException("Point outside of the grid array: " + lon + ", " + lat);
+ 		
+ 		if(t.receptorId < 0){
+ 			t.receptorId = dictionary.receptor(t.receptor);
+ 			if(t.sourceID != null) t.id = dictionary.trajectory(t.uniqueID, t.sourceID, t.receptorId, t.height);
+ 		}
+ 		Grid grid = grid(cell);
+ 		int slot = grid.addEndpoint(lon, lat, hours, t.id, t.receptorId);
+ 		incidenceStart = null;
+ 		if(t.sourceID != null){
+ 			if(t.group == null) t.group = tagGroup(t.sourceID, t.receptor);
+ 			t.group.add(grid, slot);
+ 		}
+ 		if(firstVector != NO_DATA) grid.tagPoint(slot, firstVector);
+ 		if(lastVector != NO_DATA) grid.tagPoint(slot, lastVector);
+ 		return true;
+ 	}
+ 	
+ 	/**
+ 	 *Returns the grid of a cell, creating it if this is the first point of the cell.
+ 	 */
+ 	private Grid grid(int cell){
+ 		int c = cells.get(cell);
+ 		if(c >= 0) return grids[c];
+ 		c = cells.add(cell);
+ 		if(c == grids.length){
+ 			int capacity = 2*c;
+ 			grids = Arrays.copyOf(grids, capacity);
+ 		}
+ 		grids[c] = new Grid(lonDX*(cell/latCells), latDY*(cell%latCells), dictionary, vectors);
+ 		return grids[c];
+ 	}
+ 	
+ 	/**
+ 	 *Lays the endpoints of all grids out in shared arrays, grid after grid in Z-order (see <code>CellMap.zOrdered</code>),
+ 	 *and orders the points of every tag group the same way, so that the passes which compute each grid on its own
+ 	 *(PSCF, CWT, QTBA) and tagging read the endpoints sequentially. Results do not depend on it; points may still be added.
+ 	 *<p> To be called once the trajectories have been read.
+ 	 */
+ 	public void compact(){
+ 		int[] order = cells.zOrdered(lonCells, latCells);
+ 		ArrayList<EndpointStore> stores = new ArrayList<EndpointStore>(order.length);
+ 		IdentityHashMap<Grid, Integer> ranks = new IdentityHashMap<Grid, Integer>(2*order.length);
+ 		for(int n = 0; n < order.length; n++){
+ 			Grid g = grids[order[n]];
+ 			ranks.put(g, n);
+ 			if(g.store() != null) stores.add(g.store());
+ 		}
+ 		EndpointStore.compact(stores.toArray(new EndpointStore[stores.size()]));
+ 		
+ 		Iterator<HashMap<String, TagGroup>> itrSources = tagIndex.values().iterator();
+ 		while(itrSources.hasNext()){
+ 			Iterator<TagGroup> itrGroups = itrSources.next().values().iterator();
+ 			while(itrGroups.hasNext()){
+ 				TagGroup group = itrGroups.next();
+ 				long[] packed = new long[group.size];
+ 				for(int k = 0; k < group.size; k++){
+ 					packed[k] = ((long)ranks.get(group.grids[k]) << 32) | group.slots[k];
+ 				}
+ 				Arrays.sort(packed);
+ 				for(int k = 0; k < group.size; k++){
+ 					group.grids[k] = grids[order[(int)(packed[k] >>> 32)]];
+ 					group.slots[k] = (int)packed[k];
+ 				}
  			}
- 		}else{
- 			
- 			worldIds.add(x.sourceID() + this.lastComma(x.thirdDim()));
- 			worldRecs.add(receptorSite(x.thirdDim()));
- 			
-	 		if((x.lon() >= 0 && x.lon() < this.totalLon) && (x.lat() >= 0 && x.lat() < this.totalLat)){
-	 			int auxI = (int)(x.lon()/lonDX);
-	 			int auxJ = (int)(x.lat()/latDY);
-	 			nHem[auxI][auxJ].addPoint(x);
-	 			return true;
-	 		}
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 *Sets the number of threads computing the grids of an analysis pass (calcPSCF, calcPSCFBySourceID, calcCWT, calcCWTLog
+ 	 *and calcQTBA) on a work-stealing pool. Every grid is computed exactly as by a serial pass, so the results are identical.
+ 	 *<p> The same number of threads iterates the pollutants of calcRTWC, each on one thread; pollutants whose names share a
+ 	 *concentration column are iterated one after another on the same thread.
+ 	 *@param threads the number of threads; values less than 2 compute the grids and iterate the pollutants serially (default).
+ 	 */
+ 	public void setAnalysisThreads(int threads){
+ 		this.analysisThreads = Math.max(1, threads);
+ 	}
+ 	
+ 	/**
+ 	 *Sets whether RTWC without smoothing and with a convergence criterion (option 2 of calcRTWC) extrapolates the CWT field
+ 	 *of each pollutant after every two iterations from its last three fields (see extrapolateCWT), so that fewer iterations
+ 	 *are needed. Convergence is only tested on fields found by an iteration, never on an extrapolated one, so a converged
+ 	 *field still differs from the one before it by no more than convPercent. Smoothed RTWC (option 3) is never extrapolated:
+ 	 *smoothing each iteration does not change the field linearly, and extrapolating it leads to another field.
+ 	 *@param accelerate true to extrapolate; false iterates plainly (default).
+ 	 */
+ 	public void setRTWCAcceleration(boolean accelerate){
+ 		this.accelerateRTWC = accelerate;
+ 	}
+ 	
+ 	/**
+ 	 *Runs <code>task</code> for every correlated variable <code>0 ... perGrid-1</code> of every grid of <code>todo</code>
+ 	 *(ordinals), in this order if the pass is serial, otherwise on <code>analysisThreads</code> threads. The results of the
+ 	 *grids must already be allocated, and their aggregates found, so that the pieces only write their own results.
+ 	 *@throws Exception the exception of a piece; the pass stops at the first one.
+ 	 */
+ 	private void forEachGrid(int[] todo, int perGrid, GridTask task) throws Exception{
+ 		int units = todo.length*perGrid;
+ 		if(analysisThreads <= 1 || units <= 1){
+ 			for(int u = 0; u < units; u++) task.run(todo[u/perGrid], u%perGrid);
+ 			return;
  		}
  		
- 		return false;
+ 		long[] cumulative = new long[units + 1];
+ 		for(int u = 0; u < units; u++) cumulative[u + 1] = cumulative[u] + grids[todo[u/perGrid]].population() + 1;
+ 		long grain = Math.max(1, cumulative[units]/(8L*analysisThreads));
+ 		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+ 		ForkJoinPool pool = new ForkJoinPool(analysisThreads);
+ 		try{
+ 			pool.invoke(new GridAction(todo, perGrid, task, cumulative, grain, failure, 0, units));
+ 		}finally{
+ 			pool.shutdown();
+ 		}
+ 		if(failure.get() != null) throw failure.get();
+ 	}
+ 	
+ 	/**
+ 	 *Returns the ordinals of <code>order</code> whose grids have a tagged point, with their aggregates found.
+ 	 */
+ 	private int[] taggedGrids(int[] order){
+ 		int[] todo = new int[order.length];
+ 		int count = 0;
+ 		for(int n = 0; n < order.length; n++){
+ 			if(grids[order[n]].taggedPop() > 0) todo[count++] = order[n];
+ 		}
+ 		return Arrays.copyOf(todo, count);
+ 	}
+ 	
+ 	/**
+ 	 *Returns the ordinal of the grid (i, j), or -1 if it has no points.
+ 	 */
+ 	private int ordinal(int i, int j){
+ 		return cells.get(i*latCells + j);
  	}
  	
+ 	private TagGroup tagGroup(String sourceID, String receptor){
+ 		HashMap<String, TagGroup> sites = tagIndex.get(sourceID);
+ 		if(sites == null){
+ 			sites = new HashMap<String, TagGroup>(4);
+ 			tagIndex.put(sourceID, sites);
+ 		}
+ 		String site = receptor.toLowerCase(Locale.ROOT);
+ 		TagGroup group = sites.get(site);
+ 		if(group == null){
+ 			group = new TagGroup();
+ 			sites.put(site, group);
+ 		}
+ 		return group;
+ 	}
  	
  	/**
  	 *An accessor which returns the total number of points in the world.
@@ -233,10 +641,10 @@
  	public int hemPopulation(){
  		//returns the total number of points in the world
  		int counter = 0;
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				counter += nHem[i][j].population();
- 			}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			counter += grids[c].population();
  		}
  		return counter;
  	}
@@ -252,18 +660,56 @@
  		if(weights != null && weights.length > 0) PSCFWeights = weights; //POINTER ONLY
  	}
  	
+ 	/**
+ 	 *Sets the schema of the correlated data tagged next, fixed by the header of the correlated data input file. Pollutant names
+ 	 *passed to the analyses are resolved to columns of this schema once per analysis, not once per point.
+ 	 */
+ 	public void setPollutantSchema(PollutantSchema schema){
+ 		vectors.setSchema(schema);
+ 	}
+ 	
+ 	/**
+ 	 *Returns the schema of the correlated data tagged last, or null if none has been set or tagged.
+ 	 */
+ 	public PollutantSchema getPollutantSchema(){
+ 		return vectors.schema();
+ 	}
+ 	
+ 	/**
+ 	 *Returns the columns of pollutants in the schema of this World, <code>PollutantSchema.NO_COLUMN</code> for those not found.
+ 	 */
+ 	private int[] columns(String[] names){
+ 		PollutantSchema schema = vectors.schema();
+ 		if(schema != null) return schema.columns(names);
+ 		int[] auxColumns = new int[names.length];
+ 		Arrays.fill(auxColumns, PollutantSchema.NO_COLUMN);
+ 		return auxColumns;
+ 	}
+ 	
+ 	private int[] columns(Pair[] data){
+ 		String[] names = new String[data.length];
+ 		for(int i = 0; i < names.length; i++) names[i] = data[i].name;
+ 		return columns(names);
+ 	}
+ 	
  	/**
  	 *Adds correlated data to points in the world with the appropriate source ID
  	 *@param targetIDW  the desired identifier of each point. Points with this identifier are tagged.
  	 *@param dataW the data with which to tag the point specified by <code>targetIDW</code>
  	 *<p>REQUIRES: dataW is not null or empty. If the identifier cannot be found, the data is not tagged with any point.
+ 	 *<p>The points are found in the index built by <code>addEndpoint</code>; receptor sites are compared ignoring case,
+ 	 *as by <code>Grid.tagPoints</code>.
  	 */
  	//requires: dataW is not null or empty
  	public void tagWorld(String targetIDW, Pair[] dataW, String latR, String lonR){
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				nHem[i][j].tagPoints(targetIDW, dataW, latR, lonR);	
- 			}
+ 		HashMap<String, TagGroup> sites = tagIndex.get(targetIDW);
+ 		if(sites == null) return;
+ 		TagGroup group = sites.get((latR + "," + lonR).toLowerCase(Locale.ROOT));
+ 		if(group == null || group.size == 0) return;
+ 		int vector = vectors.add(dataW); //shared by every point of the group
+ 		incidenceStart = null;
+ 		for(int k = 0; k < group.size; k++){
+ 			group.grids[k].tagPoint(group.slots[k], vector);
  		}
  	}
  	
@@ -318,12 +764,13 @@
  		
  		if(calcMethod.equalsIgnoreCase("CWT")){
  			//iterate through the entire matrix to apply the weights.
- 			for(int i = 0; i < nHem.length; i++){
- 				for(int j = 0; j < nHem[i].length; j++){
- 					if(CWT[i][j] != null){
- 						for(int k = 0; k < CWT[i][j].length; k++){
- 							CWT[i][j][k] = this.getAdvancedWeight(nHem[i][j].taggedPop(), weights, this.avgTaggedNIJ[k])*CWT[i][j][k];
- 						}
+ 			int[] order = cells.ordered();
+ 			for(int n = 0; n < order.length; n++){
+ 				int c = order[n];
+ 				if(CWT.has(c)){
+ 					for(int k = 0; k < CWT.layers(); k++){
+ 						CWT.set(c, k, this.getAdvancedWeight(grids[c].taggedPop(), weights, this.avgTaggedNIJ[k])*CWT.get(c, k));
+ 						grids[c].changeCWT(k, CWT.get(c, k)); //the grid keeps its own CWT for the uncertainty
  					}
  				}
  			}
@@ -331,12 +778,12 @@
  		
  		if(calcMethod.equalsIgnoreCase("RTWC")){
  			//iterate through the entire matrix to apply the weights.
- 			for(int i = 0; i < nHem.length; i++){
- 				for(int j = 0; j < nHem[i].length; j++){
- 					if(finalCWT[i][j] != null){
- 						for(int k = 0; k < finalCWT[i][j].length; k++){
- 							finalCWT[i][j][k] = this.getAdvancedWeight(nHem[i][j].taggedPop(), weights, this.avgTaggedNIJ[k])*finalCWT[i][j][k];
- 						}
+ 			int[] order = cells.ordered();
+ 			for(int n = 0; n < order.length; n++){
+ 				int c = order[n];
+ 				if(finalCWT.has(c)){
+ 					for(int k = 0; k < finalCWT.layers(); k++){
+ 						finalCWT.set(c, k, this.getAdvancedWeight(grids[c].taggedPop(), weights, this.avgTaggedNIJ[k])*finalCWT.get(c, k));
  					}
  				}
  			}
@@ -344,12 +791,12 @@
  		
  		if(calcMethod.equalsIgnoreCase("QTBA")){
  			//iterate through the entire matrix to apply the weights.
- 			for(int i = 0; i < nHem.length; i++){
- 				for(int j = 0; j < nHem[i].length; j++){
- 					if(QTBA[i][j] != null){
- 						for(int k = 0; k < QTBA[i][j].length; k++){
- 							QTBA[i][j][k] = this.getAdvancedWeight(nHem[i][j].gridNatT[k], weights, this.avgNatT[k])*QTBA[i][j][k];
- 						}
+ 			int[] order = cells.ordered();
+ 			for(int n = 0; n < order.length; n++){
+ 				int c = order[n];
+ 				if(QTBA.has(c)){
+ 					for(int k = 0; k < QTBA.layers(); k++){
+ 						QTBA.set(c, k, this.getAdvancedWeight(grids[c].gridNatT[k], weights, this.avgNatT[k])*QTBA.get(c, k));
  					}
  				}
  			}
@@ -359,18 +806,18 @@
  	
  	private int getMaxTaggedRec(){
  		int maxTaggedRec = 0;
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				
- 				if(worldRecs.size() == nHem[i][j].numReceptors()){
- 					maxTaggedRec = worldRecs.size();
- 					System.out.println("\nNumber of TAGGED Receptors = " + maxTaggedRec);
- 					return worldRecs.size();
- 				}
- 				
- 				if(maxTaggedRec < nHem[i][j].numReceptors()){
- 					maxTaggedRec = nHem[i][j].numReceptors();
- 				}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			
+ 			if(worldRecs.size() == grids[c].numReceptors()){
+ 				maxTaggedRec = worldRecs.size();
+ 				System.out.println("\nNumber of TAGGED Receptors = " + maxTaggedRec);
+ 				return worldRecs.size();
+ 			}
+ 			
+ 			if(maxTaggedRec < grids[c].numReceptors()){
+ 				maxTaggedRec = grids[c].numReceptors();
  			}
  		}
  		
@@ -383,7 +830,7 @@
  	 *Computes PSCF values for points in the World with correlated data.
  	 *@param threshDataW the threshold data as a Pair of values
  	 */
- 	public void calcPSCF(Pair[] threshDataW, int recMax) throws Exception{
+ 	public void calcPSCF(final Pair[] threshDataW, int recMax) throws Exception{
  		
  		int taggedWorldRecs = this.getMaxTaggedRec();
  	 	
@@ -393,25 +840,37 @@
  	 	}
  		
  		if(threshDataW == null || threshDataW.length == 0) return;
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				//DO ONLY FOR THOSE GRIDS THAT HAVE BEEN TAGGED; i.e., THE MIJ ARRAY IS NOT NULL.
- 				//Grids containing a population of zero yet allocated data, get PSCF = 0. this is handled in the case below
- 				//Grids containing points which have NO correlated data have a NULL PSCF value and are treated the same as empty grids; therefore, mij = null and PSCF = null
- 				if(nHem[i][j].mij != null && threshDataW.length == nHem[i][j].mij.length){
- 					PSCF[i][j] = new double[threshDataW.length];
-					nHem[i][j].calcMIJ(threshDataW, recMax);
-					
-					for(int k = 0; k < PSCF[i][j].length; k++){
-						int popTemp = nHem[i][j].taggedPop();
-						int popTempMulti = nHem[i][j].multiPopForPSCF(recMax);
-						if(nHem[i][j].mij != null && popTempMulti >= 0){
-							PSCF[i][j][k] = getWeight(popTemp, k, false)*(((nHem[i][j]).mij[k])/((Integer)popTempMulti).doubleValue());
-						}
-					}
- 				}	
+		final int[] columns = columns(threshDataW);
+		final long[] exceedances = vectors.exceedances(threshDataW, columns); //of every pollutant, once per sample
+		final int receptorMax = recMax;
+		PSCF.setLayers(threshDataW.length);
+ 		int[] order = cells.zOrdered(lonCells, latCells); //each grid on its own, in the order of their endpoints
+ 		int[] todo = new int[order.length];
+ 		int count = 0;
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			//DO ONLY FOR THOSE GRIDS THAT HAVE BEEN TAGGED; i.e., THE MIJ ARRAY IS NOT NULL.
+ 			//Grids containing a population of zero yet allocated data, get PSCF = 0. this is handled in the case below
+ 			//Grids containing points which have NO correlated data have a NULL PSCF value and are treated the same as empty grids; therefore, mij = null and PSCF = null
+ 			if(grids[c].mij != null && threshDataW.length == grids[c].mij.length){
+ 				PSCF.allocate(c);
+ 				todo[count++] = c;
  			}
  		}
+ 		
+ 		forEachGrid(Arrays.copyOf(todo, count), 1, new GridTask(){
+ 			public void run(int c, int unused) throws Exception{
+				grids[c].calcMIJ(threshDataW, columns, exceedances, receptorMax);
+				
+				for(int k = 0; k < PSCF.layers(); k++){
+					int popTemp = grids[c].taggedPop();
+					int popTempMulti = grids[c].multiPopForPSCF(receptorMax);
+					if(grids[c].mij != null && popTempMulti >= 0){
+						PSCF.set(c, k, getWeight(popTemp, k, false)*(((grids[c]).mij[k])/((Integer)popTempMulti).doubleValue()));
+					}
+				}
+ 			}
+ 		});	
  	}
  	
  	/**
@@ -421,16 +880,17 @@
  	 public void calcCWT(String[] varList) throws Exception{
  	 	
  	 	if(varList == null || varList.length == 0) return;
- 	 	for(int i =0; i < nHem.length; i++){
- 	 		for(int j = 0; j < nHem[i].length; j++){
- 	 			if(nHem[i][j].taggedPop() > 0){
- 	 				CWT[i][j] = new double[varList.length];
- 	 				CWT[i][j] = nHem[i][j].getCalcCWT(varList);
- 	 			}
- 	 			
- 	 			//otherwise, CWT[i][j] remains null, just like the PSCF matrix.
+ 	 	final int[] columns = columns(varList);
+ 	 	CWT.setLayers(varList.length);
+ 	 	int[] todo = taggedGrids(cells.zOrdered(lonCells, latCells)); //each grid on its own, in the order of their endpoints
+ 	 	for(int n = 0; n < todo.length; n++) CWT.allocate(todo[n]);
+ 	 	//the other grids have no CWT, just like the PSCF matrix.
+ 	 	
+ 	 	forEachGrid(todo, 1, new GridTask(){
+ 	 		public void run(int c, int unused) throws Exception{
+ 	 			CWT.setValues(c, grids[c].getCalcCWT(columns));
  	 		}
- 	 	}
+ 	 	});
  	 }
  	 
  	/**
@@ -440,16 +900,17 @@
  	 */ 	 
  	public void calcCWTLog(String[] varList) throws Exception{
  		if(varList == null || varList.length == 0) return;
- 	 	for(int i =0; i < nHem.length; i++){
- 	 		for(int j = 0; j < nHem[i].length; j++){
- 	 			if(nHem[i][j].taggedPop() != 0){
- 	 				CWT[i][j] = new double[varList.length];
- 	 				CWT[i][j] = nHem[i][j].getCalcCWTLog(varList);
- 	 			}
- 	 			
- 	 			//otherwise, CWT[i][j] remains null, just like the PSCF matrix.
+ 	 	final int[] columns = columns(varList);
+ 	 	CWT.setLayers(varList.length);
+ 	 	int[] todo = taggedGrids(cells.zOrdered(lonCells, latCells)); //each grid on its own, in the order of their endpoints
+ 	 	for(int n = 0; n < todo.length; n++) CWT.allocate(todo[n]);
+ 	 	//the other grids have no CWT, just like the PSCF matrix.
+ 	 	
+ 	 	forEachGrid(todo, 1, new GridTask(){
+ 	 		public void run(int c, int unused) throws Exception{
+ 	 			CWT.setValues(c, grids[c].getCalcCWTLog(columns));
  	 		}
- 	 	}
+ 	 	});
  	}
  	
  	/**
@@ -466,42 +927,58 @@
  	 */
  	//REVISION NOTE: preconditions for nullified CWT[i][j] NEEDS UPDATE: Oct. 16/2012. OK updated Dec. 25 2012.
  	public void smoothCWTField(String[] varList, double ndValue, int filterLength, int polyDegree, double confInt, boolean logField) throws Exception{
+ 		int[] columns = columns(varList);
+ 		HashMap<Integer, Double> studT = new HashMap<Integer, Double>(); //by degrees of freedom; the bisection is slow
  		for(int x = 0; x < varList.length; x++){
- 			double[][] smCWT = new double[(int)(totalLon/lonDX)][(int)(totalLat/latDY)];
- 			ArrayList<Double> vectCWT = new ArrayList<Double>();
- 			
- 			//map the current CWT matrix to an array by iterating through all grids
- 			for(int i = 0; i < nHem.length; i++){
- 				for(int j = 0; j < nHem[i].length; j++){
- 					if(CWT[i][j] != null && CWT[i][j][x] != ndValue){ //TEST
- 						vectCWT.add(CWT[i][j][x]); //this still contains ndValues!
- 					}
- 				}
+ 			this.smoothCWTLayer(x, columns[x], ndValue, filterLength, polyDegree, confInt, logField, studT);
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 *Smooths the CWT field of pollutant <code>x</code> alone (see <code>smoothCWTField</code>). The confidence half-width of
+ 	 *each CWT is found from the moments found with it by the CWT kernel of its grid, so that no grid is scanned again.
+ 	 *@param studT the critical values of Student's t found so far for <code>confInt</code>, by degrees of freedom
+ 	 */
+ 	private void smoothCWTLayer(int x, int column, double ndValue, int filterLength, int polyDegree, double confInt, boolean logField, HashMap<Integer, Double> studT) throws Exception{
+ 		int[] order = cells.ordered();
+ 		ArrayList<Double> vectCWT = new ArrayList<Double>();
+ 		
+ 		//map the current CWT matrix to an array by iterating through all grids
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(CWT.has(c) && CWT.get(c, x) != ndValue){ //TEST
+ 				vectCWT.add(CWT.get(c, x)); //this still contains ndValues!
  			}
- 			
- 			//smooth the current CWT vector:
- 			double[] vectCWTArray = new double[vectCWT.size()];
- 			for(int n = 0; n < vectCWTArray.length; n++) vectCWTArray[n] = vectCWT.get(n);
- 			double[] smVectCWT = (new Statistics()).smoothData(vectCWTArray, filterLength, polyDegree);
- 			
- 			//re-map the smVectCWT to the new smCWT matrix, and then to CWT[i][j][x] if eligible:
- 			int vectorIndex = 0;
- 			for(int i = 0; i < nHem.length; i++){
- 				for(int j = 0; j < nHem[i].length; j++){
- 					if(CWT[i][j] != null  && CWT[i][j][x] != ndValue){
- 						double maxThresh = CWT[i][j][x] + nHem[i][j].getCWTUncertainty(confInt, x, varList[x], logField);
- 						double minThresh = CWT[i][j][x] - nHem[i][j].getCWTUncertainty(confInt, x, varList[x], logField);
- 						if(smVectCWT[vectorIndex] >= minThresh && smVectCWT[vectorIndex] <= maxThresh){
- 							CWT[i][j][x] = smVectCWT[vectorIndex];
- 							nHem[i][j].changeCWT(x, CWT[i][j][x]);
- 						}else{
- 							CWT[i][j][x] = ndValue;
- 							nHem[i][j].changeCWT(x, ndValue);
- 						}
- 						vectorIndex++;
- 					}			
+ 		}
+ 		
+ 		//smooth the current CWT vector:
+ 		double[] vectCWTArray = new double[vectCWT.size()];
+ 		for(int n = 0; n < vectCWTArray.length; n++) vectCWTArray[n] = vectCWT.get(n);
+ 		double[] smVectCWT = (new Statistics()).smoothData(vectCWTArray, filterLength, polyDegree);
+ 		
+ 		//re-map the smVectCWT to the CWT of each grid if eligible:
+ 		int vectorIndex = 0;
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(CWT.has(c)  && CWT.get(c, x) != ndValue){
+ 				int freedom = grids[c].taggedPop() - 1;
+ 				Double t = studT.get(freedom);
+ 				if(t == null){
+ 					t = (new Statistics()).AStudT(1-confInt, freedom);
+ 					studT.put(freedom, t);
  				}
- 			}	
+ 				double uncertainty = grids[c].getCWTUncertainty(x, column, logField, t);
+ 				double maxThresh = CWT.get(c, x) + uncertainty;
+ 				double minThresh = CWT.get(c, x) - uncertainty;
+ 				if(smVectCWT[vectorIndex] >= minThresh && smVectCWT[vectorIndex] <= maxThresh){
+ 					CWT.set(c, x, smVectCWT[vectorIndex]);
+ 					grids[c].changeCWT(x, CWT.get(c, x));
+ 				}else{
+ 					CWT.set(c, x, ndValue);
+ 					grids[c].changeCWT(x, ndValue);
+ 				}
+ 				vectorIndex++;
+ 			}			
  		}
  	}
  	
@@ -512,46 +989,92 @@
  	 *@param varList an array of correlated data variable names
  	 */
  	public void reDistConc(String[] varList, int ndValue) throws Exception{
- 		//NOTE: CWT or a smoothed CWT should already exist in CWT[i][j][x].
- 		//FOR EACH SOURCE ID => FOR EACH POLLUTANT.
- 		Iterator itrWorldIds = this.worldIds.iterator();
- 		while(itrWorldIds.hasNext()){
- 			String auxID = (String)itrWorldIds.next();
- 			for(int x = 0; x < varList.length; x++){ //FOR EACH POLLUTANT
- 				double avgCWTx = this.avgCWT(auxID, x, ndValue);
- 				//System.out.println("auxID = " + auxID + ", avgCWTx = " + avgCWTx); //VERBOSE TESTING
- 				//now, recalculate the concentration field!
- 				if(avgCWTx >= 0){
-					for(int i =0; i < nHem.length; i++){
-						for(int j = 0; j < nHem[i].length; j++){
-							if(nHem[i][j].containsID(auxID) && CWT[i][j][x] != ndValue){
-								nHem[i][j].changeConcByMultiple(auxID, x, (CWT[i][j][x]/avgCWTx), varList[x]);
-							}
-						}
-					}
- 				}//safety check if avgCWT = 0
- 			}//each pollutant
- 		}//each trajectory	
+ 		//NOTE: CWT or a smoothed CWT should already exist in CWT.
+ 		//FOR EACH POLLUTANT => THE AVERAGE CWT OF EACH SOURCE ID, THEN THE CONCENTRATIONS OF EACH GRID.
+ 		if(incidenceStart == null) buildIncidence();
+ 		int[] columns = columns(varList);
+ 		double[] averages = new double[incidenceStart.length - 1];
+ 		for(int x = 0; x < varList.length; x++){ //FOR EACH POLLUTANT
+ 			this.reDistLayer(CWT, x, columns[x], ndValue, averages);
+ 		}
+ 		
+ 	}
+ 	
+ 	/**
+ 	 *Redistributes the concentrations of pollutant <code>x</code> alone (see <code>reDistConc</code>) by its CWT in
+ 	 *<code>field</code>.
+ 	 *@param column the column of the pollutant in the endpoints
+ 	 *@param averages room for the average CWT of every trajectory
+ 	 */
+ 	private void reDistLayer(ResultRaster field, int x, int column, int ndValue, double[] averages) throws Exception{
+ 		for(int t = 0; t < averages.length; t++){
+ 			//a trajectory in no grid, or not in worldIds, is left unchanged
+ 			averages[t] = (incidenceStart[t] == incidenceStart[t + 1]) ? Double.NaN : this.avgCWT(field, t, x, ndValue);
+ 		}
+ 		
+ 		//now, recalculate the concentration field! only trajectories with avgCWT >= 0 are changed
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].taggedUniqueID() > 0 && field.get(c, x) != ndValue){
+ 				grids[c].changeConcByAverages(column, field.get(c, x), averages);
+ 			}
+ 		}
+ 	}
+ 	
+ 	/**
+ 	 *Builds the incidence matrix of the trajectories of worldIds in the grids from the aggregates of the grids.
+ 	 */
+ 	private void buildIncidence(){
+ 		int trajectories = dictionary.trajectories();
+ 		boolean[] inWorld = new boolean[trajectories];
+ 		for(int t = 0; t < trajectories; t++) inWorld[t] = worldIds.contains(dictionary.uniqueID(t));
+ 		
+ 		int[] order = cells.ordered();
+ 		int[] start = new int[trajectories + 1];
+ 		for(int n = 0; n < order.length; n++){
+ 			Grid grid = grids[order[n]];
+ 			for(int j = 0; j < grid.taggedUniqueID(); j++){
+ 				if(inWorld[grid.taggedTrajectory(j)]) start[grid.taggedTrajectory(j) + 1]++;
+ 			}
+ 		}
+ 		for(int t = 0; t < trajectories; t++) start[t + 1] += start[t];
  		
+ 		int[] auxCells = new int[start[trajectories]];
+ 		int[] auxCounts = new int[start[trajectories]];
+ 		int[] next = Arrays.copyOf(start, trajectories);
+ 		for(int n = 0; n < order.length; n++){
+ 			Grid grid = grids[order[n]];
+ 			for(int j = 0; j < grid.taggedUniqueID(); j++){
+ 				int t = grid.taggedTrajectory(j);
+ 				if(!inWorld[t]) continue;
+ 				auxCells[next[t]] = order[n];
+ 				auxCounts[next[t]++] = grid.taggedTrajectoryPop(j);
+ 			}
+ 		}
+ 		incidenceStart = start;
+ 		incidenceCells = auxCells;
+ 		incidenceCounts = auxCounts;
  	}
  	
- 	private double avgCWT(String auxSourceID, int polIndex, int ndValue){
+ 	/**
+ 	 *Returns the average CWT of the grids of a trajectory, weighted by its number of tagged points in each: a product of
+ 	 *its row of the incidence matrix with the CWT of a pollutant in <code>field</code>.
+ 	 */
+ 	private double avgCWT(ResultRaster field, int trajectory, int polIndex, int ndValue){
 		double CWTAvgSUM = 0;
 		double counter = 0; 
 			
-		for(int i =0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].containsID(auxSourceID)){
- 					//SAFETY CHECK: should be excluded from precondition, however.
- 					if(CWT[i][j] == null){
- 						return ndValue;
- 					}
- 					
- 					if(CWT[i][j][polIndex] != ndValue){
- 						CWTAvgSUM += CWT[i][j][polIndex]*nHem[i][j].countNIJM(auxSourceID);
- 						counter += nHem[i][j].countNIJM(auxSourceID);
- 					}
- 				}
+		for(int e = incidenceStart[trajectory]; e < incidenceStart[trajectory + 1]; e++){
+ 			int c = incidenceCells[e];
+ 			//SAFETY CHECK: should be excluded from precondition, however.
+ 			if(!field.has(c)){
+ 				return ndValue;
+ 			}
+ 			
+ 			if(field.get(c, polIndex) != ndValue){
+ 				CWTAvgSUM += field.get(c, polIndex)*incidenceCounts[e];
+ 				counter += incidenceCounts[e];
  			}
  		}
  		
@@ -567,6 +1090,8 @@
  	/**
  	 *RTWC method which uses redistributed concentration fields with CWT. NOTE: a PREVIOUS CWT
  	 *CALCULATION NEED NOT BE CONDUCTED; an iteration is counted as a single CWT calculation.
+ 	 *<p> Each pollutant is iterated on its own and stops once it has converged, so afterwards the CWT raster holds the last
+ 	 *iteration computed for each pollutant, which may differ between pollutants; <code>finalCWT</code> holds the RTWC.
  	 *@param varList a list of correlated variables
  	 *@param optionSelect option selection for calculation methods:
  	 * 	<p>optionSelect = 1: linear CWT; no smoothing, fixed iterations (maxIterations)
@@ -583,155 +1108,207 @@
      *@param polyDegree a user-defined parameter which specifies the degree of the polynomial to use smoothing with
      *@param confInt the confidence interval (1-probability) of the desired analysis in decimal format (0.95, 0.999, etc.)
      */	
- 	public void calcRTWC(String[] varList, int optionSelect, double convPercent, int maxIterations, int pointFilter, int polyDegree, double confInt, int ndValue, File outputDir) throws Exception{
-    	double PDiff[] = new double[varList.length];
-    	boolean alreadyConverged[] = new boolean[varList.length];
-    	
-    	for(int i = 0; i < PDiff.length; i++){
-    		PDiff[i] = -1;
-    		alreadyConverged[i] = false;
-    	}
-    	
-    	if(optionSelect == 1 || optionSelect == 4){
-    		//no smoothing, fixed iterations (maxIterations)
-    		this.calcCWT(varList);
-    		for(int r = 0; r < maxIterations-1; r++){
-    			this.reDistConc(varList, ndValue);
-    			this.calcCWT(varList);
-    			System.out.println("RTWC Iteration: " + (r+1)); //VERBOSE TESTING
-    			if(optionSelect ==  4) this.smoothCWTField(varList, ndValue, pointFilter, polyDegree, confInt, false);
-    		}
-    		
-    		//after the iterations, finalize the matrix
-    		for(int k = 0; k < varList.length; k++){
-    			this.finalizeCWT(k, varList);
-    		}
-    		
-    		return;
-    		
-    	}else{
-    		//linear CWT; no smoothing, use convergence criteria
-    		this.calcCWT(varList);
-    		int iterations = 0;
-    		boolean converged = false;
-    		
-    		while(!converged){
-    			this.copyToOldCWT(varList);
-    			this.reDistConc(varList, ndValue);
-    			this.calcCWT(varList);
-    			if(optionSelect ==  3) this.smoothCWTField(varList, ndValue, pointFilter, polyDegree, confInt, false);
-    			iterations++;
-    			
-    			PDiff = percentDiff(varList, ndValue);
-    			
-    			for(int k = 0; k < PDiff.length; k++){
-    				
-    				if(alreadyConverged[k]){
-    					System.out.println("Pollutant: " + varList[k] + " has converged");
-    				}else{
-    					System.out.println("PDiff(" + varList[k] + ") = " + PDiff[k]); //VERBOSE TESTING
-    				}
-    								
-    				if(PDiff[k] <= convPercent && PDiff[k] >= 0){
-    					if(!alreadyConverged[k]){
-    						this.finalizeCWT(k, varList);
-    						
-    						//at this point, the final RTWC matrix for the pollutant should be printed to disk.
-    						File outputMatrix = new File(outputDir + "/CONVERGED_RTWC/" + varList[k] + ".txt");
-    						if(!new File(outputMatrix.getParent()).exists()){
-    							new File(outputMatrix.getParent()).mkdir();
-    						}
-    						
-    						PrintWriter pW = new PrintWriter(new BufferedWriter(new FileWriter(outputMatrix.getAbsoluteFile() ,false)));
-    						ArrayList<String> outText = this.getFinalCWTMatrix(k, ndValue);
-    						for(int i = 0; i < outText.size(); i++) pW.println((String)(outText.get(i)));
-    						pW.close();
-    						//end temporary file write procedure
-    						
-    						alreadyConverged[k] = true;
-    					}
-    				}
-    			}
-    			
-    			//iterate through the "already converged" variables to decide to stop
-    			if(iterations >= maxIterations){
-    				for(int k = 0; k < varList.length; k++){
-    					if(!alreadyConverged[k]) this.finalizeCWT(k, varList);
-    				}	
-    				converged = true;
-    			}else{
-    				converged = true;
-    				for(int k = 0; k < alreadyConverged.length; k++){
-    					converged = (converged && alreadyConverged[k]);
-    				}
-    			}
-    		}
+ 	public void calcRTWC(final String[] varList, final int optionSelect, final double convPercent, final int maxIterations, final int pointFilter, final int polyDegree, final double confInt, final int ndValue, final File outputDir) throws Exception{
+ 		//the first iteration of every pollutant at once
+ 		this.calcCWT(varList);
+ 		final int[] columns = columns(varList);
+ 		final int[] todo = taggedGrids(cells.zOrdered(lonCells, latCells)); //each grid on its own, in the order of their endpoints
+ 		if(incidenceStart == null) buildIncidence();
+ 		cells.ordered(); //found now, so that the pollutants only read it
+ 		
+ 		//the buffers of every pollutant, once: an iteration swaps its layers rather than copying them
+ 		oldCWT.copyFrom(CWT);
+ 		if(accelerateRTWC) olderCWT.copyFrom(CWT);
+ 		finalCWT.setLayers(varList.length);
+ 		finalCWT.allocateFrom(CWT);
+ 		
+ 		//then each pollutant on its own: none reads the concentrations or the CWT of another, except that pollutants of the
+ 		//same column (duplicate names share one) redistribute the same concentrations, so they are iterated by one task, in order
+ 		LinkedHashMap<Integer, ArrayList<Integer>> byColumn = new LinkedHashMap<Integer, ArrayList<Integer>>();
+ 		for(int k = 0; k < varList.length; k++){
+ 			if(!byColumn.containsKey(columns[k])) byColumn.put(columns[k], new ArrayList<Integer>());
+ 			byColumn.get(columns[k]).add(k);
+ 		}
+ 		int threads = Math.min(analysisThreads, byColumn.size());
+ 		if(threads <= 1){
+ 			for(int k = 0; k < varList.length; k++){
+ 				this.iterateRTWC(k, varList, columns, todo, optionSelect, convPercent, maxIterations, pointFilter, polyDegree, confInt, ndValue, outputDir);
+ 			}
+ 			return;
+ 		}
+ 		
+ 		ExecutorService pool = Executors.newFixedThreadPool(threads);
+ 		ArrayList<Future<Object>> pollutants = new ArrayList<Future<Object>>();
+ 		try{
+ 			for(final ArrayList<Integer> group : byColumn.values()){
+ 				pollutants.add(pool.submit(new Callable<Object>(){
+ 					public Object call() throws Exception{
+ 						for(int k = 0; k < group.size(); k++){
+ 							iterateRTWC(group.get(k), varList, columns, todo, optionSelect, convPercent, maxIterations, pointFilter, polyDegree, confInt, ndValue, outputDir);
+ 						}
+ 						return null;
+ 					}
+ 				}));
+ 			}
+ 			
+ 			//wait for every pollutant before rethrowing the first failure, so that none is left running
+ 			Exception failure = null;
+ 			for(int k = 0; k < pollutants.size(); k++){
+ 				try{
+ 					pollutants.get(k).get();
+ 				}catch(ExecutionException e){
+ 					if(failure == null) failure = (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+ 				}
+ 			}
+ 			if(failure != null) throw failure;
+ 		}finally{
+ 			pool.shutdown();
  		}
-    	
  	}
  	
  	/**
- 	 *Determines the average percent difference between two CWT matrices for every pollutant.
- 	 *the <code>finalCWT</code> 3D array will contain the converged results.
- 	 *percentDiff will only count values != ndValue in the average
+ 	 *Iterates RTWC for pollutant <code>k</code> alone from the CWT of calcRTWC, and finalizes it (see calcRTWC for the
+ 	 *parameters). Only layer <code>k</code> of the CWT buffers and column <code>columns[k]</code> of the concentrations are
+ 	 *changed, so that pollutants of different columns may be iterated on several threads at once; a pollutant which has
+ 	 *converged is not iterated any further.
  	 */
- 	private double[] percentDiff(String varList[], int ndValue){
- 		if(varList == null) return null;
+ 	private void iterateRTWC(int k, String[] varList, int[] columns, int[] todo, int optionSelect, double convPercent, int maxIterations, int pointFilter, int polyDegree, double confInt, int ndValue, File outputDir) throws Exception{
+ 		double[] averages = new double[incidenceStart.length - 1]; //of every trajectory, for every iteration
+ 		HashMap<Integer, Double> studT = new HashMap<Integer, Double>();
  		
- 		double PD[] = new double[varList.length];
+ 		if(optionSelect == 1 || optionSelect == 4){
+ 			//no smoothing, fixed iterations (maxIterations)
+ 			for(int r = 0; r < maxIterations-1; r++){
+ 				this.reDistLayer(CWT, k, columns[k], ndValue, averages);
+ 				this.calcCWTLayer(k, columns[k], todo);
+ 				System.out.println("RTWC Iteration: " + (r+1) + " (" + varList[k] + ")"); //VERBOSE TESTING
+ 				if(optionSelect ==  4) this.smoothCWTLayer(k, columns[k], ndValue, pointFilter, polyDegree, confInt, false, studT);
+ 			}
+ 			
+ 			//after the iterations, finalize the matrix
+ 			this.finalizeCWT(k, varList);
+ 			return;
+ 		}
  		
- 		for(int k = 0; k < varList.length; k++){
-			
-			/*Percent difference is calculated as the average 
-			 *percent differences of all grid cells.
-			 **/
-			
-			double counter = 0;
-			double gridDifferenceSum = 0;
-			
-			for(int i = 0; i < nHem.length; i++){
- 				for(int j = 0; j < nHem[i].length; j++){
- 					if(CWT[i][j] != null && CWT[i][j][k] > 0 && oldCWT[i][j] != null && oldCWT[i][j][k] > 0){
- 						gridDifferenceSum += ((CWT[i][j][k]-oldCWT[i][j][k])*100/oldCWT[i][j][k]);
- 						counter++;
- 					}
+ 		//linear CWT; no smoothing, use convergence criteria
+ 		int iterations = 0;
+ 		while(true){
+ 			//the last CWT becomes the old one, and the buffer of the old one (or of the older one) takes the next
+ 			if(accelerateRTWC) olderCWT.swapLayer(oldCWT, k);
+ 			oldCWT.swapLayer(CWT, k);
+ 			this.reDistLayer(oldCWT, k, columns[k], ndValue, averages);
+ 			this.calcCWTLayer(k, columns[k], todo);
+ 			if(optionSelect ==  3) this.smoothCWTLayer(k, columns[k], ndValue, pointFilter, polyDegree, confInt, false, studT);
+ 			iterations++;
+ 			
+ 			double PDiff = percentDiff(k);
+ 			System.out.println("PDiff(" + varList[k] + ") = " + PDiff); //VERBOSE TESTING
+ 			if(PDiff <= convPercent && PDiff >= 0){
+ 				System.out.println("Pollutant: " + varList[k] + " has converged");
+ 				this.finalizeCWT(k, varList);
+ 				
+ 				//at this point, the final RTWC matrix for the pollutant should be printed to disk.
+ 				File outputMatrix = new File(outputDir + "/CONVERGED_RTWC/" + varList[k] + ".txt");
+ 				if(!new File(outputMatrix.getParent()).exists()){
+ 					new File(outputMatrix.getParent()).mkdir();
  				}
-			}
-			
-			if(counter <= 0){
-				PD[k] = 0;
-			}else{
-				PD[k] = Math.abs(gridDifferenceSum/counter);
-			}
-			
-			//alternative: PD[k] = Math.abs(((avgSumNew/avgSumNewCounter)/(avgSumOld/avgSumOldCounter) - 1))*100;
+ 				
+ 				PrintWriter pW = new PrintWriter(new BufferedWriter(new FileWriter(outputMatrix.getAbsoluteFile() ,false)));
+ 				ArrayList<String> outText = this.getFinalCWTMatrix(k, ndValue);
+ 				for(int i = 0; i < outText.size(); i++) pW.println((String)(outText.get(i)));
+ 				pW.close();
+ 				//end temporary file write procedure
+ 				return;
+ 			}
+ 			
+ 			if(iterations >= maxIterations){
+ 				this.finalizeCWT(k, varList);
+ 				return;
+ 			}
+ 			
+ 			//two iterations after the last extrapolation (or the first CWT), the three fields are successive iterations
+ 			if(accelerateRTWC && optionSelect == 2 && iterations % 2 == 0) this.extrapolateCWT(k, todo);
  		}
- 		
- 		return PD;
  	}
  	
- 	private void finalizeCWT(int polIndex, String[] varList){
- 		for(int i = 0; i < nHem.length; i++){
-			for(int j = 0; j < nHem[i].length; j++){
-				if(CWT[i][j] != null){
-					if(finalCWT[i][j] == null) finalCWT[i][j] = new double[varList.length];
-					finalCWT[i][j][polIndex] = CWT[i][j][polIndex];
-				}
-			}
+ 	/**
+ 	 *Recalculates the CWT of pollutant <code>k</code> alone in every grid of <code>todo</code>.
+ 	 */
+ 	private void calcCWTLayer(int k, int column, int[] todo) throws Exception{
+ 		for(int n = 0; n < todo.length; n++){
+ 			CWT.set(todo[n], k, grids[todo[n]].calcCWT(k, column, false));
  		}
  	}
  	
- 	private void copyToOldCWT(String[] varList){
- 		for(int i = 0; i < nHem.length; i++){
-			for(int j = 0; j < nHem[i].length; j++){
-				if(CWT[i][j] != null){
-					/*if(oldCWT[i][j] == null)*/ oldCWT[i][j] = new double[varList.length];
-					for(int k = 0; k < varList.length; k++){
-						oldCWT[i][j][k] = CWT[i][j][k];
-					}
-				}
-			}
+ 	/**
+ 	 *Extrapolates the CWT of pollutant <code>k</code> from three successive iterations in <code>olderCWT</code>,
+ 	 *<code>oldCWT</code> and <code>CWT</code>: the field is moved along its last change by the step which a linearly
+ 	 *converging sequence would need to reach its limit (Aitken's delta-squared process on the whole field, as by Irons and
+ 	 *Tuck). Grids without data in any of the fields are left unchanged; so is the whole field if the step is not positive,
+ 	 *or if a CWT would not stay positive.
+ 	 *@return true if the field was extrapolated
+ 	 */
+ 	private boolean extrapolateCWT(int k, int[] todo){
+ 		double changeCurvature = 0;
+ 		double curvatureSquare = 0;
+ 		for(int n = 0; n < todo.length; n++){
+ 			int c = todo[n];
+ 			double x0 = olderCWT.get(c, k);
+ 			double x1 = oldCWT.get(c, k);
+ 			double x2 = CWT.get(c, k);
+ 			if(x0 <= 0 || x1 <= 0 || x2 <= 0) continue; //no data (ndValue < 0), or no concentration
+ 			double curvature = (x2 - x1) - (x1 - x0);
+ 			changeCurvature += (x2 - x1)*curvature;
+ 			curvatureSquare += curvature*curvature;
+ 		}
+ 		double step = -changeCurvature/curvatureSquare;
+ 		if(!(step > 0) || Double.isInfinite(step)) return false; //not converging linearly, or NaN
+ 		
+ 		for(int n = 0; n < todo.length; n++){
+ 			int c = todo[n];
+ 			if(olderCWT.get(c, k) > 0 && oldCWT.get(c, k) > 0 && CWT.get(c, k) > 0 && CWT.get(c, k) + step*(CWT.get(c, k) - oldCWT.get(c, k)) <= 0) return false;
+ 		}
+ 		for(int n = 0; n < todo.length; n++){
+ 			int c = todo[n];
+ 			double x1 = oldCWT.get(c, k);
+ 			double x2 = CWT.get(c, k);
+ 			if(olderCWT.get(c, k) <= 0 || x1 <= 0 || x2 <= 0) continue;
+ 			CWT.set(c, k, x2 + step*(x2 - x1));
+ 			grids[c].changeCWT(k, CWT.get(c, k));
+ 		}
+ 		return true;
+ 	}
+ 	
+ 	/**
+ 	 *Determines the average percent difference between the CWT of a pollutant and the one of the iteration before it.
+ 	 *the <code>finalCWT</code> raster will contain the converged results.
+ 	 *percentDiff will only count values != ndValue in the average
+ 	 */
+ 	private double percentDiff(int k){
+		/*Percent difference is calculated as the average 
+		 *percent differences of all grid cells.
+		 **/
+		
+		double counter = 0;
+		double gridDifferenceSum = 0;
+		
+		int[] order = cells.ordered();
+		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(CWT.has(c) && CWT.get(c, k) > 0 && oldCWT.has(c) && oldCWT.get(c, k) > 0){
+ 				gridDifferenceSum += ((CWT.get(c, k)-oldCWT.get(c, k))*100/oldCWT.get(c, k));
+ 				counter++;
+ 			}
 		}
+		
+		if(counter <= 0) return 0;
+		//alternative: Math.abs(((avgSumNew/avgSumNewCounter)/(avgSumOld/avgSumOldCounter) - 1))*100;
+		return Math.abs(gridDifferenceSum/counter);
+ 	}
+ 	
+ 	private void finalizeCWT(int polIndex, String[] varList){
+ 		finalCWT.setLayers(varList.length);
+ 		finalCWT.copyLayer(CWT, polIndex);
  	}
  	
  	/**
@@ -740,22 +1317,31 @@
  	 *@param varList an array of correlated data variable names, from the correlated data file 
  	 *@param a the atmospheric dispersion velocity (see the MetCor implementation note on QTBA); provide value in km/hr.
  	 */
- 	 public void calcQTBA(String varList[], double a, int maxReceptor){
- 	 	int maxTaggedRec = this.getMaxTaggedRec();
- 	 	for(int i = 0; i < nHem.length; i++){
- 	 		for(int j = 0; j < nHem[i].length; j++){
- 	 			if(nHem[i][j].taggedPop() > 0){
- 	 				QTBA[i][j] = new double[varList.length];
- 	 				for(int k = 0; k < varList.length; k++){
- 	 					try{
- 	 						QTBA[i][j][k] = nHem[i][j].getQTBA(varList[k], a, k, maxTaggedRec, maxReceptor);
- 	 					}catch(Exception e){
- 	 						e.printStackTrace();
- 	 						QTBA[i][j][k] = 0;
- 	 					}
+ 	 public void calcQTBA(String varList[], final double a, final int maxReceptor){
+ 	 	final int maxTaggedRec = this.getMaxTaggedRec();
+ 	 	final int[] columns = columns(varList);
+ 	 	for(int k = 0; k < varList.length; k++){
+ 	 		if(columns[k] < 0) System.out.println("QTBA: " + varList[k] + " was not found in the correlated data; QTBA = 0");
+ 	 	}
+ 	 	QTBA.setLayers(varList.length);
+ 	 	int[] todo = taggedGrids(cells.zOrdered(lonCells, latCells)); //each grid on its own, in the order of their endpoints
+ 	 	for(int n = 0; n < todo.length; n++) QTBA.allocate(todo[n]);
+ 	 	
+ 	 	//every pollutant of a grid on its own: a crowded grid is shared by several threads
+ 	 	try{
+ 	 		forEachGrid(todo, varList.length, new GridTask(){
+ 	 			public void run(int c, int k){
+ 	 				if(columns[k] < 0) return; //QTBA = 0, as for a grid whose QTBA cannot be computed
+ 	 				try{
+ 	 					QTBA.set(c, k, grids[c].getQTBA(columns[k], a, k, maxTaggedRec, maxReceptor));
+ 	 				}catch(Exception e){
+ 	 					e.printStackTrace();
+ 	 					QTBA.set(c, k, 0);
  	 				}
  	 			}
- 	 		}
+ 	 		});
+ 	 	}catch(Exception e){
+ 	 		throw new RuntimeException(e); //not thrown: every piece catches its own
  	 	}
  	 }
  	 
@@ -776,15 +1362,15 @@
  	 		double noTagged = 0;
  	 		double sumQTBAk = 0;
  	 		
- 	 		for(int i = 0; i < nHem.length; i++){
- 	 			for(int j = 0; j < nHem[i].length; j++){
- 	 				if(nHem[i][j].taggedPop() > 0){
- 	 					if(nHem[i][j].getGridNatT(k) >= 0){
- 	 						sumQTBAk += nHem[i][j].getGridNatT(k);
- 	 						noTagged++;
- 	 					}
- 	 				}		
- 	 			}
+ 	 		int[] order = cells.ordered();
+ 	 		for(int n = 0; n < order.length; n++){
+ 	 			int c = order[n];
+ 	 			if(grids[c].taggedPop() > 0){
+ 	 				if(grids[c].getGridNatT(k) >= 0){
+ 	 					sumQTBAk += grids[c].getGridNatT(k);
+ 	 					noTagged++;
+ 	 				}
+ 	 			}		
  	 		}
  	 		
  	 		output.add(varList[k] + "\t\t" + (sumQTBAk/noTagged));
@@ -811,13 +1397,13 @@
  	 		double noTagged = 0;
  	 		double sumAvgNIJ = 0;
  	 		
- 	 		for(int i = 0; i < nHem.length; i++){
- 	 			for(int j = 0; j < nHem[i].length; j++){
- 	 				if(nHem[i][j].taggedPop() > 0){
- 	 					sumAvgNIJ += nHem[i][j].taggedPop();
- 	 					noTagged++;
- 	 				}		
- 	 			}
+ 	 		int[] order = cells.ordered();
+ 	 		for(int n = 0; n < order.length; n++){
+ 	 			int c = order[n];
+ 	 			if(grids[c].taggedPop() > 0){
+ 	 				sumAvgNIJ += grids[c].taggedPop();
+ 	 				noTagged++;
+ 	 			}		
  	 		}
  	 		
  	 		output.add(varList[k] + "\t\t" + (sumAvgNIJ/noTagged));	
@@ -829,7 +1415,7 @@
  	 	return output;
  	 }
  	
- 	 public void calcPSCFBySourceID(Pair[] threshDataW, int recMax) throws Exception{
+ 	 public void calcPSCFBySourceID(final Pair[] threshDataW, int recMax) throws Exception{
  	 	
  	 	int taggedWorldRecs = this.getMaxTaggedRec();
  	 	
@@ -839,39 +1425,51 @@
  	 	}
  	 	
  		if(threshDataW == null || threshDataW.length == 0) return;
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				//DO ONLY FOR THOSE GRIDS THAT HAVE BEEN TAGGED; i.e., THE MIJ ARRAY IS NOT NULL.
- 				//Grids containing a population of zero yet allocated data, get PSCF = 0. this is handled in the case below
- 				//Grids containing points which have NO correlated data have a NULL PSCF value and are treated the same as empty grids; therefore, mij = null and PSCF = null
- 				if(nHem[i][j].mij != null && threshDataW.length == nHem[i][j].mij.length){
- 					PSCF[i][j] = new double[threshDataW.length];
-					nHem[i][j].calcMIJ(threshDataW, recMax);
-					
-					for(int k = 0; k < PSCF[i][j].length; k++){
-						int popTemp = nHem[i][j].taggedPop();
-						int popTempMulti = nHem[i][j].multiPopForPSCF(recMax);
-						if(nHem[i][j].mij != null && popTempMulti >= 0){
-							PSCF[i][j][k] = getWeight(nHem[i][j].taggedUniqueID(), 0, true)*(((nHem[i][j]).mij[k])/((Integer)popTempMulti).doubleValue());
-						}
-					}
- 				}
- 				/*if(nHem[i][j].mij != null && threshDataW.length == nHem[i][j].mij.length){
- 					PSCF[i][j] = new double[threshDataW.length];
-					nHem[i][j].calcMIJ(threshDataW, worldRecs.size());
-					for(int k = 0; k < PSCF[i][j].length; k++){
-						int popTemp = nHem[i][j].taggedPop();
-						if(nHem[i][j].mij == null){
-							PSCF[i][j][k] = -1.00;
-						}else{
-							//multiplicative PSCF should go here
-							PSCF[i][j][k] = getWeight(nHem[i][j].taggedUniqueID())*(((nHem[i][j]).mij[k])/((Integer)popTemp).doubleValue());
-						}
-						
-					}
- 				}*/	
+		final int[] columns = columns(threshDataW);
+		final long[] exceedances = vectors.exceedances(threshDataW, columns); //of every pollutant, once per sample
+		final int receptorMax = recMax;
+		PSCF.setLayers(threshDataW.length);
+ 		int[] order = cells.zOrdered(lonCells, latCells); //each grid on its own, in the order of their endpoints
+ 		int[] todo = new int[order.length];
+ 		int count = 0;
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			//DO ONLY FOR THOSE GRIDS THAT HAVE BEEN TAGGED; i.e., THE MIJ ARRAY IS NOT NULL.
+ 			//Grids containing a population of zero yet allocated data, get PSCF = 0. this is handled in the case below
+ 			//Grids containing points which have NO correlated data have a NULL PSCF value and are treated the same as empty grids; therefore, mij = null and PSCF = null
+ 			if(grids[c].mij != null && threshDataW.length == grids[c].mij.length){
+ 				PSCF.allocate(c);
+ 				todo[count++] = c;
  			}
  		}
+ 		
+ 		forEachGrid(Arrays.copyOf(todo, count), 1, new GridTask(){
+ 			public void run(int c, int unused) throws Exception{
+				grids[c].calcMIJ(threshDataW, columns, exceedances, receptorMax);
+				
+				for(int k = 0; k < PSCF.layers(); k++){
+					int popTemp = grids[c].taggedPop();
+					int popTempMulti = grids[c].multiPopForPSCF(receptorMax);
+					if(grids[c].mij != null && popTempMulti >= 0){
+						PSCF.set(c, k, getWeight(grids[c].taggedUniqueID(), 0, true)*(((grids[c]).mij[k])/((Integer)popTempMulti).doubleValue()));
+					}
+				}
+ 			}
+ 		});
+ 			/*if(grids[c].mij != null && threshDataW.length == grids[c].mij.length){
+ 				PSCF.allocate(c);
+				grids[c].calcMIJ(threshDataW, worldRecs.size());
+				for(int k = 0; k < PSCF.layers(); k++){
+					int popTemp = grids[c].taggedPop();
+					if(grids[c].mij == null){
+						PSCF.set(c, k, -1.00);
+					}else{
+						//multiplicative PSCF should go here
+						PSCF.set(c, k, getWeight(grids[c].taggedUniqueID())*(((grids[c]).mij[k])/((Integer)popTemp).doubleValue()));
+					}
+					
+				}
+ 			}*/	
  	}
  	
  	
@@ -881,10 +1479,10 @@
  	 */
  	public int getMaxNIJ(){ 
  		int maxNIJ = 0;
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].population() > maxNIJ) maxNIJ = nHem[i][j].population();
- 			}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].population() > maxNIJ) maxNIJ = grids[c].population();
  		}
  		return maxNIJ;
  	}
@@ -895,20 +1493,20 @@
  	 */
  	private int getMaxTaggedNIJ(){
  		int maxNIJ = 0;
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].taggedPop() > maxNIJ) maxNIJ = nHem[i][j].taggedPop();
- 			}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].taggedPop() > maxNIJ) maxNIJ = grids[c].taggedPop();
  		}
  		return maxNIJ;
  	}
  	
  	 private int getMaxTaggedSource(){
  		int maxUnique = 0;
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].taggedUniqueID() > maxUnique) maxUnique = nHem[i][j].taggedUniqueID();
- 			}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].taggedUniqueID() > maxUnique) maxUnique = grids[c].taggedUniqueID();
  		}
  		return maxUnique;
  	}
@@ -925,11 +1523,11 @@
  		int[] freq = new int[intervals];
  		String[] freqOut = new String[intervals];
  		double spacing = Math.ceil((double)getMaxNIJ()/intervals);
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].population() != 0){
- 					freq[(int)(nHem[i][j].population()/spacing)] += nHem[i][j].population();
- 				}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].population() != 0){
+ 				freq[(int)(grids[c].population()/spacing)] += grids[c].population();
  			}
  		}
  		
@@ -950,11 +1548,11 @@
  		int[] freq = new int[intervals];
  		String[] freqOut = new String[intervals];
  		double spacing = Math.ceil((double)getMaxTaggedNIJ()/intervals);
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].taggedPop() != 0){
- 					freq[(int)(nHem[i][j].taggedPop()/spacing)] += nHem[i][j].taggedPop();
- 				}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].taggedPop() != 0){
+ 				freq[(int)(grids[c].taggedPop()/spacing)] += grids[c].taggedPop();
  			}
  		}
  		
@@ -983,14 +1581,15 @@
  		
  		lines.add(headerLine);
  		
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				temp = "" + (nHem[i][j].taggedPop());
+ 		for(int i = 0; i < lonCells; i++){
+ 			for(int j = 0; j < latCells; j++){
+ 				int c = ordinal(i, j); //every grid, including those with no points
+ 				temp = "" + ((c < 0) ? 0 : grids[c].taggedPop());
  				for(int k = 0; k < threshData.length; k++){
- 					if(PSCF[i][j] == null){
+ 					if(c < 0 || !PSCF.has(c)){
  						temp += "\t-1.000"; //NO DATA (CHANGE)
  					}else{
- 						temp += "\t" + PSCF[i][j][k];
+ 						temp += "\t" + PSCF.get(c, k);
  					}
  				}
  				lines.add(temp); 			
@@ -1005,11 +1604,11 @@
  		String[] freqOut = new String[intervals];
  		double spacing = Math.ceil((double)getMaxTaggedSource()/intervals);
 		System.out.println("SPACING = " + spacing + " , Max Unique Source IDs = " + getMaxTaggedSource());
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].taggedPop() != 0){
- 					freq[(int)(nHem[i][j].taggedUniqueID()/spacing)] += 1;
- 				}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].taggedPop() != 0){
+ 				freq[(int)(grids[c].taggedUniqueID()/spacing)] += 1;
  			}
  		}
  		
@@ -1034,14 +1633,15 @@
  		lines.add(headerLine);
  		
  		
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				temp = "" + (nHem[i][j].taggedUniqueID());
+ 		for(int i = 0; i < lonCells; i++){
+ 			for(int j = 0; j < latCells; j++){
+ 				int c = ordinal(i, j); //every grid, including those with no points
+ 				temp = "" + ((c < 0) ? 0 : grids[c].taggedUniqueID());
  				for(int k = 0; k < threshData.length; k++){
- 					if(PSCF[i][j] == null){
+ 					if(c < 0 || !PSCF.has(c)){
  						temp += "\t-1.000"; //NO DATA (CHANGE)
  					}else{
- 						temp += "\t" + PSCF[i][j][k];
+ 						temp += "\t" + PSCF.get(c, k);
  					}
  				}
  				lines.add(temp); 			
@@ -1052,97 +1652,66 @@
  	
  	
  	/**
- 	 *Returns a 2D matrix for the set of PSCF values
- 	 *@param index the 3rd-dimensional index of the PSCF matrix
- 	 *@param nDValue no data value. Must be less than 0.
+ 	 *Returns a 2D matrix of one of the results of the grids (PSCF, CWT, RTWC or QTBA) as an ASCII raster covering every grid of
+ 	 *this World; grids with no points or no result are written as <code>ndValue</code>.
+ 	 *@param field the results of the populated grids
+ 	 *@param index the index of the correlated variable
+ 	 *@param ndValue no data value. Must be less than 0.
  	 */
- 	public ArrayList<String> getPSCFMatrix(int index, int ndValue){
- 		if(PSCF == null || index < 0 || ndValue >= 0) return null;
+ 	private ArrayList<String> getMatrix(ResultRaster field, int index, int ndValue){
+ 		if(index < 0 || ndValue >= 0) return null;
  		ArrayList<String> lines = new ArrayList<String>();
  		
  		//print a header:
- 		String header = "ncols " + nHem.length + "\n";
- 		header += "nrows " + nHem[0].length + "\nxllcorner 479130.000000 \nyllcorner 4594080.000000 \ncellsize 33000 \nnodata_value " + dfL.format(ndValue);
+ 		String header = "ncols " + lonCells + "\n";
+ 		header += "nrows " + latCells + "\nxllcorner 479130.000000 \nyllcorner 4594080.000000 \ncellsize 33000 \nnodata_value " + dfL.format(ndValue);
  		
  		lines.add(header);
  		
- 		String oneLine  = "";
- 		int latIndex = Math.min(PSCF[0].length, (int)(90.0/this.latDY));
+ 		String noData = dfL.format(ndValue) + "\t";
+ 		int latIndex = Math.min(latCells, (int)(90.0/this.latDY));
  		
- 		for(int i = 0; i < Math.min(nHem[0].length,(int)(90.0/this.latDY)); i++){
- 			oneLine = "";
- 			for(int j = 0; j < nHem.length; j++){
- 				if(PSCF[j][latIndex-i-1] == null){
- 					oneLine += dfL.format(ndValue) + "\t";
+ 		//the northern hemisphere from the north, then the southern hemisphere from the equator if this World has one
+ 		for(int i = 0; i < latCells; i++){
+ 			int row;
+ 			if(i < latIndex){
+ 				row = latIndex-i-1;
+ 			}else if(this.totalLat > 90){
+ 				row = i;
+ 			}else{
+ 				break;
+ 			}
+ 			StringBuilder oneLine = new StringBuilder();
+ 			for(int j = 0; j < lonCells; j++){
+ 				int c = ordinal(j, row);
+ 				if(c < 0 || !field.has(c)){
+ 					oneLine.append(noData);
  				}else{
- 					oneLine += dfL.format(PSCF[j][latIndex-i-1][index]) + "\t";
+ 					oneLine.append(dfL.format(field.get(c, index))).append('\t');
  				}
  			}
- 			lines.add(oneLine);
- 		}
- 		
- 		if(this.totalLat > 90){
-	 		for(int i = (int)(90.0/this.latDY); i < nHem[0].length; i++){
-	 			oneLine = "";
-	 			for(int j = 0; j < nHem.length; j++){
-	 				if(PSCF[j][i] == null){
-	 					oneLine += dfL.format(ndValue) + "\t";
-	 				}else{
-	 					oneLine += dfL.format(PSCF[j][i][index]) + "\t";
-	 				}
-	 			}
-	 			lines.add(oneLine);
-	 		}
+ 			lines.add(oneLine.toString());
  		}
  		
  		return lines;
  	}
  	
+ 	/**
+ 	 *Returns a 2D matrix for the set of PSCF values
+ 	 *@param index the 3rd-dimensional index of the PSCF matrix
+ 	 *@param nDValue no data value. Must be less than 0.
+ 	 */
+ 	public ArrayList<String> getPSCFMatrix(int index, int ndValue){
+ 	 	return getMatrix(PSCF, index, ndValue);
+ 	 }
+ 	
  	/**
  	 *Returns a 2D matrix of the CWT values, in the same way as a printout of the PSCF matrix
  	 *@param index the 3rd-dimensional index of the CWT matrix
  	 *@param ndValue no data value. Must be less than 0.
  	 */
  	 public ArrayList<String> getCWTMatrix(int index, int ndValue){
- 	 	if(CWT == null || index < 0 || ndValue >= 0) return null;
- 		ArrayList<String> lines = new ArrayList<String>();
- 		
- 		//print a header:
- 		String header = "ncols " + nHem.length + "\n";
- 		header += "nrows " + nHem[0].length + "\nxllcorner 479130.000000 \nyllcorner 4594080.000000 \ncellsize 33000 \nnodata_value " + dfL.format(ndValue);
- 		
- 		lines.add(header);
- 		
- 		String oneLine  = "";
- 		int latIndex = Math.min(CWT[0].length, (int)(90.0/this.latDY));
- 		
- 		for(int i = 0; i < Math.min(nHem[0].length,(int)(90.0/this.latDY)); i++){
- 			oneLine = "";
- 			for(int j = 0; j < nHem.length; j++){
- 				if(CWT[j][latIndex-i-1] == null){
- 					oneLine += dfL.format(ndValue) + "\t";
- 				}else{
- 					oneLine += dfL.format(CWT[j][latIndex-i-1][index]) + "\t";
- 				}
- 			}
- 			lines.add(oneLine);
- 		}
- 		
- 		if(this.totalLat > 90){
-	 		for(int i = (int)(90.0/this.latDY); i < nHem[0].length; i++){
-	 			oneLine = "";
-	 			for(int j = 0; j < nHem.length; j++){
-	 				if(CWT[j][i] == null){
-	 					oneLine += dfL.format(ndValue) + "\t";
-	 				}else{
-	 					oneLine += dfL.format(CWT[j][i][index]) + "\t";
-	 				}
-	 			}
-	 			lines.add(oneLine);
-	 		}
- 		}
- 		
- 		return lines;
+ 	 	return getMatrix(CWT, index, ndValue);
  	 }
  	 
  	/**
@@ -1151,89 +1720,13 @@
  	 *@param ndValue no data value. Must be less than 0.
  	 */
  	 public ArrayList<String> getFinalCWTMatrix(int index, int ndValue){
- 	 	if(finalCWT == null || index < 0 || ndValue >= 0) return null;
- 		ArrayList<String> lines = new ArrayList<String>();
- 		
- 		//print a header:
- 		String header = "ncols " + nHem.length + "\n";
- 		header += "nrows " + nHem[0].length + "\nxllcorner 479130.000000 \nyllcorner 4594080.000000 \ncellsize 33000 \nnodata_value " + dfL.format(ndValue);
- 		
- 		lines.add(header);
- 		
- 		String oneLine  = "";
- 		int latIndex = Math.min(finalCWT[0].length, (int)(90.0/this.latDY));
- 		
- 		for(int i = 0; i < Math.min(nHem[0].length,(int)(90.0/this.latDY)); i++){
- 			oneLine = "";
- 			for(int j = 0; j < nHem.length; j++){
- 				if(finalCWT[j][latIndex-i-1] == null){
- 					oneLine += dfL.format(ndValue) + "\t";
- 				}else{
- 					oneLine += dfL.format(finalCWT[j][latIndex-i-1][index]) + "\t";
- 				}
- 			}
- 			lines.add(oneLine);
- 		}
- 		
- 		if(this.totalLat > 90){
-	 		for(int i = (int)(90.0/this.latDY); i < nHem[0].length; i++){
-	 			oneLine = "";
-	 			for(int j = 0; j < nHem.length; j++){
-	 				if(finalCWT[j][i] == null){
-	 					oneLine += dfL.format(ndValue) + "\t";
-	 				}else{
-	 					oneLine += dfL.format(finalCWT[j][i][index]) + "\t";
-	 				}
-	 			}
-	 			lines.add(oneLine);
-	 		}
- 		}
- 		
- 		return lines;
+ 	 	return getMatrix(finalCWT, index, ndValue);
  	 }
  	 
  	 
  	 
  	 public ArrayList<String> getQTBAMatrix(int index, int ndValue){
- 	 	if(QTBA == null || index < 0 || ndValue >= 0) return null;
- 		ArrayList<String> lines = new ArrayList<String>();
- 		
- 		//print a header:
- 		String header = "ncols " + nHem.length + "\n";
- 		header += "nrows " + nHem[0].length + "\nxllcorner 479130.000000 \nyllcorner 4594080.000000 \ncellsize 33000 \nnodata_value " + dfL.format(ndValue);
- 		
- 		lines.add(header);
- 		
- 		String oneLine  = "";
- 		int latIndex = Math.min(QTBA[0].length, (int)(90.0/this.latDY));
- 		
- 		for(int i = 0; i < Math.min(nHem[0].length,(int)(90.0/this.latDY)); i++){
- 			oneLine = "";
- 			for(int j = 0; j < nHem.length; j++){
- 				if(QTBA[j][latIndex-i-1] == null){
- 					oneLine += dfL.format(ndValue) + "\t";
- 				}else{
- 					oneLine += dfL.format(QTBA[j][latIndex-i-1][index]) + "\t";
- 				}
- 			}
- 			lines.add(oneLine);
- 		}
- 		
- 		if(this.totalLat > 90){
-	 		for(int i = (int)(90.0/this.latDY); i < nHem[0].length; i++){
-	 			oneLine = "";
-	 			for(int j = 0; j < nHem.length; j++){
-	 				if(QTBA[j][i] == null){
-	 					oneLine += dfL.format(ndValue) + "\t";
-	 				}else{
-	 					oneLine += dfL.format(QTBA[j][i][index]) + "\t";
-	 				}
-	 			}
-	 			lines.add(oneLine);
-	 		}
- 		}
- 		
- 		return lines;
+ 	 	return getMatrix(QTBA, index, ndValue);
  	 }
  	
  	/**
@@ -1241,18 +1734,18 @@
  	 */
  	public void printData(){
  		//REQUIRES that PSCF is not null!
-		for(int i = 0; i < nHem.length; i++){
-			for(int j = 0; j < nHem[i].length; j++){
-				if(nHem[i][j].population() > 0){
-					System.out.print("(" + (lonDX*i) + " , " + (latDY*j) + ") ; Population = " + nHem[i][j].population());
-					if(PSCF[i][j] != null){
-						 System.out.print("...Contains concentration data with first PSCF values: = ");
-						 for(int k = 0; k < PSCF[i][j].length; k++){
-						 	System.out.print("\t\n1: PSCF = " + PSCF[i][j][k]);
-						 }
-					}
-					System.out.print("\n");
+		int[] order = cells.ordered();
+		for(int n = 0; n < order.length; n++){
+			int c = order[n];
+			if(grids[c].population() > 0){
+				System.out.print("(" + grids[c].gridLon() + " , " + grids[c].gridLat() + ") ; Population = " + grids[c].population());
+				if(PSCF.has(c)){
+					 System.out.print("...Contains concentration data with first PSCF values: = ");
+					 for(int k = 0; k < PSCF.layers(); k++){
+						 System.out.print("\t\n1: PSCF = " + PSCF.get(c, k));
+					 }
 				}
+				System.out.print("\n");
 			}
 		}
  	}
@@ -1261,14 +1754,14 @@
  	 *Prints the population of grids which contain concentration data. 
  	 */
  	public void printTaggedPoints(){
- 		for(int i = 0; i < nHem.length; i++){
- 			for(int j = 0; j < nHem[i].length; j++){
- 				if(nHem[i][j].population() > 0 && nHem[i][j].mij != null){
- 					System.out.print("(" + (lonDX*i) + " , " + (latDY*j) + ") ; Population = " + nHem[i][j].population() + "....contains conc. data\n");
- 				}else{
- 					if(nHem[i][j].population() > 0)
- 					System.out.print("(" + (lonDX*i) + " , " + (latDY*j) + ") ; Population = " + nHem[i][j].population() + "\n");
- 				}
+ 		int[] order = cells.ordered();
+ 		for(int n = 0; n < order.length; n++){
+ 			int c = order[n];
+ 			if(grids[c].population() > 0 && grids[c].mij != null){
+ 				System.out.print("(" + grids[c].gridLon() + " , " + grids[c].gridLat() + ") ; Population = " + grids[c].population() + "....contains conc. data\n");
+ 			}else{
+ 				if(grids[c].population() > 0)
+ 				System.out.print("(" + grids[c].gridLon() + " , " + grids[c].gridLat() + ") ; Population = " + grids[c].population() + "\n");
  			}
  		}
  	}
@@ -1279,7 +1772,7 @@
  	 public void printState(){
  	 	System.out.println("WORLD: dX = " + this.lonDX + " , dY = " + this.latDY);
  	 	System.out.println("Population: " + this.hemPopulation());
- 	 	System.out.println("Grid Array Dimensions: " + nHem.length + " by " + nHem[0].length);
+ 	 	System.out.println("Grid Array Dimensions: " + lonCells + " by " + latCells);
  	 }
  	 
  	 /**
@@ -1287,11 +1780,11 @@
  	  *purely for testing purposes
  	  */
  	 public void printCWTMatrix(int index){
- 	 	for(int i = 0; i < nHem.length; i++){
- 	 		for(int j = 0; j < nHem[i].length; j++){
- 	 			if(CWT[i][j] != null){
- 	 				System.out.println(nHem[i][j].gridLat() + "," + nHem[i][j].gridLon() + "," + CWT[i][j][index]);
- 	 			}
+ 	 	int[] order = cells.ordered();
+ 	 	for(int n = 0; n < order.length; n++){
+ 	 		int c = order[n];
+ 	 		if(CWT.has(c)){
+ 	 			System.out.println(grids[c].gridLat() + "," + grids[c].gridLon() + "," + CWT.get(c, index));
  	 		}
  	 	}
  	 }
@@ -1302,11 +1795,11 @@
  	  *purely for testing purposes
  	  */
  	 public void printQTBAMatrix(int index){
- 	 	for(int i = 0; i < nHem.length; i++){
- 	 		for(int j = 0; j < nHem[i].length; j++){
- 	 			if(QTBA[i][j] != null){
- 	 				System.out.println(nHem[i][j].gridLat() + "," + nHem[i][j].gridLon() + "," + QTBA[i][j][index]);
- 	 			}
+ 	 	int[] order = cells.ordered();
+ 	 	for(int n = 0; n < order.length; n++){
+ 	 		int c = order[n];
+ 	 		if(QTBA.has(c)){
+ 	 			System.out.println(grids[c].gridLat() + "," + grids[c].gridLon() + "," + QTBA.get(c, index));
  	 		}
  	 	}
  	 }
@@ -1317,11 +1810,11 @@
  	  *purely for testing purposes
  	  */
  	 public void printRTWCMatrix(int index){
- 	 	for(int i = 0; i < nHem.length; i++){
- 	 		for(int j = 0; j < nHem[i].length; j++){
- 	 			if(finalCWT[i][j] != null){
- 	 				System.out.println(nHem[i][j].gridLat() + "," + nHem[i][j].gridLon() + "," + finalCWT[i][j][index]);
- 	 			}
+ 	 	int[] order = cells.ordered();
+ 	 	for(int n = 0; n < order.length; n++){
+ 	 		int c = order[n];
+ 	 		if(finalCWT.has(c)){
+ 	 			System.out.println(grids[c].gridLat() + "," + grids[c].gridLon() + "," + finalCWT.get(c, index));
  	 		}
  	 	}
  	 }